@@ -0,0 +1,253 @@
+package me.lise.CPEN431.Frobber.check;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
+import me.lise.CPEN431.Frobber.net.KeyHashes;
+
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The operations clients made during a run, for a {@link LinearizabilityChecker} to verify afterwards.
+ *
+ * Operations are written as they complete to one of a fixed number of partition files, chosen by key, so the
+ * history of an hour-long run lives on disk. Every operation on a key lands in the same partition. Recording is
+ * thread-safe.
+ *
+ * Operations sent between {@link #invoke()} and {@link #record} are tracked while in flight, and each one is written
+ * with a watermark: the earliest invocation of any operation still in flight, which no operation written after it
+ * can precede. That lets the checker close off a key's history up to the watermark while still reading the rest.
+ */
+public class History implements Closeable {
+    /** {@code Command.PUT}, {@code Command.GET} and {@code Command.REMOVE} */
+    private static final int PUT = 0x1;
+    private static final int GET = 0x2;
+    private static final int REMOVE = 0x3;
+
+    /** {@code ErrCode.OKAY}, {@code ErrCode.NO_KEY} and {@code ErrCode.OVERLOAD} */
+    private static final int OKAY = 0x0;
+    private static final int NO_KEY = 0x1;
+    private static final int OVERLOAD = 0x3;
+
+    private final Path directory;
+    private final DataOutputStream[] partitions;
+    private final AtomicLong size = new AtomicLong(0);
+    private final AtomicLong firstInvokedAt = new AtomicLong(Long.MAX_VALUE);
+    /** Invocation times of the operations in flight, and how many were invoked at each */
+    private final TreeMap<Long, Integer> inFlight = new TreeMap<>();
+
+    /**
+     * @param partitions How many files to split the history over. More partitions mean less memory per checker
+     *                   thread; a partition holds about {@code operations / partitions} of them.
+     * @throws IOException if the files could not be created.
+     */
+    public History(int partitions) throws IOException {
+        this.directory = Files.createTempDirectory("frobber-history");
+        this.partitions = new DataOutputStream[partitions];
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                    partitionFile(i))));
+        }
+    }
+
+    private Path partitionFile(int partition) {
+        return directory.resolve("partition-" + partition);
+    }
+
+    /**
+     * Start tracking an operation about to be sent. Every operation started must be passed to {@link #record} once
+     * it is over, answered or not, or the checker can't close off anything recorded after it until the end.
+     * @return The operation's invocation time, {@link System#nanoTime()} now.
+     */
+    public long invoke() {
+        synchronized (inFlight) {
+            long now = System.nanoTime();
+            inFlight.merge(now, 1, Integer::sum);
+            return now;
+        }
+    }
+
+    /**
+     * Record a PUT, GET or REMOVE and what came of it. Requests the server certainly didn't carry out (overloaded)
+     * and reads without an answer tell us nothing and are left out.
+     * @param client Who sent it.
+     * @param command The request's command.
+     * @param value The value PUT, or null.
+     * @param version The version PUT.
+     * @param invokedAt What {@link #invoke()} returned just before the request was sent.
+     * @param completedAt {@link System#nanoTime()} just after the reply arrived, or gave up on.
+     * @param response The reply, or null if there was none.
+     * @throws IOException if the operation could not be written out.
+     */
+    public void record(int client, int command, ByteString key, ByteString value, int version, long invokedAt,
+                       long completedAt, KVResponse response) throws IOException {
+        Operation.Kind kind;
+        if (command == PUT) {
+            kind = Operation.Kind.PUT;
+        } else if (command == GET) {
+            kind = Operation.Kind.GET;
+        } else if (command == REMOVE) {
+            kind = Operation.Kind.REMOVE;
+        } else {
+            throw new IllegalArgumentException("Can't check command " + command);
+        }
+
+        Operation.Outcome outcome;
+        if (response == null) {
+            outcome = Operation.Outcome.UNKNOWN;
+        } else if (response.getErrCode() == OKAY) {
+            outcome = Operation.Outcome.OK;
+        } else if (response.getErrCode() == NO_KEY && kind != Operation.Kind.PUT) {
+            outcome = Operation.Outcome.NO_KEY;
+        } else if (response.getErrCode() == OVERLOAD) {
+            completed(invokedAt);
+            return;
+        } else {
+            outcome = Operation.Outcome.UNKNOWN;
+        }
+        if (outcome == Operation.Outcome.UNKNOWN && kind == Operation.Kind.GET) {
+            completed(invokedAt);
+            return;
+        }
+
+        long fingerprint = 0;
+        if (kind == Operation.Kind.PUT) {
+            fingerprint = fingerprint(value);
+        } else if (kind == Operation.Kind.GET && outcome == Operation.Outcome.OK) {
+            fingerprint = fingerprint(response.getValue());
+            version = response.getVersion();
+        }
+        write(new Operation(client, kind, outcome, key, fingerprint, version, invokedAt,
+                outcome == Operation.Outcome.UNKNOWN ? Operation.NEVER : completedAt), true);
+    }
+
+    /**
+     * Record an operation as it is, without tracking it: the checker only closes off its key's history once the
+     * whole history has been read.
+     * @throws IOException if it could not be written out.
+     */
+    public void record(Operation operation) throws IOException {
+        write(operation, false);
+    }
+
+    private void write(Operation operation, boolean tracked) throws IOException {
+        DataOutputStream out = partitions[Math.floorMod(operation.getKey().hashCode(), partitions.length)];
+        synchronized (out) {
+            // under the partition's lock, so nothing written to it later can have been invoked before the watermark
+            long watermark = tracked ? completed(operation.getInvokedAt()) : Long.MIN_VALUE;
+            out.writeLong(watermark);
+            operation.writeTo(out);
+        }
+        size.incrementAndGet();
+        firstInvokedAt.accumulateAndGet(operation.getInvokedAt(), Math::min);
+    }
+
+    /**
+     * Stop tracking an operation.
+     * @return The earliest invocation of any operation still in flight, or now if there are none.
+     */
+    private long completed(long invokedAt) {
+        synchronized (inFlight) {
+            inFlight.computeIfPresent(invokedAt, (t, n) -> n == 1 ? null : n - 1);
+            return inFlight.isEmpty() ? System.nanoTime() : inFlight.firstKey();
+        }
+    }
+
+    /**
+     * @return The fingerprint stored for {@code value}.
+     */
+    public static long fingerprint(ByteString value) {
+        return KeyHashes.FNV1A_64.hash(value.toByteArray());
+    }
+
+    /**
+     * @return The number of operations recorded.
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @return The earliest invocation time recorded, to report times relative to.
+     */
+    public long getFirstInvokedAt() {
+        return firstInvokedAt.get();
+    }
+
+    int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * @return A reader over the operations in one partition, in the order they were recorded. Only call once
+     * recording has finished.
+     */
+    Reader readPartition(int partition) throws IOException {
+        DataOutputStream out = partitions[partition];
+        synchronized (out) {
+            out.flush();
+        }
+        return new Reader(new DataInputStream(new BufferedInputStream(Files.newInputStream(
+                partitionFile(partition)))));
+    }
+
+    /**
+     * Delete the history's files.
+     */
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i].close();
+            Files.deleteIfExists(partitionFile(i));
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Reads a partition back one operation at a time.
+     */
+    static class Reader implements Closeable {
+        private final DataInputStream in;
+        private long watermark = Long.MIN_VALUE;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return The next operation, or null at the end of the partition.
+         */
+        Operation next() throws IOException {
+            long operationWatermark;
+            try {
+                operationWatermark = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            watermark = Math.max(watermark, operationWatermark);
+            return Operation.readFrom(in);
+        }
+
+        /**
+         * @return A time no operation still to be read was invoked before.
+         */
+        long getWatermark() {
+            return watermark;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
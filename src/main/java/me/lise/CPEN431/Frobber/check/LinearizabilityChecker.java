@@ -0,0 +1,711 @@
+package me.lise.CPEN431.Frobber.check;
+
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that a {@link History} of PUTs, GETs and REMOVEs is linearizable: that every operation can be given a
+ * single point in time between its invocation and its completion, such that a plain key-value map taking them in
+ * that order returns exactly what the clients saw.
+ *
+ * A map is linearizable if and only if each key on its own is, so each key is checked separately, with the search
+ * of Wing and Gong as improved by Lowe, which Porcupine also uses: try to linearize the earliest pending operation
+ * next, backtrack when a completed operation can't have happened yet, and remember every (set of linearized
+ * operations, state) reached so that no state is explored twice.
+ *
+ * Partitions of the history are checked in parallel, one per thread, each read back an operation at a time. A key's
+ * history is searched a stretch at a time, cut wherever every operation invoked so far has completed, and every
+ * state a stretch could leave the key in is carried into the next. Operations of unknown outcome never complete, so
+ * they are carried along too until one of those orders lets them take effect. Leaving one yet to take effect is
+ * always allowed, so only the ways through a stretch that leave the most of them are kept, and a timed-out write is
+ * only tried where something reads it. Memory then holds the stretches being searched rather than whole histories,
+ * however long the run. The search is exponential in the worst case, so a key that takes more than
+ * {@code stepsPerOperation} steps per operation in a stretch is reported as unknown rather than holding up the rest.
+ */
+public class LinearizabilityChecker {
+    /** Violations reported in full; any more are only counted */
+    private static final int MAX_REPORTED_VIOLATIONS = 10;
+
+    /** Operations around a violation reported with it: some that finished just before, and some overlapping */
+    private static final int MAX_REPORTED_EARLIER = 5;
+    private static final int MAX_REPORTED_OPERATIONS = 20;
+
+    /** Operations read from a partition between looking for stretches of its keys' histories that can be checked */
+    private static final int READS_PER_CUT = 10000;
+
+    private final int threads;
+    private final long stepsPerOperation;
+
+    /**
+     * @param threads How many partitions to check at once.
+     * @param stepsPerOperation How long to search a stretch of a key's history before giving up on the key, per
+     *                          operation in the stretch, which also caps the states it remembers.
+     */
+    public LinearizabilityChecker(int threads, long stepsPerOperation) {
+        this.threads = threads;
+        this.stepsPerOperation = stepsPerOperation;
+    }
+
+    /**
+     * Check a history that has finished recording.
+     * @throws IOException if the history could not be read back.
+     * @throws InterruptedException if interrupted while waiting for the checker threads.
+     */
+    public Result check(History history) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Result result = new Result(history.getFirstInvokedAt());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < history.getPartitionCount(); i++) {
+                final int partition = i;
+                futures.add(pool.submit(() -> {
+                    checkPartition(history, partition, result);
+                    return null;
+                }));
+            }
+            for (Future<Void> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IllegalStateException("Checker thread failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void checkPartition(History history, int partition, Result result) throws IOException {
+        Map<ByteString, KeyHistory> keys = new HashMap<>();
+        try (History.Reader in = history.readPartition(partition)) {
+            long read = 0;
+            Operation operation;
+            while ((operation = in.next()) != null) {
+                keys.computeIfAbsent(operation.getKey(), KeyHistory::new).add(operation);
+                if (++read % READS_PER_CUT == 0) {
+                    for (KeyHistory key : keys.values()) {
+                        key.checkUntil(in.getWatermark());
+                    }
+                }
+            }
+        }
+        for (KeyHistory key : keys.values()) {
+            key.checkUntil(Long.MAX_VALUE);
+            result.add(key.key, key.operations, key.maxHeld, key.verdict);
+        }
+    }
+
+    /**
+     * One key's history as it is read back, checked a stretch at a time.
+     */
+    private class KeyHistory {
+        private final ByteString key;
+        /** Read but not yet checked */
+        private List<Operation> held = new ArrayList<>();
+        /** Where the stretches checked so far could have left the key */
+        private Set<Configuration> configurations = Collections.singleton(Configuration.INITIAL);
+        /** The last few operations checked, to report with a violation in the next stretch */
+        private final Deque<Operation> recent = new ArrayDeque<>();
+        private long operations = 0;
+        private int maxHeld = 0;
+        private Verdict verdict = Verdict.LINEARIZABLE;
+
+        private KeyHistory(ByteString key) {
+            this.key = key;
+        }
+
+        private void add(Operation operation) {
+            operations++;
+            // once the key is decided the rest of it is only counted
+            if (verdict == Verdict.LINEARIZABLE) {
+                held.add(operation);
+                maxHeld = Math.max(maxHeld, held.size());
+            }
+        }
+
+        /**
+         * Check every stretch of the held operations that ends by {@code watermark}, before which no operation still
+         * to be read was invoked. A stretch ends wherever every operation invoked before has completed, or will
+         * never complete because its outcome is unknown.
+         */
+        private void checkUntil(long watermark) {
+            if (verdict != Verdict.LINEARIZABLE || held.isEmpty()) {
+                return;
+            }
+            held.sort(Comparator.comparingLong(Operation::getInvokedAt));
+            int start = 0;
+            long lastCompleted = Long.MIN_VALUE;
+            for (int i = 0; i <= held.size(); i++) {
+                long cut = i < held.size() ? held.get(i).getInvokedAt() : watermark;
+                if (cut > watermark) {
+                    break;
+                }
+                if (i > start && lastCompleted < cut) {
+                    // nothing follows the last stretch, so any one way through it will do
+                    checkStretch(held.subList(start, i), watermark != Long.MAX_VALUE || i < held.size());
+                    if (verdict != Verdict.LINEARIZABLE) {
+                        held = null;
+                        configurations = null;
+                        return;
+                    }
+                    for (int j = Math.max(start, i - MAX_REPORTED_EARLIER); j < i; j++) {
+                        recent.addLast(held.get(j));
+                        if (recent.size() > MAX_REPORTED_EARLIER) {
+                            recent.removeFirst();
+                        }
+                    }
+                    start = i;
+                }
+                if (i < held.size() && held.get(i).getCompletedAt() != Operation.NEVER) {
+                    lastCompleted = Math.max(lastCompleted, held.get(i).getCompletedAt());
+                }
+            }
+            held = new ArrayList<>(held.subList(start, held.size()));
+        }
+
+        /**
+         * The Wing-Gong-Lowe search over one stretch, from every configuration the one before could have left the
+         * key in, collecting every configuration this one can leave it in.
+         * @param findAll Whether to search for all of them, or stop at the first.
+         */
+        private void checkStretch(List<Operation> stretch, boolean findAll) {
+            Set<Configuration> ends = new HashSet<>();
+            // for the report: the completion the search got stuck on with the most operations linearized
+            int deepest = -1;
+            Operation stuckAt = null;
+            List<Operation> stuckIn = null;
+            // one allowance for the whole stretch, however many configurations it has to be searched from
+            int mostUnapplied = 0;
+            for (Configuration from : configurations) {
+                mostUnapplied = Math.max(mostUnapplied, from.unapplied.size());
+            }
+            long steps = 0;
+            long maxSteps = stepsPerOperation * (stretch.size() + mostUnapplied);
+
+            for (Configuration from : configurations) {
+                if (!findAll && !ends.isEmpty()) {
+                    break;
+                }
+                // writes carried over were invoked before the stretch began, so they stay in invocation order
+                List<Operation> operations = new ArrayList<>(from.unapplied);
+                operations.addAll(stretch);
+                Entry head = buildEntries(operations);
+                BitSet linearized = new BitSet(operations.size());
+                int firstPending = 0;
+                int knownLeft = 0;
+                for (Operation operation : operations) {
+                    if (operation.getCompletedAt() != Operation.NEVER) {
+                        knownLeft++;
+                    }
+                }
+                Set<Visited> visited = new HashSet<>();
+                Deque<Entry> calls = new ArrayDeque<>();
+                Deque<State> states = new ArrayDeque<>();
+                State state = from.state;
+
+                Entry entry = head.next;
+                while (true) {
+                    if (++steps > maxSteps) {
+                        verdict = Verdict.unknown();
+                        return;
+                    }
+                    if (knownLeft == 0) {
+                        // the stretch is over; writes yet to take effect may still do so in the next one
+                        ends.add(new Configuration(state, unlinearized(operations, linearized)));
+                        if (!findAll) {
+                            break;
+                        }
+                    } else if (entry.call) {
+                        State next = overwritesUnseen(calls.peek(), entry.operation) ? null
+                                : state.apply(entry.operation);
+                        if (next != null) {
+                            linearized.set(entry.id);
+                            int nextPending = linearized.nextClearBit(firstPending);
+                            if (visited.add(new Visited(nextPending, linearized, next))) {
+                                calls.push(entry);
+                                states.push(state);
+                                state = next;
+                                firstPending = nextPending;
+                                entry.lift();
+                                if (entry.operation.getCompletedAt() != Operation.NEVER) {
+                                    knownLeft--;
+                                }
+                                entry = head.next;
+                                continue;
+                            }
+                            linearized.clear(entry.id);
+                        }
+                        entry = entry.next;
+                        continue;
+                    } else if (calls.size() > deepest) {
+                        // this operation completed before anything still pending could have happened
+                        deepest = calls.size();
+                        stuckAt = entry.operation;
+                        stuckIn = operations;
+                    }
+                    if (calls.isEmpty()) {
+                        break;
+                    }
+                    entry = calls.pop();
+                    state = states.pop();
+                    linearized.clear(entry.id);
+                    firstPending = Math.min(firstPending, entry.id);
+                    entry.unlift();
+                    if (entry.operation.getCompletedAt() != Operation.NEVER) {
+                        knownLeft++;
+                    }
+                    entry = entry.next;
+                }
+            }
+            if (ends.isEmpty()) {
+                List<Operation> context = new ArrayList<>(recent);
+                context.addAll(stuckIn);
+                verdict = Verdict.violation(stuckAt, context);
+            }
+            configurations = maximal(ends);
+        }
+    }
+
+    /**
+     * Whether to skip linearizing {@code operation} straight after {@code previous}: a write of unknown outcome that
+     * is overwritten before anything sees it might as well not have taken effect yet, which leaves more open.
+     */
+    private static boolean overwritesUnseen(Entry previous, Operation operation) {
+        return previous != null && previous.operation.getOutcome() == Operation.Outcome.UNKNOWN
+                && (operation.getOutcome() == Operation.Outcome.UNKNOWN || operation.getKind() == Operation.Kind.PUT);
+    }
+
+    /**
+     * @return {@code configurations} without those another one covers. Leaving a write of unknown outcome yet to
+     * take effect is always allowed, so of two with the same state, one whose writes yet to take effect include the
+     * other's can do anything the other can.
+     */
+    private static Set<Configuration> maximal(Set<Configuration> configurations) {
+        List<Configuration> bySize = new ArrayList<>(configurations);
+        bySize.sort(Comparator.comparingInt((Configuration c) -> c.unapplied.size()).reversed());
+        List<Configuration> kept = new ArrayList<>();
+        for (Configuration configuration : bySize) {
+            boolean covered = false;
+            for (Configuration other : kept) {
+                if (other.covers(configuration)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                kept.add(configuration);
+            }
+        }
+        return new HashSet<>(kept);
+    }
+
+    /**
+     * @return The operations not in {@code linearized}, in order.
+     */
+    private static List<Operation> unlinearized(List<Operation> operations, BitSet linearized) {
+        List<Operation> unlinearized = new ArrayList<>();
+        for (int i = linearized.nextClearBit(0); i < operations.size(); i = linearized.nextClearBit(i + 1)) {
+            unlinearized.add(operations.get(i));
+        }
+        return unlinearized;
+    }
+
+    /**
+     * @return The head of a list of every operation's invocation and completion, in time order.
+     */
+    private static Entry buildEntries(List<Operation> operations) {
+        List<Entry> entries = new ArrayList<>(2 * operations.size());
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            Entry call = new Entry(operation, i, true, operation.getInvokedAt());
+            Entry ret = new Entry(operation, i, false, operation.getCompletedAt());
+            call.match = ret;
+            entries.add(call);
+            entries.add(ret);
+        }
+        // on a tie, invocations first: treating the two as concurrent is the cautious reading
+        entries.sort(Comparator.<Entry>comparingLong(e -> e.time).thenComparing(e -> !e.call));
+        Entry head = new Entry(null, -1, false, Long.MIN_VALUE);
+        Entry last = head;
+        for (Entry e : entries) {
+            last.next = e;
+            e.prev = last;
+            last = e;
+        }
+        return head;
+    }
+
+    /**
+     * An invocation or completion in the doubly linked list the search walks.
+     */
+    private static class Entry {
+        private final Operation operation;
+        private final int id;
+        private final boolean call;
+        private final long time;
+        /** The completion of a call */
+        private Entry match;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(Operation operation, int id, boolean call, long time) {
+            this.operation = operation;
+            this.id = id;
+            this.call = call;
+            this.time = time;
+        }
+
+        /**
+         * Take this call and its completion out of the list.
+         */
+        private void lift() {
+            prev.next = next;
+            if (next != null) {
+                next.prev = prev;
+            }
+            match.prev.next = match.next;
+            if (match.next != null) {
+                match.next.prev = match.prev;
+            }
+        }
+
+        /**
+         * Put them back, undoing {@link #lift()}.
+         */
+        private void unlift() {
+            match.prev.next = match;
+            if (match.next != null) {
+                match.next.prev = match;
+            }
+            prev.next = this;
+            if (next != null) {
+                next.prev = this;
+            }
+        }
+    }
+
+    /**
+     * What one key holds.
+     */
+    private static class State {
+        private static final State ABSENT = new State(false, 0, 0);
+
+        private final boolean present;
+        private final long value;
+        private final int version;
+
+        private State(boolean present, long value, int version) {
+            this.present = present;
+            this.value = value;
+            this.version = version;
+        }
+
+        /**
+         * @return The state after {@code operation}, or null if it couldn't have returned what it did from here.
+         */
+        private State apply(Operation operation) {
+            switch (operation.getKind()) {
+            case PUT:
+                return new State(true, operation.getValue(), operation.getVersion());
+            case GET:
+                if (operation.getOutcome() == Operation.Outcome.NO_KEY) {
+                    return present ? null : this;
+                }
+                return present && value == operation.getValue() && version == operation.getVersion() ? this : null;
+            case REMOVE:
+            default:
+                switch (operation.getOutcome()) {
+                case OK:
+                    return present ? ABSENT : null;
+                case NO_KEY:
+                    return present ? null : ABSENT;
+                case UNKNOWN:
+                default:
+                    return ABSENT;
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof State)) {
+                return false;
+            }
+            State other = (State) o;
+            return present == other.present && value == other.value && version == other.version;
+        }
+
+        @Override
+        public int hashCode() {
+            return Boolean.hashCode(present) * 31 * 31 + Long.hashCode(value) * 31 + version;
+        }
+    }
+
+    /**
+     * Where a stretch of a key's history can leave it: what the key holds, and the operations of unknown outcome
+     * that have yet to take effect, in invocation order.
+     */
+    private static class Configuration {
+        private static final Configuration INITIAL = new Configuration(State.ABSENT, Collections.emptyList());
+
+        private final State state;
+        private final List<Operation> unapplied;
+
+        private Configuration(State state, List<Operation> unapplied) {
+            this.state = state;
+            this.unapplied = unapplied;
+        }
+
+        /**
+         * @return Whether {@code other} has the same state and no writes yet to take effect that this one lacks.
+         */
+        private boolean covers(Configuration other) {
+            // operations are only equal to themselves
+            return state.equals(other.state) && new HashSet<>(unapplied).containsAll(other.unapplied);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Configuration)) {
+                return false;
+            }
+            Configuration other = (Configuration) o;
+            return state.equals(other.state) && unapplied.equals(other.unapplied);
+        }
+
+        @Override
+        public int hashCode() {
+            return state.hashCode() * 31 + unapplied.hashCode();
+        }
+    }
+
+    /**
+     * A point the search has already been to. Every operation before {@code firstPending} is linearized, so only
+     * the few linearized past it are stored, and a key's memory grows with its concurrency rather than its length.
+     */
+    private static class Visited {
+        private final int firstPending;
+        private final long[] beyond;
+        private final State state;
+
+        private Visited(int firstPending, BitSet linearized, State state) {
+            this.firstPending = firstPending;
+            this.beyond = linearized.get(firstPending, Math.max(firstPending, linearized.length())).toLongArray();
+            this.state = state;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Visited)) {
+                return false;
+            }
+            Visited other = (Visited) o;
+            return firstPending == other.firstPending && Arrays.equals(beyond, other.beyond)
+                    && state.equals(other.state);
+        }
+
+        @Override
+        public int hashCode() {
+            return (firstPending * 31 + Arrays.hashCode(beyond)) * 31 + state.hashCode();
+        }
+    }
+
+    private static class Verdict {
+        private static final Verdict LINEARIZABLE = new Verdict(true, false, null, null);
+
+        private final boolean linearizable;
+        private final boolean unknown;
+        private final Operation stuckAt;
+        /** The stretch of the key's history it got stuck in, after the last few operations before it */
+        private final List<Operation> stuckIn;
+
+        private Verdict(boolean linearizable, boolean unknown, Operation stuckAt, List<Operation> stuckIn) {
+            this.linearizable = linearizable;
+            this.unknown = unknown;
+            this.stuckAt = stuckAt;
+            this.stuckIn = stuckIn;
+        }
+
+        private static Verdict unknown() {
+            return new Verdict(false, true, null, null);
+        }
+
+        private static Verdict violation(Operation stuckAt, List<Operation> stuckIn) {
+            return new Verdict(false, false, stuckAt, stuckIn);
+        }
+    }
+
+    /**
+     * A key whose operations can't be linearized.
+     */
+    public static class Violation {
+        private final ByteString key;
+        private final long operations;
+        private final Operation stuckAt;
+        private final List<Operation> context;
+
+        /**
+         * @param operations How many operations there were on the key.
+         * @param stuckIn The stretch of them {@code stuckAt} is in, and the last few before it.
+         */
+        private Violation(ByteString key, long operations, List<Operation> stuckIn, Operation stuckAt) {
+            this.key = key;
+            this.operations = operations;
+            this.stuckAt = stuckAt;
+            // the last few that set the scene, and those overlapping the one no order could fit in
+            List<Operation> earlier = new ArrayList<>();
+            List<Operation> overlapping = new ArrayList<>();
+            for (Operation operation : stuckIn) {
+                if (operation.getCompletedAt() < stuckAt.getInvokedAt()) {
+                    earlier.add(operation);
+                } else if (operation.getInvokedAt() <= stuckAt.getCompletedAt()) {
+                    overlapping.add(operation);
+                }
+            }
+            earlier.sort(Comparator.comparingLong(Operation::getCompletedAt));
+            List<Operation> context = new ArrayList<>(earlier.subList(Math.max(0,
+                    earlier.size() - MAX_REPORTED_EARLIER), earlier.size()));
+            overlapping.sort(Comparator.comparingLong(Operation::getInvokedAt));
+            context.addAll(overlapping.subList(0, Math.min(overlapping.size(),
+                    MAX_REPORTED_OPERATIONS - context.size())));
+            context.sort(Comparator.comparingLong(Operation::getInvokedAt));
+            this.context = context;
+        }
+
+        public ByteString getKey() {
+            return key;
+        }
+
+        /**
+         * @return The completed operation that no order of the operations before it could explain.
+         */
+        public Operation getStuckAt() {
+            return stuckAt;
+        }
+
+        /**
+         * @return Up to {@code MAX_REPORTED_OPERATIONS} operations around {@link #getStuckAt()}, itself included:
+         * the last few to finish before it started, then those overlapping it, in invocation order.
+         */
+        public List<Operation> getContext() {
+            return Collections.unmodifiableList(context);
+        }
+
+        /**
+         * @param origin A {@link System#nanoTime()} to give times relative to.
+         * @return A summary line, then one line per operation around it.
+         */
+        public List<String> format(long origin) {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format("Key with %d operations not linearizable; stuck at: %s", operations,
+                    stuckAt.format(origin)));
+            for (Operation operation : context) {
+                lines.add("  " + operation.format(origin));
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * Outcome of checking a whole history.
+     */
+    public static class Result {
+        private final long origin;
+        private final List<Violation> violations = new ArrayList<>();
+        private long keys = 0;
+        private long operations = 0;
+        private long violatingKeys = 0;
+        private long unknownKeys = 0;
+        private int maxHeldOperations = 0;
+        private long elapsedNanos;
+
+        private Result(long origin) {
+            this.origin = origin;
+        }
+
+        private synchronized void add(ByteString key, long keyOperations, int maxHeld, Verdict verdict) {
+            keys++;
+            operations += keyOperations;
+            maxHeldOperations = Math.max(maxHeldOperations, maxHeld);
+            if (verdict.unknown) {
+                unknownKeys++;
+            } else if (!verdict.linearizable) {
+                violatingKeys++;
+                if (violations.size() < MAX_REPORTED_VIOLATIONS) {
+                    violations.add(new Violation(key, keyOperations, verdict.stuckIn, verdict.stuckAt));
+                }
+            }
+        }
+
+        /**
+         * @return Whether no key was found to be non-linearizable. Keys given up on don't count against it.
+         */
+        public boolean isLinearizable() {
+            return violatingKeys == 0;
+        }
+
+        public long getViolatingKeys() {
+            return violatingKeys;
+        }
+
+        /**
+         * @return Keys whose search ran out of steps.
+         */
+        public long getUnknownKeys() {
+            return unknownKeys;
+        }
+
+        /**
+         * @return The most operations on one key read back and held in memory at once, waiting for the stretch
+         * they are in to end.
+         */
+        public int getMaxHeldOperations() {
+            return maxHeldOperations;
+        }
+
+        /**
+         * @return The first {@code MAX_REPORTED_VIOLATIONS} violations found.
+         */
+        public List<Violation> getViolations() {
+            return Collections.unmodifiableList(violations);
+        }
+
+        /**
+         * @return The {@link System#nanoTime()} that operation times in reports are relative to.
+         */
+        public long getOrigin() {
+            return origin;
+        }
+
+        /**
+         * @return e.g. {@code "120000 operations on 100 keys in 0.850 s: 0 not linearizable, 0 unknown"}.
+         */
+        public String format() {
+            return String.format("%d operations on %d keys in %.3f s: %d not linearizable, %d unknown", operations,
+                    keys, elapsedNanos * 1e-9, violatingKeys, unknownKeys);
+        }
+    }
+}
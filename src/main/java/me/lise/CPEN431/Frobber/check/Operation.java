@@ -0,0 +1,134 @@
+package me.lise.CPEN431.Frobber.check;
+
+import com.google.protobuf.ByteString;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * One completed client operation on one key, as recorded in a {@link History}.
+ *
+ * Values are kept as 64-bit fingerprints rather than bytes, so a history of millions of operations stays small; two
+ * different values colliding is vanishingly unlikely.
+ */
+public class Operation {
+    /** What the client asked for */
+    public enum Kind {
+        PUT, GET, REMOVE
+    }
+
+    /** What the client was told */
+    public enum Outcome {
+        /** Done; for a GET, the value and version are what it returned */
+        OK,
+        /** The key was not there */
+        NO_KEY,
+        /** No reply, or an error that doesn't say whether the write happened; it may take effect at any later time */
+        UNKNOWN
+    }
+
+    /** {@link #getCompletedAt()} of an operation whose outcome is unknown */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private final int client;
+    private final Kind kind;
+    private final Outcome outcome;
+    private final ByteString key;
+    private final long value;
+    private final int version;
+    private final long invokedAt;
+    private final long completedAt;
+
+    /**
+     * @param client Who sent it; only for reports.
+     * @param value For a PUT, the fingerprint of the value written; for a successful GET, of the value read.
+     * @param version As for {@code value}.
+     * @param invokedAt {@link System#nanoTime()} just before the request was first sent.
+     * @param completedAt {@link System#nanoTime()} just after the reply arrived, or {@link #NEVER}.
+     */
+    public Operation(int client, Kind kind, Outcome outcome, ByteString key, long value, int version,
+                     long invokedAt, long completedAt) {
+        this.client = client;
+        this.kind = kind;
+        this.outcome = outcome;
+        this.key = key;
+        this.value = value;
+        this.version = version;
+        this.invokedAt = invokedAt;
+        this.completedAt = completedAt;
+    }
+
+    public int getClient() {
+        return client;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public ByteString getKey() {
+        return key;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getInvokedAt() {
+        return invokedAt;
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(client);
+        out.writeByte(kind.ordinal());
+        out.writeByte(outcome.ordinal());
+        out.writeShort(key.size());
+        out.write(key.toByteArray());
+        out.writeLong(value);
+        out.writeInt(version);
+        out.writeLong(invokedAt);
+        out.writeLong(completedAt);
+    }
+
+    static Operation readFrom(DataInput in) throws IOException {
+        int client = in.readInt();
+        Kind kind = Kind.values()[in.readUnsignedByte()];
+        Outcome outcome = Outcome.values()[in.readUnsignedByte()];
+        byte[] key = new byte[in.readUnsignedShort()];
+        in.readFully(key);
+        return new Operation(client, kind, outcome, ByteString.copyFrom(key), in.readLong(), in.readInt(),
+                in.readLong(), in.readLong());
+    }
+
+    /**
+     * @param origin A {@link System#nanoTime()} to give times relative to, e.g. the first invocation.
+     * @return e.g. {@code "client 3 GET 0x0000002a [+1.204 ms, +1.388 ms] OK value #5f3e2a1b00c4d7e9 v0"}.
+     */
+    public String format(long origin) {
+        StringBuilder s = new StringBuilder();
+        s.append(String.format("client %d %s 0x", client, kind));
+        for (byte b : key.toByteArray()) {
+            s.append(String.format("%02x", b));
+        }
+        s.append(String.format(" [+%.3f ms, ", (invokedAt - origin) * 1e-6));
+        s.append(completedAt == NEVER ? "never" : String.format("+%.3f ms", (completedAt - origin) * 1e-6));
+        s.append("] ").append(outcome);
+        if (kind == Kind.PUT || (kind == Kind.GET && outcome == Outcome.OK)) {
+            s.append(String.format(" value #%016x v%d", value, version));
+        }
+        return s.toString();
+    }
+}
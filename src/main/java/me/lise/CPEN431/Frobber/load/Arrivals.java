@@ -0,0 +1,39 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How an open-loop generator spaces out its requests.
+ */
+public enum Arrivals {
+    /** Exactly {@code 1 / rate} apart */
+    FIXED,
+    /** Exponentially distributed gaps with mean {@code 1 / rate}, as if every request came from a different user */
+    POISSON;
+
+    /**
+     * @param ratePerSecond The target request rate.
+     * @return The gap between one intended send time and the next.
+     */
+    public long nextGapNanos(double ratePerSecond) {
+        double mean = 1e9 / ratePerSecond;
+        switch (this) {
+        case POISSON:
+            // 1 - nextDouble() is in (0, 1], so the log is finite
+            return (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * mean);
+        case FIXED:
+        default:
+            return (long) mean;
+        }
+    }
+
+    public String format() {
+        switch (this) {
+        case POISSON:
+            return "Poisson";
+        case FIXED:
+        default:
+            return "fixed-interval";
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * What kind of thread each simulated blocking client runs on.
+ *
+ * A platform thread per client caps a run at a few hundred clients before the threads themselves cost more than
+ * the requests. A virtual thread is parked, not blocked, while its client waits for a reply, so one JVM can run tens
+ * of thousands of sequential clients. Virtual threads need a Java 21 JVM, but not a Java 21 build: the executor is
+ * looked up reflectively when this class loads, so the one Java 8 build runs clients on virtual threads whenever the
+ * JVM running it has them, and {@link #isAvailable()} says whether it does.
+ */
+public enum ClientThreads {
+    /** One platform thread per client, from a cached pool */
+    PLATFORM,
+    /** One virtual thread per client */
+    VIRTUAL;
+
+    /** {@code Executors.newVirtualThreadPerTaskExecutor()}, or null before Java 21 */
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+    private static Method findVirtualExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Whether this JVM can run clients on this kind of thread.
+     */
+    public boolean isAvailable() {
+        return this == PLATFORM || NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * @return An executor that runs every submitted client on a thread of its own. Shut it down when done.
+     * @throws UnsupportedOperationException if this kind of thread is not available.
+     */
+    public ExecutorService newExecutor() {
+        switch (this) {
+        case VIRTUAL:
+            if (NEW_VIRTUAL_EXECUTOR == null) {
+                throw new UnsupportedOperationException("Virtual threads need Java 21, running on "
+                        + System.getProperty("java.version"));
+            }
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedOperationException("Could not create a virtual thread executor", e);
+            }
+        case PLATFORM:
+        default:
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public String format() {
+        switch (this) {
+        case VIRTUAL:
+            return "virtual threads";
+        case PLATFORM:
+        default:
+            return "platform threads";
+        }
+    }
+}
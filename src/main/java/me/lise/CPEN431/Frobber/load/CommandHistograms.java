@@ -0,0 +1,113 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One {@link LatencyHistogram} per request command. Unknown commands share a histogram of their own.
+ */
+public class CommandHistograms {
+    /** Command names by wire code; index 0 collects anything unknown */
+    private static final String[] NAMES = {"OTHER", "PUT", "GET", "REMOVE", "SHUTDOWN", "WIPEOUT", "IS_ALIVE",
+            "GET_PID", "GET_MEMBERSHIP_COUNT"};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[NAMES.length];
+
+    public CommandHistograms() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private static int indexOf(int command) {
+        return command > 0 && command < NAMES.length ? command : 0;
+    }
+
+    public void recordNanos(int command, long nanos) {
+        histograms[indexOf(command)].recordNanos(nanos);
+    }
+
+    /**
+     * @return The histogram for a command code.
+     */
+    public LatencyHistogram get(int command) {
+        return histograms[indexOf(command)];
+    }
+
+    /**
+     * @return Every command merged into one histogram.
+     */
+    public LatencyHistogram total() {
+        LatencyHistogram total = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms) {
+            total.add(histogram);
+        }
+        return total;
+    }
+
+    public void add(CommandHistograms other) {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i].add(other.histograms[i]);
+        }
+    }
+
+    /**
+     * @return A point-in-time copy, for taking the difference later with {@link #minus}.
+     */
+    public CommandHistograms copy() {
+        CommandHistograms copy = new CommandHistograms();
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * @param earlier A copy taken earlier.
+     * @return The values recorded since {@code earlier}, per command.
+     */
+    public CommandHistograms minus(CommandHistograms earlier) {
+        CommandHistograms diff = new CommandHistograms();
+        for (int i = 0; i < histograms.length; i++) {
+            diff.histograms[i] = histograms[i].minus(earlier.histograms[i]);
+        }
+        return diff;
+    }
+
+    /**
+     * Write every command's histogram to another process; see {@link LatencyHistogram#writeTo}.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.writeTo(out);
+        }
+    }
+
+    /**
+     * @return Histograms written by {@link #writeTo}.
+     * @throws IOException if the input is cut short or corrupt.
+     */
+    public static CommandHistograms readFrom(DataInput in) throws IOException {
+        CommandHistograms read = new CommandHistograms();
+        for (int i = 0; i < read.histograms.length; i++) {
+            read.histograms[i] = LatencyHistogram.readFrom(in);
+        }
+        return read;
+    }
+
+    /**
+     * @return One line per command that has any values, e.g. {@code "GET: n=... p50=..."}.
+     */
+    public List<String> format() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= histograms.length; i++) {
+            // unknown commands go last
+            int k = i % histograms.length;
+            if (histograms[k].getCount() > 0) {
+                lines.add(NAMES[k] + ": " + histograms[k].format());
+            }
+        }
+        return lines;
+    }
+}
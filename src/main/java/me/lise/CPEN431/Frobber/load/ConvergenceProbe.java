@@ -0,0 +1,249 @@
+package me.lise.CPEN431.Frobber.load;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
+import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
+import me.lise.CPEN431.Frobber.net.IOLoopGroup;
+
+import com.google.protobuf.ByteString;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long a write takes to become visible on every node of a replicated cluster.
+ *
+ * Each probe PUTs a fresh value on one node, the writers taking turns, and as soon as the PUT is acknowledged polls
+ * GET on every other node in parallel until each returns that value. A node's convergence time runs from the
+ * acknowledgement to the reply that showed the value, so it is an upper bound, too high by at most one poll round
+ * trip plus the poll interval. A probe's convergence time is that of its slowest node. Polling never blocks: GETs go
+ * out through an {@link IOLoopGroup} and the gaps between them are timed by the shared {@link Pacer} thread.
+ */
+public class ConvergenceProbe {
+    /** {@code Command.PUT}, {@code Command.GET} and {@code ErrCode.OKAY} */
+    private static final int PUT = 0x1;
+    private static final int GET = 0x2;
+    private static final int OKAY = 0x0;
+
+    /** Makes every probe's value unique, across probes and runs */
+    private static final AtomicLong valueSequence = new AtomicLong(0);
+
+    private final IOLoopGroup group;
+    private final List<InetSocketAddress> nodes;
+    private final long pollIntervalNanos;
+    private final long deadlineNanos;
+
+    /**
+     * @param group The transports to send on.
+     * @param nodes Every node in the cluster; at least two.
+     * @param pollIntervalNanos The gap between a GET's reply and the next GET to the same node; 0 to poll back to
+     *                          back.
+     * @param deadlineNanos How long after the acknowledgement to keep polling a node before counting it as never
+     *                      converged.
+     */
+    public ConvergenceProbe(IOLoopGroup group, List<InetSocketAddress> nodes, long pollIntervalNanos,
+                            long deadlineNanos) {
+        if (nodes.size() < 2) {
+            throw new IllegalArgumentException("Need at least 2 nodes to measure convergence, got " + nodes.size());
+        }
+        this.group = group;
+        this.nodes = new ArrayList<>(nodes);
+        this.pollIntervalNanos = pollIntervalNanos;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Run {@code probes} probes, {@code concurrency} at a time, on keys {@code firstKey} onwards, one key each.
+     * The keys should not be written by anything else while the probes run.
+     * @return The convergence times and outcomes of every probe.
+     * @throws InterruptedException if interrupted while waiting for the probes to finish.
+     */
+    public Result run(int probes, int concurrency, long firstKey) throws InterruptedException {
+        Result result = new Result(nodes.size());
+        AtomicInteger next = new AtomicInteger(0);
+        CountDownLatch done = new CountDownLatch(probes);
+        for (int i = 0; i < Math.min(concurrency, probes); i++) {
+            startNext(probes, firstKey, next, done, result);
+        }
+        done.await();
+        return result;
+    }
+
+    /**
+     * Start the next probe, if any are left, and the one after it once it has finished.
+     */
+    private void startNext(int probes, long firstKey, AtomicInteger next, CountDownLatch done, Result result) {
+        int i = next.getAndIncrement();
+        if (i >= probes) {
+            return;
+        }
+        probe(i % nodes.size(), KeySpace.encode(firstKey + i), result).whenComplete((v, e) -> {
+            done.countDown();
+            startNext(probes, firstKey, next, done, result);
+        });
+    }
+
+    /**
+     * @return A future that completes once every other node has shown the value or run out of time.
+     */
+    private CompletableFuture<Void> probe(int writer, ByteString key, Result result) {
+        ByteString value = KeySpace.encode(valueSequence.getAndIncrement());
+        KVRequest put = KVRequest.newBuilder().setCommand(PUT).setKey(key).setValue(value).build();
+        KVRequest get = KVRequest.newBuilder().setCommand(GET).setKey(key).build();
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+
+        group.nextTransport().submit(nodes.get(writer), put).whenComplete((response, e) -> {
+            if (response == null || response.getErrCode() != OKAY) {
+                result.putFailures.incrementAndGet();
+                finished.complete(null);
+                return;
+            }
+            Probe probe = new Probe(System.nanoTime(), value, get, nodes.size() - 1, finished);
+            for (int node = 0; node < nodes.size(); node++) {
+                if (node != writer) {
+                    poll(probe, node, result);
+                }
+            }
+        });
+        return finished;
+    }
+
+    private void poll(Probe probe, int node, Result result) {
+        result.polls.incrementAndGet();
+        group.nextTransport().submit(nodes.get(node), probe.get).whenComplete((response, e) -> {
+            long now = System.nanoTime();
+            if (isConverged(response, probe.value)) {
+                long nanos = now - probe.ackedAt;
+                result.perNode[node].recordNanos(nanos);
+                probe.slowestNanos.accumulateAndGet(nanos, Math::max);
+                probe.nodeDone(result);
+            } else if (now - probe.ackedAt > deadlineNanos) {
+                result.nodeMisses[node].incrementAndGet();
+                probe.missed.set(true);
+                probe.nodeDone(result);
+            } else {
+                Pacer.releaseAt(now + pollIntervalNanos).thenRun(() -> poll(probe, node, result));
+            }
+        });
+    }
+
+    /**
+     * @return Whether the node returned {@code value}. Anything else, including no reply, is worth polling again.
+     */
+    private static boolean isConverged(KVResponse response, ByteString value) {
+        return response != null && response.getErrCode() == OKAY && response.getValue().equals(value);
+    }
+
+    /**
+     * One write, and the nodes still to show it.
+     */
+    private static class Probe {
+        private final long ackedAt;
+        private final ByteString value;
+        private final KVRequest get;
+        private final AtomicInteger remaining;
+        private final AtomicLong slowestNanos = new AtomicLong(0);
+        private final AtomicBoolean missed = new AtomicBoolean(false);
+        private final CompletableFuture<Void> finished;
+
+        private Probe(long ackedAt, ByteString value, KVRequest get, int nodes, CompletableFuture<Void> finished) {
+            this.ackedAt = ackedAt;
+            this.value = value;
+            this.get = get;
+            this.remaining = new AtomicInteger(nodes);
+            this.finished = finished;
+        }
+
+        /**
+         * One more node has converged or given up; the last one records the probe's outcome.
+         */
+        private void nodeDone(Result result) {
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+            if (missed.get()) {
+                result.unconverged.incrementAndGet();
+            } else {
+                result.convergence.recordNanos(slowestNanos.get());
+            }
+            finished.complete(null);
+        }
+    }
+
+    /**
+     * Outcome of a run of probes.
+     */
+    public static class Result {
+        private final LatencyHistogram convergence = new LatencyHistogram();
+        private final LatencyHistogram[] perNode;
+        private final AtomicLong[] nodeMisses;
+        private final AtomicLong unconverged = new AtomicLong(0);
+        private final AtomicLong putFailures = new AtomicLong(0);
+        private final AtomicLong polls = new AtomicLong(0);
+
+        private Result(int nodes) {
+            perNode = new LatencyHistogram[nodes];
+            nodeMisses = new AtomicLong[nodes];
+            for (int i = 0; i < nodes; i++) {
+                perNode[i] = new LatencyHistogram();
+                nodeMisses[i] = new AtomicLong(0);
+            }
+        }
+
+        /**
+         * @return Time from each acknowledged PUT until every other node showed the value, over the probes that
+         * fully converged.
+         */
+        public LatencyHistogram getConvergence() {
+            return convergence;
+        }
+
+        /**
+         * @return Time from each acknowledged PUT, on another node, until node {@code node} showed the value.
+         */
+        public LatencyHistogram getNodeConvergence(int node) {
+            return perNode[node];
+        }
+
+        /**
+         * @return Probes node {@code node} never showed the value for, before the deadline.
+         */
+        public long getNodeMisses(int node) {
+            return nodeMisses[node].get();
+        }
+
+        /**
+         * @return Probes where at least one node never showed the value before the deadline.
+         */
+        public long getUnconverged() {
+            return unconverged.get();
+        }
+
+        /**
+         * @return Probes whose PUT failed or timed out, so there was nothing to poll for.
+         */
+        public long getPutFailures() {
+            return putFailures.get();
+        }
+
+        /**
+         * @return GETs sent, over all probes and nodes.
+         */
+        public long getPolls() {
+            return polls.get();
+        }
+
+        /**
+         * @return e.g. {@code "200 converged, 0 unconverged, 0 failed PUTs, 1520 polls"}.
+         */
+        public String format() {
+            return String.format("%d converged, %d unconverged, %d failed PUTs, %d polls", convergence.getCount(),
+                    getUnconverged(), getPutFailures(), getPolls());
+        }
+    }
+}
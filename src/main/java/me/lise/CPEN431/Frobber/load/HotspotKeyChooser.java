@@ -0,0 +1,40 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A fixed fraction of the keys (the hot set, at the low numbers) gets a fixed fraction of the operations; both the
+ * hot and the cold keys are uniform within their set.
+ */
+public class HotspotKeyChooser implements KeyChooser {
+    private final double hotSetFraction;
+    private final double hotOpFraction;
+
+    /**
+     * @param hotSetFraction Share of keys that are hot, in (0, 1].
+     * @param hotOpFraction Share of operations that go to the hot keys, in [0, 1].
+     */
+    public HotspotKeyChooser(double hotSetFraction, double hotOpFraction) {
+        if (!(hotSetFraction > 0 && hotSetFraction <= 1) || !(hotOpFraction >= 0 && hotOpFraction <= 1)) {
+            throw new IllegalArgumentException("Hotspot fractions out of range");
+        }
+        this.hotSetFraction = hotSetFraction;
+        this.hotOpFraction = hotOpFraction;
+    }
+
+    @Override
+    public long nextKey(long recordCount) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long hotKeys = Math.max(1, (long) (recordCount * hotSetFraction));
+        if (hotKeys == recordCount || random.nextDouble() < hotOpFraction) {
+            return random.nextLong(hotKeys);
+        }
+        return hotKeys + random.nextLong(recordCount - hotKeys);
+    }
+
+    @Override
+    public String format() {
+        return String.format("hotspot (%.0f%% of operations on %.0f%% of keys)",
+                100 * hotOpFraction, 100 * hotSetFraction);
+    }
+}
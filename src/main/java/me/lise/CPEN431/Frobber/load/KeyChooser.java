@@ -0,0 +1,20 @@
+package me.lise.CPEN431.Frobber.load;
+
+/**
+ * Picks which existing key a workload operation touches.
+ *
+ * Implementations are shared by every client of a run, so they must be thread-safe, and are called once per
+ * operation, so they should be cheap.
+ */
+public interface KeyChooser {
+    /**
+     * @param recordCount The number of keys that exist, numbered {@code 0 .. recordCount - 1}. At least 1.
+     * @return The key to use.
+     */
+    long nextKey(long recordCount);
+
+    /**
+     * @return A short description, e.g. {@code "uniform"}.
+     */
+    String format();
+}
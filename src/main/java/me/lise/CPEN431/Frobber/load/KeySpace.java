@@ -0,0 +1,70 @@
+package me.lise.CPEN431.Frobber.load;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The keys a workload runs over: {@code 0 .. getRecordCount() - 1} have been inserted, and inserts hand out the
+ * numbers after that.
+ *
+ * A key only counts as existing once its insert and every insert before it have been answered, so reads don't go
+ * looking for keys that are still on their way to the server. Answers are tracked in a ring of
+ * {@code MAX_INSERTS_IN_FLIGHT} slots, so no more inserts than that may be outstanding at once.
+ */
+public class KeySpace {
+    /** Key number -> key bytes is a plain big-endian long */
+    public static final int KEY_LENGTH = Long.BYTES;
+
+    private static final int MAX_INSERTS_IN_FLIGHT = 1 << 16;
+
+    private final AtomicLong nextInsert;
+    /** Every key below this has been answered */
+    private final AtomicLong acknowledged;
+    /** Slot {@code key % MAX_INSERTS_IN_FLIGHT} holds {@code key} once that key's insert has been answered */
+    private final AtomicLongArray answered = new AtomicLongArray(MAX_INSERTS_IN_FLIGHT);
+
+    /**
+     * @param recordCount The number of keys that have already been loaded.
+     */
+    public KeySpace(long recordCount) {
+        this.nextInsert = new AtomicLong(recordCount);
+        this.acknowledged = new AtomicLong(recordCount);
+        for (int i = 0; i < MAX_INSERTS_IN_FLIGHT; i++) {
+            answered.set(i, -1);
+        }
+    }
+
+    /**
+     * @return The number of keys known to exist.
+     */
+    public long getRecordCount() {
+        return acknowledged.get();
+    }
+
+    /**
+     * @return The number of a new key to insert. Call {@link #endInsert} once the server has answered.
+     */
+    public long beginInsert() {
+        return nextInsert.getAndIncrement();
+    }
+
+    /**
+     * Record that the insert of {@code key} is over, and move the end of the key space past every key whose insert
+     * and predecessors are all over. Failed inserts must be ended too, or the key space stops growing.
+     */
+    public void endInsert(long key) {
+        answered.set((int) (key & (MAX_INSERTS_IN_FLIGHT - 1)), key);
+        long frontier;
+        while ((frontier = acknowledged.get()) < nextInsert.get()
+                && answered.get((int) (frontier & (MAX_INSERTS_IN_FLIGHT - 1))) == frontier) {
+            acknowledged.compareAndSet(frontier, frontier + 1);
+        }
+    }
+
+    public static ByteString encode(long key) {
+        return ByteString.copyFrom(ByteBuffer.allocate(KEY_LENGTH).putLong(key).array());
+    }
+}
@@ -0,0 +1,220 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, lock-free latency histogram with microsecond resolution, in the style of HdrHistogram.
+ *
+ * Values below {@code 2 * SUB_BUCKETS} µs get a bucket each. Above that, every power of two is split into
+ * {@code SUB_BUCKETS} linear buckets, so any value is known to within 1/128 (under 1%) and the whole range up to
+ * about 70 minutes fits in a few thousand counters. Recording is one array increment plus an occasional CAS for the
+ * max, and never allocates.
+ */
+public class LatencyHistogram {
+    /** Linear buckets per power of two; the relative precision is {@code 1 / SUB_BUCKETS} */
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Values from {@code 2^MAX_BITS} µs up are counted in the last bucket */
+    private static final int MAX_BITS = 32;
+    private static final long MAX_MICROS = (1L << MAX_BITS) - 1;
+    private static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong(0);
+    private final AtomicLong sumMicros = new AtomicLong(0);
+    private final AtomicLong maxMicros = new AtomicLong(0);
+
+    /**
+     * @param nanos A latency. Negative values count as 0.
+     */
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMicros(long micros) {
+        micros = Math.max(0, Math.min(MAX_MICROS, micros));
+        counts.incrementAndGet(indexOf(micros));
+        total.incrementAndGet();
+        sumMicros.addAndGet(micros);
+
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        // keep the top SUB_BUCKET_BITS + 1 bits: the shift picks the power of two, the rest the linear bucket
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (micros >>> shift);
+    }
+
+    /**
+     * @return The largest value that lands in bucket {@code index}.
+     */
+    private static long highestValueAt(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long mantissa = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * @return The number of values recorded.
+     */
+    public long getCount() {
+        return total.get();
+    }
+
+    public double getMeanMicros() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sumMicros.get() / n;
+    }
+
+    /**
+     * @return The largest value recorded, exact.
+     */
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return The value at that percentile, rounded up to the top of its bucket and capped at the max, or 0 if
+     * nothing was recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        // nearest rank
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    /**
+     * Add every value recorded in {@code other} to this histogram.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        total.addAndGet(other.total.get());
+        sumMicros.addAndGet(other.sumMicros.get());
+        long otherMax = other.maxMicros.get();
+        long max = maxMicros.get();
+        while (otherMax > max && !maxMicros.compareAndSet(max, otherMax)) {
+            max = maxMicros.get();
+        }
+    }
+
+    /**
+     * @return A point-in-time copy, for taking the difference later with {@link #minus}.
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * @param earlier A copy of this histogram taken earlier.
+     * @return A histogram of only the values recorded since {@code earlier}. Its max is the top of the highest
+     * bucket that gained values, capped at this histogram's max.
+     */
+    public LatencyHistogram minus(LatencyHistogram earlier) {
+        LatencyHistogram diff = new LatencyHistogram();
+        int highest = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i) - earlier.counts.get(i);
+            if (c > 0) {
+                diff.counts.set(i, c);
+                highest = i;
+            }
+        }
+        diff.total.set(total.get() - earlier.total.get());
+        diff.sumMicros.set(sumMicros.get() - earlier.sumMicros.get());
+        diff.maxMicros.set(highest < 0 ? 0 : Math.min(highestValueAt(highest), maxMicros.get()));
+        return diff;
+    }
+
+    /**
+     * Write the histogram to another process, e.g. from a load worker to its coordinator. Only non-empty buckets are
+     * written, so a typical histogram takes a few hundred bytes.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int nonEmpty = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                nonEmpty++;
+            }
+        }
+        out.writeLong(total.get());
+        out.writeLong(sumMicros.get());
+        out.writeLong(maxMicros.get());
+        out.writeInt(nonEmpty);
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c != 0) {
+                out.writeShort(i);
+                out.writeLong(c);
+            }
+        }
+    }
+
+    /**
+     * @return A histogram written by {@link #writeTo}.
+     * @throws IOException if the input is cut short or not a histogram.
+     */
+    public static LatencyHistogram readFrom(DataInput in) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.total.set(in.readLong());
+        histogram.sumMicros.set(in.readLong());
+        histogram.maxMicros.set(in.readLong());
+        int nonEmpty = in.readInt();
+        if (nonEmpty < 0 || nonEmpty > BUCKETS) {
+            throw new IOException("Corrupt histogram: " + nonEmpty + " buckets");
+        }
+        for (int k = 0; k < nonEmpty; k++) {
+            int i = in.readUnsignedShort();
+            if (i >= BUCKETS) {
+                throw new IOException("Corrupt histogram: bucket " + i);
+            }
+            histogram.counts.set(i, in.readLong());
+        }
+        return histogram;
+    }
+
+    /**
+     * @return The count, mean, p50, p90, p99, p99.9 and max in milliseconds, on one line.
+     */
+    public String format() {
+        return String.format("n=%d mean=%.3f ms p50=%.3f ms p90=%.3f ms p99=%.3f ms p99.9=%.3f ms max=%.3f ms",
+                getCount(), getMeanMicros() * 1e-3, getPercentileMicros(50) * 1e-3, getPercentileMicros(90) * 1e-3,
+                getPercentileMicros(99) * 1e-3, getPercentileMicros(99.9) * 1e-3, getMaxMicros() * 1e-3);
+    }
+}
@@ -0,0 +1,29 @@
+package me.lise.CPEN431.Frobber.load;
+
+/**
+ * The most recently inserted keys are the most popular, with Zipfian fall-off into the past (YCSB's "latest").
+ */
+public class LatestKeyChooser implements KeyChooser {
+    private final Zipfian zipfian;
+
+    public LatestKeyChooser() {
+        this(ScrambledZipfianKeyChooser.DEFAULT_THETA);
+    }
+
+    /**
+     * @param theta The skew, in (0, 1).
+     */
+    public LatestKeyChooser(double theta) {
+        this.zipfian = new Zipfian(theta);
+    }
+
+    @Override
+    public long nextKey(long recordCount) {
+        return recordCount - 1 - zipfian.next(recordCount);
+    }
+
+    @Override
+    public String format() {
+        return String.format("latest (theta %.2f)", zipfian.getTheta());
+    }
+}
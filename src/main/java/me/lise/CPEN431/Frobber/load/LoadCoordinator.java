@@ -0,0 +1,166 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads an open-loop load over several {@link LoadWorker} JVMs on this machine, so that one client JVM's GC pauses
+ * and CPU limits don't cap the measured throughput.
+ *
+ * Every worker gets an equal share of the offered rate and a contiguous shard of the key space. Workers connect
+ * back over a loopback socket; once all of them are up they are told to start together, and each sends back its
+ * histograms and counters, which are merged into one report.
+ */
+public class LoadCoordinator {
+    /** How long workers get to start their JVM and connect back */
+    private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+
+    /** Slack on top of the warmup, the run and their drains before a silent worker is given up on */
+    private static final long RESULT_SLACK_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    /** How long workers get to exit after sending their result */
+    private static final long EXIT_TIMEOUT_SECONDS = 5;
+
+    private final int workers;
+    private final InetSocketAddress target;
+    private final double ratePerSecond;
+    private final Arrivals arrivals;
+    private final long keyCount;
+
+    /**
+     * @param workers The number of worker JVMs.
+     * @param target The node to load.
+     * @param ratePerSecond The total offered rate, split evenly between workers.
+     * @param arrivals How each worker spaces out its requests.
+     * @param keyCount The size of the key space, split into one shard per worker.
+     */
+    public LoadCoordinator(int workers, InetSocketAddress target, double ratePerSecond, Arrivals arrivals,
+                           long keyCount) {
+        if (workers < 1 || keyCount < workers) {
+            throw new IllegalArgumentException(String.format("Can't split %d keys over %d workers", keyCount,
+                    workers));
+        }
+        this.workers = workers;
+        this.target = target;
+        this.ratePerSecond = ratePerSecond;
+        this.arrivals = arrivals;
+        this.keyCount = keyCount;
+    }
+
+    /**
+     * Fork the workers, warm them up for {@code warmupNanos}, run the load for {@code durationNanos}, and collect
+     * their results, which only cover the run after the warmup.
+     * @throws IOException if a worker could not be started, didn't connect back in time, or died before reporting.
+     */
+    public Report run(long warmupNanos, long durationNanos) throws IOException {
+        List<Process> processes = new ArrayList<>();
+        List<Socket> sockets = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress())) {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int i = 0; i < workers; i++) {
+                long firstKey = keyCount * i / workers;
+                long shard = keyCount * (i + 1) / workers - firstKey;
+                processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        LoadWorker.class.getName(), Integer.toString(server.getLocalPort()),
+                        target.getHostString(), Integer.toString(target.getPort()),
+                        Double.toString(ratePerSecond / workers), Long.toString(warmupNanos),
+                        Long.toString(durationNanos), arrivals.name(), Long.toString(firstKey), Long.toString(shard))
+                        .inheritIO()
+                        .start());
+            }
+
+            server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            for (int i = 0; i < workers; i++) {
+                Socket socket = server.accept();
+                socket.setSoTimeout((int) TimeUnit.NANOSECONDS.toMillis(
+                        warmupNanos + 2 * RESULT_SLACK_NANOS + durationNanos));
+                sockets.add(socket);
+            }
+
+            // everyone is up: start together
+            for (Socket socket : sockets) {
+                socket.getOutputStream().write(1);
+                socket.getOutputStream().flush();
+            }
+
+            Report report = new Report();
+            for (Socket socket : sockets) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OpenLoopGenerator.Result result = OpenLoopGenerator.Result.readFrom(in);
+                report.workers.add(result);
+                report.merged.add(result);
+                report.transmissions += in.readLong();
+                report.retransmissions += in.readLong();
+            }
+            return report;
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            for (Process process : processes) {
+                try {
+                    if (!process.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    process.destroyForcibly();
+                }
+            }
+        }
+    }
+
+    public int getWorkerCount() {
+        return workers;
+    }
+
+    /**
+     * Results of every worker, and all of them merged.
+     */
+    public static class Report {
+        private final OpenLoopGenerator.Result merged = new OpenLoopGenerator.Result();
+        private final List<OpenLoopGenerator.Result> workers = new ArrayList<>();
+        private long transmissions = 0;
+        private long retransmissions = 0;
+
+        private Report() {
+        }
+
+        /**
+         * @return Every worker's counts and latencies added together.
+         */
+        public OpenLoopGenerator.Result getMerged() {
+            return merged;
+        }
+
+        /**
+         * @return Each worker's own result, in the order they connected.
+         */
+        public List<OpenLoopGenerator.Result> getWorkers() {
+            return Collections.unmodifiableList(workers);
+        }
+
+        /**
+         * @return First transmissions to the target, over all workers.
+         */
+        public long getTransmissions() {
+            return transmissions;
+        }
+
+        /**
+         * @return Retransmissions to the target, over all workers.
+         */
+        public long getRetransmissions() {
+            return retransmissions;
+        }
+    }
+}
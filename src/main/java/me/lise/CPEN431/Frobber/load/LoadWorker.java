@@ -0,0 +1,94 @@
+package me.lise.CPEN431.Frobber.load;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
+import me.lise.CPEN431.Frobber.net.IOLoopGroup;
+import me.lise.CPEN431.Frobber.net.RttEstimator;
+
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.function.Supplier;
+
+/**
+ * One load generator process forked by a {@link LoadCoordinator}.
+ *
+ * The worker connects back to the coordinator, waits for the signal to start so that every worker begins at the
+ * same moment, runs an open-loop PUT/GET load over its own shard of the key space, and sends back its result and
+ * retransmission counts. A warmup at the same rate comes first and is not reported, since a fresh JVM is slow until
+ * the JIT has compiled the send path.
+ *
+ * Usage: {@code LoadWorker coordinatorPort host port ratePerSecond warmupNanos durationNanos arrivals firstKey
+ * keyCount}
+ */
+public class LoadWorker {
+    /** Selector threads, channels per thread and in-flight limit per channel, as in the single-JVM open-loop test */
+    private static final int LOOPS = 2;
+    private static final int CHANNELS_PER_LOOP = 4;
+    private static final int WINDOW = 1024;
+
+    /** {@code Command.PUT} and {@code Command.GET} */
+    private static final int PUT = 0x1;
+    private static final int GET = 0x2;
+
+    private static final ByteString VALUE = ByteString.copyFrom("oooo".getBytes());
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 9) {
+            System.err.println("Usage: LoadWorker coordinatorPort host port ratePerSecond warmupNanos durationNanos "
+                    + "arrivals firstKey keyCount");
+            System.exit(2);
+        }
+        int coordinatorPort = Integer.parseInt(args[0]);
+        InetSocketAddress target = new InetSocketAddress(InetAddress.getByName(args[1]), Integer.parseInt(args[2]));
+        double ratePerSecond = Double.parseDouble(args[3]);
+        long warmupNanos = Long.parseLong(args[4]);
+        long durationNanos = Long.parseLong(args[5]);
+        Arrivals arrivals = Arrivals.valueOf(args[6]);
+        long firstKey = Long.parseLong(args[7]);
+        long keyCount = Long.parseLong(args[8]);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), coordinatorPort);
+             IOLoopGroup group = new IOLoopGroup(LOOPS, CHANNELS_PER_LOOP, WINDOW)) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            in.readByte();
+            OpenLoopGenerator generator = new OpenLoopGenerator(group, target, ratePerSecond, arrivals);
+            Supplier<KVRequest> requests = putGetRequests(firstKey, keyCount);
+            if (warmupNanos > 0) {
+                generator.run(requests, warmupNanos);
+            }
+            RttEstimator rtt = RttEstimator.forNode(target);
+            long transmissions = rtt.getTransmissions();
+            long retransmissions = rtt.getRetransmissions();
+            OpenLoopGenerator.Result result = generator.run(requests, durationNanos);
+
+            result.writeTo(out);
+            out.writeLong(rtt.getTransmissions() - transmissions);
+            out.writeLong(rtt.getRetransmissions() - retransmissions);
+            out.flush();
+        }
+    }
+
+    /**
+     * @return PUT key i, then GET it on the next turn round, cycling through {@code firstKey .. firstKey + keyCount}.
+     * The single-JVM open-loop tests send the same requests, so their results compare with the workers'. Not
+     * thread-safe.
+     */
+    public static Supplier<KVRequest> putGetRequests(long firstKey, long keyCount) {
+        long[] next = {0};
+        return () -> {
+            long i = next[0]++;
+            ByteString key = KeySpace.encode(firstKey + (i >> 1) % keyCount);
+            return (i & 1) == 0
+                    ? KVRequest.newBuilder().setCommand(PUT).setKey(key).setValue(VALUE).build()
+                    : KVRequest.newBuilder().setCommand(GET).setKey(key).build();
+        };
+    }
+}
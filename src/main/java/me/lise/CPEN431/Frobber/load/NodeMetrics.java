@@ -0,0 +1,180 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Replies, error codes, timeouts and latencies of every request sent to one node, so a slow or failing node stands
+ * out instead of disappearing into cluster-wide totals.
+ *
+ * Everything that sends to the same host:port records into one shared instance. As with {@link CommandHistograms},
+ * take a {@link #snapshot()} before a test and subtract it afterwards to get the test's own numbers.
+ */
+public class NodeMetrics {
+    /** Error code names by wire code, as in {@code ErrCode}; other codes are shown in hex */
+    private static final String[] ERROR_NAMES = {"OKAY", "NO_KEY", "NO_SPACE", "OVERLOAD", "FAILURE", "BAD_COMMAND",
+            "BAD_KEY", "BAD_VALUE"};
+
+    /** Error codes are counted one by one up to this; anything above shares the last counter */
+    private static final int ERROR_CODES = 256;
+
+    private static final ConcurrentMap<InetSocketAddress, NodeMetrics> nodes = new ConcurrentHashMap<>();
+
+    private final InetSocketAddress node;
+    private final CommandHistograms latencies = new CommandHistograms();
+    private final AtomicLongArray errors = new AtomicLongArray(ERROR_CODES);
+    private final AtomicLong replies = new AtomicLong(0);
+    private final AtomicLong timeouts = new AtomicLong(0);
+
+    /**
+     * @return The metrics shared by everything that sends to {@code node}.
+     */
+    public static NodeMetrics forNode(InetSocketAddress node) {
+        NodeMetrics metrics = nodes.get(node);
+        if (metrics == null) {
+            metrics = nodes.computeIfAbsent(node, NodeMetrics::new);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return The metrics of every node contacted so far.
+     */
+    public static Collection<NodeMetrics> all() {
+        return nodes.values();
+    }
+
+    /**
+     * @return A copy of every node's metrics so far, by node, for taking the difference later with {@link #minus}.
+     */
+    public static Map<InetSocketAddress, NodeMetrics> snapshot() {
+        Map<InetSocketAddress, NodeMetrics> copies = new HashMap<>();
+        for (NodeMetrics metrics : nodes.values()) {
+            copies.put(metrics.node, metrics.copy());
+        }
+        return copies;
+    }
+
+    private NodeMetrics(InetSocketAddress node) {
+        this.node = node;
+    }
+
+    public InetSocketAddress getNode() {
+        return node;
+    }
+
+    /**
+     * @param command The request's command.
+     * @param errCode The reply's error code.
+     * @param nanos The request's latency.
+     */
+    public void recordReply(int command, int errCode, long nanos) {
+        latencies.recordNanos(command, nanos);
+        errors.incrementAndGet(Math.max(0, Math.min(ERROR_CODES - 1, errCode)));
+        replies.incrementAndGet();
+    }
+
+    /**
+     * A request to the node got no reply, after every retry.
+     */
+    public void recordTimeout() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * @return A point-in-time copy of this node's metrics.
+     */
+    public NodeMetrics copy() {
+        NodeMetrics copy = new NodeMetrics(node);
+        copy.latencies.add(latencies);
+        for (int i = 0; i < ERROR_CODES; i++) {
+            copy.errors.set(i, errors.get(i));
+        }
+        copy.replies.set(replies.get());
+        copy.timeouts.set(timeouts.get());
+        return copy;
+    }
+
+    /**
+     * @param earlier A copy of this node's metrics taken earlier, or null if there was none yet.
+     * @return Only what was recorded since {@code earlier}.
+     */
+    public NodeMetrics minus(NodeMetrics earlier) {
+        if (earlier == null) {
+            return copy();
+        }
+        NodeMetrics diff = new NodeMetrics(node);
+        diff.latencies.add(latencies.minus(earlier.latencies));
+        for (int i = 0; i < ERROR_CODES; i++) {
+            diff.errors.set(i, errors.get(i) - earlier.errors.get(i));
+        }
+        diff.replies.set(replies.get() - earlier.replies.get());
+        diff.timeouts.set(timeouts.get() - earlier.timeouts.get());
+        return diff;
+    }
+
+    /**
+     * @return Requests that got a reply or timed out.
+     */
+    public long getRequests() {
+        return replies.get() + timeouts.get();
+    }
+
+    public long getReplies() {
+        return replies.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return The share of requests that timed out, or 0 if there were none.
+     */
+    public double getTimeoutRate() {
+        long requests = getRequests();
+        return requests == 0 ? 0 : (double) timeouts.get() / requests;
+    }
+
+    /**
+     * @return Replies with error code {@code errCode}; {@code getErrors(0)} counts successes.
+     */
+    public long getErrors(int errCode) {
+        return errors.get(Math.max(0, Math.min(ERROR_CODES - 1, errCode)));
+    }
+
+    /**
+     * @return Latencies of the node's replies, per command.
+     */
+    public CommandHistograms getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @param seconds How long the metrics cover, for the request rate.
+     * @return e.g. {@code "localhost:10145 1234.5 req/s n=6172 timeouts=0 (0.00%) OKAY=6100 NO_KEY=72 p50=0.210 ms
+     * p99=1.912 ms"}.
+     */
+    public String format(double seconds) {
+        StringBuilder s = new StringBuilder(String.format("%s:%d %.1f req/s n=%d timeouts=%d (%.2f%%)",
+                node.getHostString(), node.getPort(), getRequests() / seconds, getRequests(), getTimeouts(),
+                getTimeoutRate() * 100));
+        for (int i = 0; i < ERROR_CODES; i++) {
+            long n = errors.get(i);
+            if (n != 0) {
+                s.append(' ').append(i < ERROR_NAMES.length ? ERROR_NAMES[i] : String.format("0x%x", i))
+                        .append('=').append(n);
+            }
+        }
+        LatencyHistogram total = latencies.total();
+        s.append(String.format(" p50=%.3f ms p99=%.3f ms", total.getPercentileMicros(50) * 1e-3,
+                total.getPercentileMicros(99) * 1e-3));
+        return s.toString();
+    }
+}
@@ -0,0 +1,269 @@
+package me.lise.CPEN431.Frobber.load;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
+import me.lise.CPEN431.Frobber.net.IOLoopGroup;
+import me.lise.CPEN431.Frobber.net.PendingRequest;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Sends requests on a fixed schedule, whether or not earlier ones have been answered.
+ *
+ * A closed-loop client stops sending while the server stalls, so the stall only shows up in the handful of requests
+ * that were outstanding at the time (coordinated omission). Here each request has an intended send time taken from
+ * the arrival schedule, and its latency is measured from that time, so a stall is charged to every request that
+ * should have been sent during it. Latency measured from when the request actually went out is kept as well, for
+ * comparison.
+ *
+ * Sending never blocks: requests go out through the transports of an {@link IOLoopGroup}, and if the sender falls
+ * behind schedule it catches up by sending immediately rather than skipping requests.
+ */
+public class OpenLoopGenerator {
+    /** How long to wait for stragglers after the last send: enough for every retry and a few overload pauses */
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /** {@code ErrCode.OKAY} */
+    private static final int OKAY = 0x0;
+
+    private final IOLoopGroup group;
+    private final InetSocketAddress target;
+    private final double ratePerSecond;
+    private final Arrivals arrivals;
+
+    /**
+     * @param group The transports to send on.
+     * @param target The node to send to.
+     * @param ratePerSecond The target request rate.
+     * @param arrivals How to space out requests.
+     */
+    public OpenLoopGenerator(IOLoopGroup group, InetSocketAddress target, double ratePerSecond, Arrivals arrivals) {
+        this.group = group;
+        this.target = target;
+        this.ratePerSecond = ratePerSecond;
+        this.arrivals = arrivals;
+    }
+
+    /**
+     * Send requests on schedule for {@code durationNanos}, then wait for the last replies.
+     * @param requests Makes the next request to send. Called on the calling thread only.
+     * @param durationNanos How long to keep sending.
+     * @return The outcome and latencies of every request sent.
+     */
+    public Result run(Supplier<KVRequest> requests, long durationNanos) {
+        Result result = new Result();
+
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        long intended = start;
+        while (intended - end < 0) {
+            long lag = RateLimiter.waitUntil(intended);
+            if (lag > result.maxLagNanos) {
+                result.maxLagNanos = lag;
+            }
+
+            final long intendedAt = intended;
+            KVRequest request = requests.get();
+            int command = request.getCommand();
+            PendingRequest pending = group.nextTransport().submit(target, request);
+            result.sent++;
+            pending.whenComplete((response, e) -> {
+                long now = System.nanoTime();
+                if (e instanceof InvalidProtocolBufferException) {
+                    // the node did answer, just not with a response
+                    result.failures.incrementAndGet();
+                } else if (response == null) {
+                    result.timeouts.incrementAndGet();
+                } else if (response.getErrCode() == OKAY) {
+                    result.successes.incrementAndGet();
+                } else {
+                    result.failures.incrementAndGet();
+                }
+                // a request that ran out of retries waited at least until now; leaving it out would make the
+                // percentiles look better the longer the node stalls
+                if (e == null) {
+                    result.corrected.recordNanos(now - intendedAt);
+                    result.uncorrected.recordNanos(now - pending.getStartedAt());
+                    result.byCommand.recordNanos(command, now - intendedAt);
+                }
+                result.completed.incrementAndGet();
+            });
+
+            intended += arrivals.nextGapNanos(ratePerSecond);
+        }
+        result.sendNanos = System.nanoTime() - start;
+
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        while (result.completed.get() < result.sent && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Outcome of an open-loop run. Latencies cover every request that got a reply or ran out of retries; one that
+     * timed out counts with the time it was given up at, which is a lower bound. Requests still unanswered when the
+     * run stopped waiting are only in {@link #getTimeouts()}, and {@link #getCorrectedPercentileNanos} counts them as
+     * infinitely slow. Results of runs in other processes can be shipped over with {@link #writeTo} and merged with
+     * {@link #add}.
+     */
+    public static class Result {
+        private final LatencyHistogram corrected = new LatencyHistogram();
+        private final LatencyHistogram uncorrected = new LatencyHistogram();
+        private final CommandHistograms byCommand = new CommandHistograms();
+        private final AtomicLong successes = new AtomicLong(0);
+        private final AtomicLong failures = new AtomicLong(0);
+        private final AtomicLong timeouts = new AtomicLong(0);
+        private final AtomicLong completed = new AtomicLong(0);
+        private long sent = 0;
+        private long sendNanos;
+        private long elapsedNanos;
+        private long maxLagNanos = 0;
+
+        /** An empty result, to {@link #add} others to */
+        Result() {
+        }
+
+        /**
+         * Merge in a run that happened alongside this one, e.g. in another worker: counts and latencies add up, and
+         * the durations and lag are the longest of the two.
+         */
+        public void add(Result other) {
+            corrected.add(other.corrected);
+            uncorrected.add(other.uncorrected);
+            byCommand.add(other.byCommand);
+            successes.addAndGet(other.successes.get());
+            failures.addAndGet(other.failures.get());
+            timeouts.addAndGet(other.timeouts.get());
+            completed.addAndGet(other.completed.get());
+            sent += other.sent;
+            sendNanos = Math.max(sendNanos, other.sendNanos);
+            elapsedNanos = Math.max(elapsedNanos, other.elapsedNanos);
+            maxLagNanos = Math.max(maxLagNanos, other.maxLagNanos);
+        }
+
+        /**
+         * Write a finished result to another process.
+         */
+        public void writeTo(DataOutput out) throws IOException {
+            corrected.writeTo(out);
+            uncorrected.writeTo(out);
+            byCommand.writeTo(out);
+            out.writeLong(successes.get());
+            out.writeLong(failures.get());
+            out.writeLong(timeouts.get());
+            out.writeLong(completed.get());
+            out.writeLong(sent);
+            out.writeLong(sendNanos);
+            out.writeLong(elapsedNanos);
+            out.writeLong(maxLagNanos);
+        }
+
+        /**
+         * @return A result written by {@link #writeTo}.
+         * @throws IOException if the input is cut short or corrupt.
+         */
+        public static Result readFrom(DataInput in) throws IOException {
+            Result result = new Result();
+            result.corrected.add(LatencyHistogram.readFrom(in));
+            result.uncorrected.add(LatencyHistogram.readFrom(in));
+            result.byCommand.add(CommandHistograms.readFrom(in));
+            result.successes.set(in.readLong());
+            result.failures.set(in.readLong());
+            result.timeouts.set(in.readLong());
+            result.completed.set(in.readLong());
+            result.sent = in.readLong();
+            result.sendNanos = in.readLong();
+            result.elapsedNanos = in.readLong();
+            result.maxLagNanos = in.readLong();
+            return result;
+        }
+
+        /**
+         * @return Latency from each request's intended send time to its reply, or to giving up on it.
+         */
+        public LatencyHistogram getCorrected() {
+            return corrected;
+        }
+
+        /**
+         * @param percentile e.g. 99.
+         * @return Latency from intended send time at {@code percentile} of every request sent, counting those still
+         * unanswered when the run stopped waiting as infinitely slow: {@link Long#MAX_VALUE} if they reach that
+         * percentile, or 0 if nothing was sent.
+         */
+        public long getCorrectedPercentileNanos(double percentile) {
+            long recorded = corrected.getCount();
+            double rank = percentile / 100 * sent;
+            if (sent == 0) {
+                return 0;
+            } else if (recorded == 0 || recorded < rank) {
+                return Long.MAX_VALUE;
+            }
+            return corrected.getPercentileMicros(100 * rank / recorded) * 1000;
+        }
+
+        /**
+         * @return Latency from when each request actually went out to its reply, which hides client-side queueing.
+         */
+        public LatencyHistogram getUncorrected() {
+            return uncorrected;
+        }
+
+        /**
+         * @return Latency from intended send time, per command.
+         */
+        public CommandHistograms getCommandLatencies() {
+            return byCommand;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getSuccesses() {
+            return successes.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * @return Requests that ran out of retries, plus any still unanswered when the run gave up waiting.
+         */
+        public long getTimeouts() {
+            return timeouts.get() + sent - completed.get();
+        }
+
+        /**
+         * @return How long the sending phase lasted.
+         */
+        public long getSendNanos() {
+            return sendNanos;
+        }
+
+        /**
+         * @return How long the run lasted, including waiting for the last replies.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return The furthest the sender ever fell behind its schedule.
+         */
+        public long getMaxLagNanos() {
+            return maxLagNanos;
+        }
+    }
+}
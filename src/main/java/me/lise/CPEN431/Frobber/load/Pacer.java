@@ -0,0 +1,81 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One shared thread that completes futures at precise times, for rate limiting callers that must not block.
+ *
+ * Waiters are kept in due-time order. The thread sleeps until shortly before the earliest is due and spins the rest
+ * of the way, as {@link RateLimiter#acquire()} does, so however many clients are being paced only this one thread
+ * ever spins. Futures complete on this thread, so dependent stages should be short and must not block.
+ */
+class Pacer {
+    private static final PriorityBlockingQueue<Release> queue = new PriorityBlockingQueue<>();
+    private static final AtomicLong sequence = new AtomicLong(0);
+    private static final Thread thread = start();
+
+    private Pacer() {
+    }
+
+    private static Thread start() {
+        Thread thread = new Thread(Pacer::run, "frobber-pacer");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @return A future that completes at {@code time}, or now if that has passed.
+     */
+    static CompletableFuture<Void> releaseAt(long time) {
+        if (time - System.nanoTime() <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Release release = new Release(time, sequence.getAndIncrement());
+        queue.add(release);
+        // it may be due before whatever the thread is sleeping for
+        LockSupport.unpark(thread);
+        return release;
+    }
+
+    private static void run() {
+        while (true) {
+            Release next = queue.peek();
+            if (next == null) {
+                LockSupport.park();
+                continue;
+            }
+            long remaining = next.time - System.nanoTime();
+            if (remaining > RateLimiter.SPIN_NANOS) {
+                // wakes early if an earlier release is added
+                LockSupport.parkNanos(remaining - RateLimiter.SPIN_NANOS);
+                continue;
+            }
+            if (remaining > 0) {
+                continue;  // spin
+            }
+            // the head can only have moved earlier since the peek, so it is due too
+            queue.poll().complete(null);
+        }
+    }
+
+    private static class Release extends CompletableFuture<Void> implements Comparable<Release> {
+        private final long time;
+        /** Breaks ties, so releases due at the same time go in the order they were asked for */
+        private final long order;
+
+        private Release(long time, long order) {
+            this.time = time;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Release other) {
+            int byTime = Long.signum(time - other.time);
+            return byTime != 0 ? byTime : Long.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The phases of a time-boxed run: a warmup that is thrown away, a measurement window, and a cooldown that keeps
+ * the load on until the window has closed, so the last measured requests don't see an emptying server.
+ */
+public class Phases {
+    private final long warmupNanos;
+    private final long measureNanos;
+    private final long cooldownNanos;
+
+    public Phases(long warmupNanos, long measureNanos, long cooldownNanos) {
+        this.warmupNanos = warmupNanos;
+        this.measureNanos = measureNanos;
+        this.cooldownNanos = cooldownNanos;
+    }
+
+    public static Phases ofSeconds(int warmup, int measure, int cooldown) {
+        return new Phases(TimeUnit.SECONDS.toNanos(warmup), TimeUnit.SECONDS.toNanos(measure),
+                TimeUnit.SECONDS.toNanos(cooldown));
+    }
+
+    public long getWarmupNanos() {
+        return warmupNanos;
+    }
+
+    public long getMeasureNanos() {
+        return measureNanos;
+    }
+
+    public long getCooldownNanos() {
+        return cooldownNanos;
+    }
+
+    /**
+     * @return The length of the whole run.
+     */
+    public long getTotalNanos() {
+        return warmupNanos + measureNanos + cooldownNanos;
+    }
+
+    /**
+     * Sleep until {@code offsetNanos} after {@code start}.
+     * @throws InterruptedException if interrupted while sleeping.
+     */
+    public static void sleepUntil(long start, long offsetNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = start + offsetNanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    public String format() {
+        return String.format("%.1f s warmup, %.1f s measured, %.1f s cooldown",
+                warmupNanos * 1e-9, measureNanos * 1e-9, cooldownNanos * 1e-9);
+    }
+}
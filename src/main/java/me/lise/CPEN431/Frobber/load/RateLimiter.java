@@ -0,0 +1,139 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket that paces requests to a fixed rate, e.g. one per client and one shared by all clients.
+ *
+ * Implemented as a virtual schedule (GCRA) rather than a token count: the bucket only remembers when the next
+ * permit is due, and taking a permit is one CAS that pushes that time on by {@code 1 / rate}. A bucket that has been
+ * idle lets exactly {@code burst} permits through at once. A bucket can also be given a catch-up window, so permits
+ * missed by a caller that was descheduled past them can still be claimed that long afterwards and the long-run rate
+ * holds, at the cost of a burst of up to that much worth after an idle spell. Waiting sleeps until shortly before the
+ * permit is due and spins the rest of the way, so rates stay accurate well past 100k per second without a thread
+ * spinning the whole time.
+ */
+public class RateLimiter {
+    /** Sleep until this close to the due time, then spin */
+    static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final double ratePerSecond;
+    private final long intervalNanos;
+    private final int burst;
+    private final long catchUpNanos;
+    private final long burstNanos;
+    /** When the next permit is due, if nobody has been idle */
+    private final AtomicLong nextFree;
+
+    /**
+     * A bucket without catch-up: a caller late for its permit loses it, so permits are never closer together than
+     * {@code burst} allows.
+     * @param ratePerSecond Permits per second.
+     * @param burst Permits an idle bucket can hand out at once; 1 for even spacing.
+     */
+    public RateLimiter(double ratePerSecond, int burst) {
+        this(ratePerSecond, burst, 0);
+    }
+
+    /**
+     * @param ratePerSecond Permits per second.
+     * @param burst Permits an idle bucket can hand out at once, if {@code catchUpNanos} allows no more.
+     * @param catchUpNanos How far behind the schedule permits can still be claimed. An idle bucket then hands out
+     * {@code max(burst, 1 + catchUpNanos * rate)} permits at once.
+     */
+    public RateLimiter(double ratePerSecond, int burst, long catchUpNanos) {
+        if (ratePerSecond <= 0 || burst < 1 || catchUpNanos < 0) {
+            throw new IllegalArgumentException(String.format("Bad rate %.3f, burst %d or catch-up %d ns",
+                    ratePerSecond, burst, catchUpNanos));
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.catchUpNanos = catchUpNanos;
+        this.intervalNanos = Math.max(1, Math.round(1e9 / ratePerSecond));
+        this.burstNanos = Math.max((burst - 1) * intervalNanos, catchUpNanos);
+        this.nextFree = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Take the next permit, without waiting for it.
+     * @return The {@link System#nanoTime()} at which the permit is due; now or earlier if one was available.
+     */
+    public long reserve() {
+        long now = System.nanoTime();
+        while (true) {
+            long next = nextFree.get();
+            // an idle bucket has saved up to burst permits (or the catch-up window's worth), but no more
+            long due = Math.max(next, now - burstNanos);
+            if (nextFree.compareAndSet(next, due + intervalNanos)) {
+                return due;
+            }
+        }
+    }
+
+    /**
+     * Take a permit if one is available right now.
+     * @return Whether a permit was taken.
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long next = nextFree.get();
+            long due = Math.max(next, now - burstNanos);
+            if (due - now > 0) {
+                return false;
+            }
+            if (nextFree.compareAndSet(next, due + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Take the next permit, blocking until it is due.
+     * @return How late the caller got it, or 0 if it was on time.
+     */
+    public long acquire() {
+        return waitUntil(reserve());
+    }
+
+    /**
+     * Take the next permit without blocking.
+     * @return A future that completes on the shared {@link Pacer} thread once the permit is due, or is already
+     * complete if a permit was available. Dependent stages should not block.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        return Pacer.releaseAt(reserve());
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * @return e.g. {@code "10000/s (burst 1)"} or {@code "10000/s (burst 1, catch-up 10 ms)"}.
+     */
+    public String format() {
+        if (catchUpNanos == 0) {
+            return String.format("%.0f/s (burst %d)", ratePerSecond, burst);
+        }
+        return String.format("%.0f/s (burst %d, catch-up %.0f ms)", ratePerSecond, burst, catchUpNanos * 1e-6);
+    }
+
+    /**
+     * Sleep, then spin, until {@code time}.
+     * @return How late we are for {@code time}, or 0 if we were early.
+     */
+    static long waitUntil(long time) {
+        long remaining = time - System.nanoTime();
+        if (remaining > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+        }
+        while ((remaining = time - System.nanoTime()) > 0) {
+            // spin
+        }
+        return -remaining;
+    }
+}
@@ -0,0 +1,143 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * How a set of nodes weathered an event, e.g. another node shutting down, judged from a {@link TimeSeries}.
+ *
+ * The baseline is the mean goodput of the intervals between {@code baselineFrom} and the event. Intervals that end
+ * after the event count as after it. The nodes have recovered at the start of the first run of
+ * {@code stableIntervals} intervals whose goodput is all at least {@code fraction} of the baseline, so one lucky
+ * interval in the middle of the dip doesn't count. The recovery time is only as precise as the intervals are long.
+ */
+public class Recovery {
+    private final double baselineGoodput;
+    private final double baselineTimeouts;
+    private final double dipGoodput;
+    private final double peakTimeouts;
+    private final long timeoutsAfter;
+    private final double recoverySeconds;
+    private final double fraction;
+
+    /**
+     * @param intervals The series, oldest first.
+     * @param nodes Whose goodput and timeouts to judge by, e.g. the nodes that stay up.
+     * @param baselineFrom Seconds into the series the baseline starts, to leave out the warmup.
+     * @param eventSeconds Seconds into the series the event happened.
+     * @param fraction How much of the baseline goodput counts as recovered, e.g. 0.9.
+     * @param stableIntervals How many intervals in a row have to stay recovered.
+     */
+    public Recovery(List<TimeSeries.Interval> intervals, Collection<InetSocketAddress> nodes, double baselineFrom,
+                    double eventSeconds, double fraction, int stableIntervals) {
+        this.fraction = fraction;
+
+        double goodput = 0;
+        double timeouts = 0;
+        int before = 0;
+        for (TimeSeries.Interval interval : intervals) {
+            if (interval.getStartSeconds() >= baselineFrom && interval.getEndSeconds() <= eventSeconds) {
+                goodput += interval.getGoodput(nodes);
+                timeouts += interval.getTimeoutsPerSecond(nodes);
+                before++;
+            }
+        }
+        this.baselineGoodput = before == 0 ? 0 : goodput / before;
+        this.baselineTimeouts = before == 0 ? 0 : timeouts / before;
+
+        double dip = Double.NaN;
+        double peak = 0;
+        long lost = 0;
+        double recovered = Double.NaN;
+        int stable = 0;
+        for (int i = 0; i < intervals.size(); i++) {
+            TimeSeries.Interval interval = intervals.get(i);
+            if (interval.getEndSeconds() <= eventSeconds) {
+                continue;
+            }
+            double intervalGoodput = interval.getGoodput(nodes);
+            double intervalTimeouts = interval.getTimeoutsPerSecond(nodes);
+            dip = Double.isNaN(dip) ? intervalGoodput : Math.min(dip, intervalGoodput);
+            peak = Math.max(peak, intervalTimeouts);
+            lost += Math.round(intervalTimeouts * (interval.getEndSeconds() - interval.getStartSeconds()));
+
+            if (!Double.isNaN(recovered)) {
+                continue;
+            }
+            if (baselineGoodput > 0 && intervalGoodput >= fraction * baselineGoodput) {
+                stable++;
+                if (stable == stableIntervals) {
+                    TimeSeries.Interval first = intervals.get(i - stableIntervals + 1);
+                    recovered = Math.max(0, first.getStartSeconds() - eventSeconds);
+                }
+            } else {
+                stable = 0;
+            }
+        }
+        this.dipGoodput = dip;
+        this.peakTimeouts = peak;
+        this.timeoutsAfter = lost;
+        this.recoverySeconds = recovered;
+    }
+
+    /**
+     * @return Mean successful replies per second before the event, or 0 if no interval was wholly before it.
+     */
+    public double getBaselineGoodput() {
+        return baselineGoodput;
+    }
+
+    /**
+     * @return Mean timeouts per second before the event.
+     */
+    public double getBaselineTimeouts() {
+        return baselineTimeouts;
+    }
+
+    /**
+     * @return The lowest goodput of any interval after the event, or NaN if there were none.
+     */
+    public double getDipGoodput() {
+        return dipGoodput;
+    }
+
+    /**
+     * @return The most timeouts per second of any interval after the event.
+     */
+    public double getPeakTimeouts() {
+        return peakTimeouts;
+    }
+
+    /**
+     * @return Requests that timed out after the event.
+     */
+    public long getTimeoutsAfter() {
+        return timeoutsAfter;
+    }
+
+    /**
+     * @return Seconds from the event until goodput was back to the baseline for good, 0 if it never dipped below, or
+     * NaN if it never got back within the series.
+     */
+    public double getRecoverySeconds() {
+        return recoverySeconds;
+    }
+
+    public boolean hasRecovered() {
+        return !Double.isNaN(recoverySeconds);
+    }
+
+    /**
+     * @return e.g. {@code "baseline 5120.0/s, dipped to 1204.5/s (23.5%), timeouts peaked at 96.0/s (baseline
+     * 0.0/s), 311 in all; back to 90% of baseline after 4.0 s"}.
+     */
+    public String format() {
+        return String.format("baseline %.1f/s, dipped to %.1f/s (%.1f%%), timeouts peaked at %.1f/s (baseline "
+                        + "%.1f/s), %d in all; %s", baselineGoodput, dipGoodput,
+                baselineGoodput == 0 ? 0 : dipGoodput / baselineGoodput * 100, peakTimeouts, baselineTimeouts,
+                timeoutsAfter, hasRecovered()
+                        ? String.format("back to %.0f%% of baseline after %.1f s", fraction * 100, recoverySeconds)
+                        : String.format("never back to %.0f%% of baseline", fraction * 100));
+    }
+}
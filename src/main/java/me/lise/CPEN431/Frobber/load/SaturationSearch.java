@@ -0,0 +1,222 @@
+package me.lise.CPEN431.Frobber.load;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
+import me.lise.CPEN431.Frobber.net.IOLoopGroup;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Finds how much load a node can take, by stepping up an open-loop request rate until it can't keep up.
+ *
+ * Each step runs an {@link OpenLoopGenerator} at a fixed rate and waits for its last replies before the next step
+ * starts, so one step's backlog never leaks into the next. An extra step at the starting rate runs first and is
+ * thrown away, so JIT compilation and the first RTT estimate don't count against the lowest rate. The rate is
+ * multiplied by {@code stepFactor} after every step. The search stops at the first step whose p99 latency (from
+ * intended send time) is over the SLO, or whose goodput rose by less than {@code plateauGain} over the best so far,
+ * or after {@code maxSteps}.
+ *
+ * A step is sustainable if it met the SLO and its goodput kept up with at least {@code 1 - plateauGain} of the
+ * offered rate. The knee is the last step before goodput started to bend away from the offered load, i.e. the last
+ * sustainable step whose successor added less than half as much goodput as it added offered load.
+ */
+public class SaturationSearch {
+    /** Below this marginal goodput per unit of extra offered load, the curve has bent */
+    private static final double KNEE_SLOPE = 0.5;
+
+    private final double startRate;
+    private final double stepFactor;
+    private final long stepNanos;
+    private final long sloP99Nanos;
+    private final double plateauGain;
+    private final int maxSteps;
+
+    /**
+     * @param startRate Requests per second of the first step.
+     * @param stepFactor How much to multiply the rate by after each step, e.g. 1.25.
+     * @param stepNanos How long each step sends for.
+     * @param sloP99Nanos The p99 latency a sustainable rate must stay under.
+     * @param plateauGain Smallest relative goodput gain that still counts as rising, e.g. 0.05.
+     * @param maxSteps Give up after this many steps.
+     */
+    public SaturationSearch(double startRate, double stepFactor, long stepNanos, long sloP99Nanos,
+                            double plateauGain, int maxSteps) {
+        if (stepFactor <= 1) {
+            throw new IllegalArgumentException("Step factor must be over 1, got " + stepFactor);
+        }
+        this.startRate = startRate;
+        this.stepFactor = stepFactor;
+        this.stepNanos = stepNanos;
+        this.sloP99Nanos = sloP99Nanos;
+        this.plateauGain = plateauGain;
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * Ramp up the load until the node saturates.
+     * @param group The transports to send on. Its windows should be wide enough for the highest rate expected.
+     * @param target The node to load.
+     * @param arrivals How to space out requests within a step.
+     * @param requests Makes the next request to send. Called on the calling thread only.
+     * @param listener Told about every step as soon as it finishes, or null.
+     * @return Every step, and where the search stopped.
+     */
+    public Result run(IOLoopGroup group, InetSocketAddress target, Arrivals arrivals, Supplier<KVRequest> requests,
+                      StepListener listener) {
+        List<Step> steps = new ArrayList<>();
+        double rate = startRate;
+        double bestGoodput = 0;
+        String stopReason = String.format("reached the step limit (%d steps)", maxSteps);
+        new OpenLoopGenerator(group, target, rate, arrivals).run(requests, stepNanos);
+        for (int i = 0; i < maxSteps; i++) {
+            OpenLoopGenerator.Result run = new OpenLoopGenerator(group, target, rate, arrivals)
+                    .run(requests, stepNanos);
+            Step step = new Step(rate, run);
+            steps.add(step);
+            if (listener != null) {
+                listener.onStep(step);
+            }
+
+            if (step.getP99Nanos() > sloP99Nanos) {
+                stopReason = String.format("p99 over the %.3f ms SLO at %.0f requests per second",
+                        sloP99Nanos * 1e-6, rate);
+                break;
+            }
+            if (i > 0 && step.getGoodput() < bestGoodput * (1 + plateauGain)) {
+                stopReason = String.format("goodput stopped rising at %.0f requests per second", rate);
+                break;
+            }
+            bestGoodput = Math.max(bestGoodput, step.getGoodput());
+            rate *= stepFactor;
+        }
+        return new Result(steps, stopReason);
+    }
+
+    private boolean isSustainable(Step step) {
+        return step.getP99Nanos() <= sloP99Nanos && step.getGoodput() >= step.getOfferedRate() * (1 - plateauGain);
+    }
+
+    /**
+     * Gets each step as it completes, e.g. to log progress during a long search.
+     */
+    public interface StepListener {
+        void onStep(Step step);
+    }
+
+    /**
+     * One rate the node was tried at.
+     */
+    public static class Step {
+        private final double offeredRate;
+        private final OpenLoopGenerator.Result run;
+
+        private Step(double offeredRate, OpenLoopGenerator.Result run) {
+            this.offeredRate = offeredRate;
+            this.run = run;
+        }
+
+        public double getOfferedRate() {
+            return offeredRate;
+        }
+
+        /**
+         * @return Successful replies per second of sending. Waiting for the last replies isn't counted, or a step
+         * whose stragglers time out would look slower than it was.
+         */
+        public double getGoodput() {
+            return run.getSuccesses() * 1e9 / run.getSendNanos();
+        }
+
+        /**
+         * @return The 99th percentile latency from intended send time, counting requests still unanswered at the
+         * end of the step as infinitely slow: {@link Long#MAX_VALUE} if more than 1% of them were.
+         */
+        public long getP99Nanos() {
+            return run.getCorrectedPercentileNanos(99);
+        }
+
+        /**
+         * @return The full outcome of the step.
+         */
+        public OpenLoopGenerator.Result getRun() {
+            return run;
+        }
+
+        /**
+         * @return e.g. {@code "offered 1000/s goodput 998/s p50=... p99=... timeouts=0 failures=0"}.
+         */
+        public String format() {
+            LatencyHistogram latency = run.getCorrected();
+            long p99 = getP99Nanos();
+            return String.format("offered %.0f/s goodput %.0f/s p50=%.3f ms p99=%s p99.9=%.3f ms "
+                            + "timeouts=%d failures=%d",
+                    offeredRate, getGoodput(), latency.getPercentileMicros(50) * 1e-3,
+                    p99 == Long.MAX_VALUE ? "unanswered" : String.format("%.3f ms", p99 * 1e-6),
+                    latency.getPercentileMicros(99.9) * 1e-3, run.getTimeouts(), run.getFailures());
+        }
+    }
+
+    /**
+     * The load/latency curve traced by a search.
+     */
+    public class Result {
+        private final List<Step> steps;
+        private final String stopReason;
+
+        private Result(List<Step> steps, String stopReason) {
+            this.steps = Collections.unmodifiableList(steps);
+            this.stopReason = stopReason;
+        }
+
+        /**
+         * @return Every step, in increasing order of offered rate.
+         */
+        public List<Step> getSteps() {
+            return steps;
+        }
+
+        public String getStopReason() {
+            return stopReason;
+        }
+
+        /**
+         * @return The highest-rate step that met the SLO and kept up with its offered load, or null if none did.
+         */
+        public Step getMaxSustainable() {
+            Step best = null;
+            for (Step step : steps) {
+                if (isSustainable(step)) {
+                    best = step;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return The last sustainable step before goodput bent away from the offered load, or null if none was
+         * sustainable.
+         */
+        public Step getKnee() {
+            Step knee = null;
+            for (int i = 0; i < steps.size(); i++) {
+                Step step = steps.get(i);
+                if (!isSustainable(step)) {
+                    break;
+                }
+                knee = step;
+                if (i + 1 < steps.size()) {
+                    Step next = steps.get(i + 1);
+                    double slope = (next.getGoodput() - step.getGoodput())
+                            / (next.getOfferedRate() - step.getOfferedRate());
+                    if (slope < KNEE_SLOPE) {
+                        break;
+                    }
+                }
+            }
+            return knee;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package me.lise.CPEN431.Frobber.load;
+
+/**
+ * Zipfian popularity, with the popular keys scattered over the key space instead of bunched at the low numbers.
+ *
+ * As in YCSB, the scattering is an FNV-1a hash of the Zipfian rank, so a few keys may share a rank's popularity and
+ * a few may never come up.
+ */
+public class ScrambledZipfianKeyChooser implements KeyChooser {
+    /** YCSB's default skew */
+    public static final double DEFAULT_THETA = 0.99;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Zipfian zipfian;
+
+    public ScrambledZipfianKeyChooser() {
+        this(DEFAULT_THETA);
+    }
+
+    /**
+     * @param theta The skew, in (0, 1).
+     */
+    public ScrambledZipfianKeyChooser(double theta) {
+        this.zipfian = new Zipfian(theta);
+    }
+
+    @Override
+    public long nextKey(long recordCount) {
+        return Math.floorMod(fnv1a64(zipfian.next(recordCount)), recordCount);
+    }
+
+    /**
+     * FNV-1a over the 8 bytes of {@code value}, low byte first.
+     */
+    static long fnv1a64(long value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xff;
+            hash *= FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    @Override
+    public String format() {
+        return String.format("scrambled Zipfian (theta %.2f)", zipfian.getTheta());
+    }
+}
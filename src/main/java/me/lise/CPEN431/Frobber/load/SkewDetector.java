@@ -0,0 +1,87 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Picks out nodes that are much slower or lose many more requests than the rest of the cluster.
+ *
+ * A node is flagged when its p99 latency or its timeout rate is at least {@code factor} times the cluster median.
+ * For an even number of nodes the lower of the two middle values is the median, so in a two-node cluster the slow
+ * node is compared with the fast one. Nodes that got no requests are left out.
+ */
+public class SkewDetector {
+    /** Timeout rates below this are never flagged, so a median of no timeouts doesn't flag one lost request */
+    private static final double MIN_TIMEOUT_RATE = 0.001;
+
+    private final double factor;
+
+    /**
+     * @param factor How many times the median counts as skewed, e.g. 3.
+     */
+    public SkewDetector(double factor) {
+        if (!(factor > 1)) {
+            throw new IllegalArgumentException(String.format("Skew factor %.2f is not above 1", factor));
+        }
+        this.factor = factor;
+    }
+
+    /**
+     * @return One line per skewed metric of each skewed node, e.g. {@code "localhost:10146 p99 48.128 ms is 12.3x
+     * the cluster median of 3.904 ms"}; empty if none are, or there are fewer than two nodes to compare.
+     */
+    public List<String> check(Collection<NodeMetrics> nodes) {
+        List<NodeMetrics> active = new ArrayList<>();
+        for (NodeMetrics metrics : nodes) {
+            if (metrics.getRequests() > 0) {
+                active.add(metrics);
+            }
+        }
+        List<String> flags = new ArrayList<>();
+        if (active.size() < 2) {
+            return flags;
+        }
+
+        double[] p99s = new double[active.size()];
+        double[] timeoutRates = new double[active.size()];
+        for (int i = 0; i < active.size(); i++) {
+            p99s[i] = active.get(i).getLatencies().total().getPercentileMicros(99) * 1e-3;
+            timeoutRates[i] = active.get(i).getTimeoutRate();
+        }
+        double medianP99 = lowerMedian(p99s);
+        double medianTimeoutRate = lowerMedian(timeoutRates);
+
+        for (int i = 0; i < active.size(); i++) {
+            NodeMetrics metrics = active.get(i);
+            String node = String.format("%s:%d", metrics.getNode().getHostString(), metrics.getNode().getPort());
+            if (metrics.getReplies() > 0 && p99s[i] > 0 && p99s[i] >= factor * medianP99) {
+                flags.add(String.format("%s p99 %.3f ms is %s the cluster median of %.3f ms", node, p99s[i],
+                        ratio(p99s[i], medianP99), medianP99));
+            }
+            if (timeoutRates[i] >= MIN_TIMEOUT_RATE && timeoutRates[i] >= factor * medianTimeoutRate) {
+                flags.add(String.format("%s timeout rate %.2f%% is %s the cluster median of %.2f%%", node,
+                        timeoutRates[i] * 100, ratio(timeoutRates[i], medianTimeoutRate), medianTimeoutRate * 100));
+            }
+        }
+        return flags;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    private static double lowerMedian(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(sorted.length - 1) / 2];
+    }
+
+    /**
+     * @return e.g. {@code "4.2x"}, or {@code "infinitely"} over a median of 0.
+     */
+    private static String ratio(double value, double median) {
+        return median == 0 ? "infinitely" : String.format("%.1fx", value / median);
+    }
+}
@@ -0,0 +1,183 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What every node did in each of a run of consecutive intervals, e.g. one per second, so a failure and the recovery
+ * from it can be graphed over time.
+ *
+ * Each {@link #sample()} takes a {@link NodeMetrics#snapshot()} and keeps what changed since the previous one, so
+ * the intervals are as long as the gaps between calls. Replies count in the interval they arrived in and timeouts in
+ * the interval the last retry gave up in, which can be a few seconds after the request was sent.
+ */
+public class TimeSeries {
+    private final long start;
+    private final List<Interval> intervals = new ArrayList<>();
+    private Map<InetSocketAddress, NodeMetrics> last;
+    private long lastAt;
+
+    /**
+     * Start the first interval now.
+     */
+    public TimeSeries() {
+        this.last = NodeMetrics.snapshot();
+        this.start = System.nanoTime();
+        this.lastAt = start;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} the series started at.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * End the current interval and start the next. Only call from one thread.
+     * @return The interval just ended.
+     */
+    public Interval sample() {
+        Map<InetSocketAddress, NodeMetrics> now = NodeMetrics.snapshot();
+        long at = System.nanoTime();
+        Map<InetSocketAddress, NodeMetrics> diffs = new HashMap<>();
+        for (NodeMetrics metrics : now.values()) {
+            diffs.put(metrics.getNode(), metrics.minus(last.get(metrics.getNode())));
+        }
+        Interval interval = new Interval((lastAt - start) * 1e-9, (at - start) * 1e-9, diffs);
+        intervals.add(interval);
+        last = now;
+        lastAt = at;
+        return interval;
+    }
+
+    /**
+     * @return Every interval sampled so far, oldest first.
+     */
+    public List<Interval> getIntervals() {
+        return Collections.unmodifiableList(intervals);
+    }
+
+    /**
+     * @return The column names of {@link Interval#format}, for the same nodes.
+     */
+    public static String header(Collection<InetSocketAddress> nodes) {
+        StringBuilder s = new StringBuilder("time_s,goodput_per_s,errors_per_s,timeouts_per_s,p50_ms,p99_ms");
+        for (InetSocketAddress node : nodes) {
+            s.append(String.format(",goodput_per_s@%s:%d", node.getHostString(), node.getPort()));
+        }
+        return s.toString();
+    }
+
+    /**
+     * One interval of a series.
+     */
+    public static class Interval {
+        private final double startSeconds;
+        private final double endSeconds;
+        private final Map<InetSocketAddress, NodeMetrics> nodes;
+
+        private Interval(double startSeconds, double endSeconds, Map<InetSocketAddress, NodeMetrics> nodes) {
+            this.startSeconds = startSeconds;
+            this.endSeconds = endSeconds;
+            this.nodes = nodes;
+        }
+
+        /**
+         * @return When the interval started, in seconds since the series did.
+         */
+        public double getStartSeconds() {
+            return startSeconds;
+        }
+
+        /**
+         * @return When the interval ended, in seconds since the series started.
+         */
+        public double getEndSeconds() {
+            return endSeconds;
+        }
+
+        /**
+         * @return What {@code node} did in the interval, or null if nothing was ever sent to it.
+         */
+        public NodeMetrics getNode(InetSocketAddress node) {
+            return nodes.get(node);
+        }
+
+        /**
+         * @return Successful replies per second from {@code nodes}.
+         */
+        public double getGoodput(Collection<InetSocketAddress> nodes) {
+            long successes = 0;
+            for (InetSocketAddress node : nodes) {
+                NodeMetrics metrics = this.nodes.get(node);
+                if (metrics != null) {
+                    successes += metrics.getErrors(0);
+                }
+            }
+            return successes / (endSeconds - startSeconds);
+        }
+
+        /**
+         * @return Replies per second from {@code nodes} with any error code but OKAY.
+         */
+        public double getErrorsPerSecond(Collection<InetSocketAddress> nodes) {
+            long errors = 0;
+            for (InetSocketAddress node : nodes) {
+                NodeMetrics metrics = this.nodes.get(node);
+                if (metrics != null) {
+                    errors += metrics.getReplies() - metrics.getErrors(0);
+                }
+            }
+            return errors / (endSeconds - startSeconds);
+        }
+
+        /**
+         * @return Requests to {@code nodes} per second that gave up waiting for a reply.
+         */
+        public double getTimeoutsPerSecond(Collection<InetSocketAddress> nodes) {
+            long timeouts = 0;
+            for (InetSocketAddress node : nodes) {
+                NodeMetrics metrics = this.nodes.get(node);
+                if (metrics != null) {
+                    timeouts += metrics.getTimeouts();
+                }
+            }
+            return timeouts / (endSeconds - startSeconds);
+        }
+
+        /**
+         * @return Latencies of the replies from {@code nodes}, all commands together.
+         */
+        public LatencyHistogram getLatency(Collection<InetSocketAddress> nodes) {
+            LatencyHistogram latency = new LatencyHistogram();
+            for (InetSocketAddress node : nodes) {
+                NodeMetrics metrics = this.nodes.get(node);
+                if (metrics != null) {
+                    latency.add(metrics.getLatencies().total());
+                }
+            }
+            return latency;
+        }
+
+        /**
+         * @return A CSV row with the columns of {@link TimeSeries#header} for the same nodes, e.g.
+         * {@code "3.001,5120.0,0.0,0.0,0.412,2.304,2561.0,2559.0"}.
+         */
+        public String format(Collection<InetSocketAddress> nodes) {
+            LatencyHistogram latency = getLatency(nodes);
+            StringBuilder s = new StringBuilder(String.format("%.3f,%.1f,%.1f,%.1f,%.3f,%.3f", endSeconds,
+                    getGoodput(nodes), getErrorsPerSecond(nodes), getTimeoutsPerSecond(nodes),
+                    latency.getPercentileMicros(50) * 1e-3, latency.getPercentileMicros(99) * 1e-3));
+            for (InetSocketAddress node : nodes) {
+                s.append(String.format(",%.1f", getGoodput(Collections.singleton(node))));
+            }
+            return s.toString();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Every existing key is equally likely.
+ */
+public class UniformKeyChooser implements KeyChooser {
+    @Override
+    public long nextKey(long recordCount) {
+        return ThreadLocalRandom.current().nextLong(recordCount);
+    }
+
+    @Override
+    public String format() {
+        return "uniform";
+    }
+}
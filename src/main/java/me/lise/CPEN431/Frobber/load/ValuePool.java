@@ -0,0 +1,51 @@
+package me.lise.CPEN431.Frobber.load;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Values for load tests, drawn from a {@link ValueSizes} distribution without allocating.
+ *
+ * All values are slices of one block of random bytes. Every possible size has {@code VARIANTS} slices built up
+ * front, starting at different offsets so consecutive values of the same size don't carry identical bytes, and
+ * {@link #next()} just picks one. The slices share the block, so the whole pool costs the block plus one small
+ * object per slice, and is shared by every client of a run.
+ */
+public class ValuePool {
+    /** Slices per size */
+    private static final int VARIANTS = 4;
+    /** Distance between the start of one variant and the next */
+    private static final int VARIANT_STRIDE = 4099;
+
+    private final ValueSizes sizes;
+    private final ByteString[][] slices = new ByteString[ValueSizes.MAX_SIZE + 1][VARIANTS];
+
+    public ValuePool(ValueSizes sizes) {
+        this.sizes = sizes;
+
+        // fixed seed: the content doesn't matter, but it may as well be the same every run
+        byte[] block = new byte[ValueSizes.MAX_SIZE + VARIANTS * VARIANT_STRIDE];
+        new Random(431).nextBytes(block);
+        // nothing writes to the block after this, so the ByteString can wrap it without a copy
+        ByteString all = UnsafeByteOperations.unsafeWrap(block);
+        for (int size = 0; size <= ValueSizes.MAX_SIZE; size++) {
+            for (int v = 0; v < VARIANTS; v++) {
+                slices[size][v] = all.substring(v * VARIANT_STRIDE, v * VARIANT_STRIDE + size);
+            }
+        }
+    }
+
+    /**
+     * @return A value with a size drawn from the distribution.
+     */
+    public ByteString next() {
+        return slices[sizes.nextSize()][ThreadLocalRandom.current().nextInt(VARIANTS)];
+    }
+
+    public ValueSizes getSizes() {
+        return sizes;
+    }
+}
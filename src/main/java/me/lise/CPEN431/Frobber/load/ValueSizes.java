@@ -0,0 +1,169 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A distribution of value sizes, in bytes. Drawing a size is thread-safe and doesn't allocate.
+ */
+public abstract class ValueSizes {
+    /** The largest value the server accepts */
+    public static final int MAX_SIZE = 10000;
+
+    /**
+     * @return The size of the next value, between 0 and {@link #MAX_SIZE}.
+     */
+    public abstract int nextSize();
+
+    /**
+     * @return The mean size, in bytes.
+     */
+    public abstract double getMean();
+
+    /**
+     * @return A short description, e.g. {@code "uniform 1..10000 B"}.
+     */
+    public abstract String format();
+
+    /**
+     * Every value is {@code size} bytes.
+     */
+    public static ValueSizes constant(int size) {
+        checkSize(size);
+        return new ValueSizes() {
+            @Override
+            public int nextSize() {
+                return size;
+            }
+
+            @Override
+            public double getMean() {
+                return size;
+            }
+
+            @Override
+            public String format() {
+                return size + " B";
+            }
+        };
+    }
+
+    /**
+     * Sizes uniform between {@code min} and {@code max}, inclusive.
+     */
+    public static ValueSizes uniform(int min, int max) {
+        checkSize(min);
+        checkSize(max);
+        if (min > max) {
+            throw new IllegalArgumentException("Empty value size range " + min + ".." + max);
+        }
+        return new ValueSizes() {
+            @Override
+            public int nextSize() {
+                return ThreadLocalRandom.current().nextInt(min, max + 1);
+            }
+
+            @Override
+            public double getMean() {
+                return (min + max) / 2.0;
+            }
+
+            @Override
+            public String format() {
+                return String.format("uniform %d..%d B", min, max);
+            }
+        };
+    }
+
+    /**
+     * Sizes drawn from a histogram file. Each line is {@code size weight} or {@code min-max weight} (uniform within
+     * the range); blank lines and lines starting with {@code #} are skipped. Weights are relative, e.g. counts
+     * taken from a production trace.
+     * @throws IOException if the file can't be read or a line doesn't parse.
+     */
+    public static ValueSizes fromHistogramFile(String path) throws IOException {
+        List<int[]> ranges = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    String[] fields = line.split("[\\s,]+");
+                    String[] bounds = fields[0].split("-");
+                    int min = Integer.parseInt(bounds[0]);
+                    int max = bounds.length > 1 ? Integer.parseInt(bounds[1]) : min;
+                    double weight = fields.length > 1 ? Double.parseDouble(fields[1]) : 1;
+                    checkSize(min);
+                    checkSize(max);
+                    if (min > max || weight < 0) {
+                        throw new IllegalArgumentException("bad range or weight");
+                    }
+                    ranges.add(new int[] {min, max});
+                    weights.add(weight);
+                } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException(String.format("%s:%d: can't parse \"%s\"", path, lineNumber, line), e);
+                }
+            }
+        }
+        return histogram(ranges, weights, path);
+    }
+
+    private static ValueSizes histogram(List<int[]> ranges, List<Double> weights, String name) throws IOException {
+        int n = ranges.size();
+        int[] mins = new int[n];
+        int[] maxes = new int[n];
+        double[] cumulative = new double[n];
+        double total = 0;
+        double weightedSum = 0;
+        for (int i = 0; i < n; i++) {
+            mins[i] = ranges.get(i)[0];
+            maxes[i] = ranges.get(i)[1];
+            total += weights.get(i);
+            cumulative[i] = total;
+            weightedSum += weights.get(i) * (mins[i] + maxes[i]) / 2.0;
+        }
+        if (total <= 0) {
+            throw new IOException(name + ": value size histogram is empty");
+        }
+        double sum = total;
+        double mean = weightedSum / total;
+
+        return new ValueSizes() {
+            @Override
+            public int nextSize() {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int i = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                // not found gives -(insertion point) - 1, and the insertion point is the bucket we landed in
+                i = Math.min(n - 1, i < 0 ? -i - 1 : i + 1);
+                return mins[i] == maxes[i] ? mins[i] : random.nextInt(mins[i], maxes[i] + 1);
+            }
+
+            @Override
+            public double getMean() {
+                return mean;
+            }
+
+            @Override
+            public String format() {
+                return String.format("histogram from %s (%d buckets)", name, n);
+            }
+        };
+    }
+
+    private static void checkSize(int size) {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Value size " + size + " outside 0.." + MAX_SIZE);
+        }
+    }
+}
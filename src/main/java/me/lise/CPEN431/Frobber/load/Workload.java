@@ -0,0 +1,155 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A named mix of operations, in the style of the YCSB core workloads, plus the policy for which keys they touch.
+ *
+ * Reads, updates and read-modify-writes pick an existing key from the {@link KeySpace} with the workload's
+ * {@link KeyChooser}; inserts always add a new key. As in YCSB, the built-in profiles use scrambled Zipfian keys,
+ * except read-latest, which favours the newest ones.
+ */
+public class Workload {
+    public enum Operation {
+        /** GET an existing key */
+        READ,
+        /** PUT over an existing key */
+        UPDATE,
+        /** PUT a new key */
+        INSERT,
+        /** GET an existing key, then PUT it back with the next version */
+        READ_MODIFY_WRITE
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final String name;
+    private final double[] proportions;
+    private final double[] cumulative;
+    private final KeyChooser keyChooser;
+
+    /**
+     * @param name A short name for reports.
+     * @param read Share of {@link Operation#READ}s.
+     * @param update Share of {@link Operation#UPDATE}s.
+     * @param insert Share of {@link Operation#INSERT}s.
+     * @param readModifyWrite Share of {@link Operation#READ_MODIFY_WRITE}s.
+     * @param keyChooser Picks existing keys.
+     */
+    public Workload(String name, double read, double update, double insert, double readModifyWrite,
+                    KeyChooser keyChooser) {
+        this.name = name;
+        this.proportions = new double[] {read, update, insert, readModifyWrite};
+        this.cumulative = new double[proportions.length];
+        double sum = 0;
+        for (int i = 0; i < proportions.length; i++) {
+            sum += proportions[i];
+            cumulative[i] = sum;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("Workload " + name + " has no operations");
+        }
+        for (int i = 0; i < cumulative.length; i++) {
+            cumulative[i] /= sum;
+        }
+        this.keyChooser = keyChooser;
+    }
+
+    /** 95% reads, 5% updates (YCSB B) */
+    public static Workload readMostly() {
+        return new Workload("read-mostly", 0.95, 0.05, 0, 0, new ScrambledZipfianKeyChooser());
+    }
+
+    /** 50% reads, 50% updates (YCSB A) */
+    public static Workload updateHeavy() {
+        return new Workload("update-heavy", 0.5, 0.5, 0, 0, new ScrambledZipfianKeyChooser());
+    }
+
+    /** Reads only (YCSB C) */
+    public static Workload readOnly() {
+        return new Workload("read-only", 1, 0, 0, 0, new ScrambledZipfianKeyChooser());
+    }
+
+    /** New keys only, as in a YCSB load phase */
+    public static Workload insertOnly() {
+        return new Workload("insert-only", 0, 0, 1, 0, new UniformKeyChooser());
+    }
+
+    /** 95% reads of recently inserted keys, 5% inserts (YCSB D) */
+    public static Workload readLatest() {
+        return new Workload("read-latest", 0.95, 0, 0.05, 0, new LatestKeyChooser());
+    }
+
+    /** 50% reads, 50% read-modify-writes (YCSB F) */
+    public static Workload readModifyWrite() {
+        return new Workload("read-modify-write", 0.5, 0, 0, 0.5, new ScrambledZipfianKeyChooser());
+    }
+
+    /**
+     * @return Every built-in profile.
+     */
+    public static List<Workload> standard() {
+        List<Workload> workloads = new ArrayList<>();
+        workloads.add(readMostly());
+        workloads.add(updateHeavy());
+        workloads.add(readOnly());
+        workloads.add(readLatest());
+        workloads.add(readModifyWrite());
+        workloads.add(insertOnly());
+        return workloads;
+    }
+
+    /**
+     * @return The same operation mix, picking keys with {@code keyChooser} instead.
+     */
+    public Workload withKeys(KeyChooser keyChooser) {
+        return new Workload(name, proportions[0], proportions[1], proportions[2], proportions[3], keyChooser);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The next operation to run, drawn according to the workload's proportions.
+     */
+    public Operation nextOperation() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        for (int i = 0; i < cumulative.length - 1; i++) {
+            if (r < cumulative[i]) {
+                return OPERATIONS[i];
+            }
+        }
+        return OPERATIONS[cumulative.length - 1];
+    }
+
+    /**
+     * @return An existing key for a read, update or read-modify-write.
+     */
+    public long nextKey(KeySpace keys) {
+        return keyChooser.nextKey(Math.max(1, keys.getRecordCount()));
+    }
+
+    /**
+     * @return e.g. {@code "read-mostly (95% READ, 5% UPDATE; uniform keys)"}.
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder(name).append(" (");
+        String separator = "";
+        double sum = 0;
+        for (double p : proportions) {
+            sum += p;
+        }
+        for (int i = 0; i < proportions.length; i++) {
+            if (proportions[i] > 0) {
+                sb.append(separator).append(String.format("%.0f%% %s", 100 * proportions[i] / sum, OPERATIONS[i]));
+                separator = ", ";
+            }
+        }
+        // inserts never pick an existing key
+        boolean choosesKeys = proportions[Operation.INSERT.ordinal()] < sum;
+        return sb.append("; ").append(choosesKeys ? keyChooser.format() : "new").append(" keys)").toString();
+    }
+}
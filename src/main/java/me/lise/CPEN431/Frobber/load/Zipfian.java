@@ -0,0 +1,100 @@
+package me.lise.CPEN431.Frobber.load;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Zipfian ranks over a key count that may grow, using the rejection-free method of Gray et al., "Quickly
+ * Generating Billion-Record Synthetic Databases" (the same one YCSB uses).
+ *
+ * Rank 0 is the most popular. The normalising constant zeta(n) is kept in an immutable snapshot: when the count
+ * grows, the new snapshot is extended from the old one one term per new key, so a run with steady inserts pays one
+ * {@code pow} per insert rather than O(n). Drawing a rank is a volatile read, a random double and one {@code pow}.
+ */
+class Zipfian {
+    /** Terms of zeta summed exactly; anything past this is integrated instead */
+    private static final long EXACT_TERMS = 1_000_000;
+
+    private final double theta;
+    private final double alpha;
+    private final double zeta2;
+    /** Below this, {@code u * zeta(n)} maps to rank 1 */
+    private final double rankOneLimit;
+    private final AtomicReference<State> state = new AtomicReference<>();
+
+    /**
+     * @param theta The skew, in (0, 1). Higher is more skewed; YCSB uses 0.99.
+     */
+    Zipfian(double theta) {
+        if (!(theta > 0 && theta < 1)) {
+            throw new IllegalArgumentException("Zipfian theta must be in (0, 1), got " + theta);
+        }
+        this.theta = theta;
+        this.alpha = 1 / (1 - theta);
+        this.zeta2 = zeta(0, 2, 0);
+        this.rankOneLimit = 1 + Math.pow(0.5, theta);
+    }
+
+    double getTheta() {
+        return theta;
+    }
+
+    /**
+     * @param n The number of ranks. At least 1.
+     * @return A rank in {@code [0, n)}.
+     */
+    long next(long n) {
+        State s = state.get();
+        if (s == null || s.n != n) {
+            // threads may disagree on n by a few keys, so move from the last snapshot in either direction
+            if (s == null) {
+                s = new State(n, zeta(0, n, 0));
+            } else if (n > s.n) {
+                s = new State(n, zeta(s.n, n, s.zetan));
+            } else {
+                s = new State(n, s.zetan - zeta(n, s.n, 0));
+            }
+            state.set(s);
+        }
+
+        double u = ThreadLocalRandom.current().nextDouble();
+        double uz = u * s.zetan;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < rankOneLimit) {
+            return Math.min(1, n - 1);
+        }
+        return Math.min(n - 1, (long) (n * Math.pow(s.eta * u - s.eta + 1, alpha)));
+    }
+
+    /**
+     * @return {@code base + sum(i^-theta)} for {@code i} in {@code (from, to]}.
+     */
+    private double zeta(long from, long to, double base) {
+        double sum = base;
+        long exactTo = Math.min(to, from + EXACT_TERMS);
+        for (long i = from + 1; i <= exactTo; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        if (exactTo < to) {
+            // midpoint rule for the tail: sum over (a, b] of i^-theta ~ integral from a + 1/2 to b + 1/2
+            double a = exactTo + 0.5;
+            double b = to + 0.5;
+            sum += (Math.pow(b, 1 - theta) - Math.pow(a, 1 - theta)) / (1 - theta);
+        }
+        return sum;
+    }
+
+    private class State {
+        final long n;
+        final double zetan;
+        final double eta;
+
+        State(long n, double zetan) {
+            this.n = n;
+            this.zetan = zetan;
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+    }
+}
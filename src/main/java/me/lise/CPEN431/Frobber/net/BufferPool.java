@@ -0,0 +1,83 @@
+package me.lise.CPEN431.Frobber.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable byte buffers in power-of-two size classes.
+ *
+ * Buffers are only allocated while the pool is warming up to the peak number in use; after that, acquiring and
+ * releasing a buffer allocates nothing. Requests larger than the largest size class get a one-off buffer that is
+ * not pooled.
+ */
+public class BufferPool {
+    private static final int MIN_SHIFT = 8;  // smallest class is 256 B
+
+    private final int maxShift;
+    private final boolean direct;
+    private final List<ArrayBlockingQueue<ByteBuffer>> classes;
+    private final AtomicLong allocations = new AtomicLong(0);
+
+    /**
+     * @param maxSize The largest buffer size to pool. Rounded up to a power of two.
+     * @param buffersPerClass The most idle buffers kept per size class.
+     * @param direct Whether to allocate direct buffers, which the channel can send from without an extra copy.
+     */
+    public BufferPool(int maxSize, int buffersPerClass, boolean direct) {
+        this.maxShift = Math.max(MIN_SHIFT, shiftFor(maxSize));
+        this.direct = direct;
+        this.classes = new ArrayList<>(maxShift - MIN_SHIFT + 1);
+        for (int shift = MIN_SHIFT; shift <= maxShift; shift++) {
+            classes.add(new ArrayBlockingQueue<>(buffersPerClass));
+        }
+    }
+
+    private static int shiftFor(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * Get a cleared buffer with room for at least {@code size} bytes.
+     */
+    public ByteBuffer acquire(int size) {
+        int shift = Math.max(MIN_SHIFT, shiftFor(size));
+        if (shift > maxShift) {
+            allocations.incrementAndGet();
+            return ByteBuffer.allocate(size);
+        }
+
+        ByteBuffer buf = classes.get(shift - MIN_SHIFT).poll();
+        if (buf == null) {
+            allocations.incrementAndGet();
+            buf = direct ? ByteBuffer.allocateDirect(1 << shift) : ByteBuffer.allocate(1 << shift);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire(int)}. The caller must not touch it afterwards.
+     */
+    public void release(ByteBuffer buf) {
+        int capacity = buf.capacity();
+        if (Integer.bitCount(capacity) != 1) {
+            return;  // one-off oversized buffer
+        }
+        int shift = Integer.numberOfTrailingZeros(capacity);
+        if (shift < MIN_SHIFT || shift > maxShift || buf.isDirect() != direct) {
+            return;
+        }
+        // if the class is already full, let this one go to the GC
+        classes.get(shift - MIN_SHIFT).offer(buf);
+    }
+
+    /**
+     * @return How many buffers this pool has had to allocate so far. Stops growing once the pool is warm.
+     */
+    public long getAllocationCount() {
+        return allocations.get();
+    }
+}
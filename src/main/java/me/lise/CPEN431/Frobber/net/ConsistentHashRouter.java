@@ -0,0 +1,108 @@
+package me.lise.CPEN431.Frobber.net;
+
+import com.google.protobuf.ByteString;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sends every request straight to the node that owns its key on a consistent-hash ring, skipping the hop a server
+ * would otherwise make to forward it.
+ *
+ * Every node is placed on the ring at {@code virtualNodes} points, the hashes of names like {@code "host:port#3"},
+ * and owns the keys that hash from just after the previous point up to and including each of its own, wrapping
+ * round at the end. This only finds the true owner if the hash, the names and the number of virtual nodes all match
+ * what the servers use.
+ */
+public class ConsistentHashRouter implements Router {
+    /** Host, port and virtual node index */
+    public static final String DEFAULT_NAME_FORMAT = "%s:%d#%d";
+
+    private final List<InetSocketAddress> nodes;
+    private final int virtualNodes;
+    private final KeyHash hash;
+    /** Ring points in ascending order, and the node each belongs to */
+    private final long[] points;
+    private final InetSocketAddress[] owners;
+
+    public ConsistentHashRouter(List<InetSocketAddress> nodes, int virtualNodes, KeyHash hash) {
+        this(nodes, virtualNodes, hash, DEFAULT_NAME_FORMAT);
+    }
+
+    /**
+     * @param nodes Every node in the cluster.
+     * @param virtualNodes Ring points per node.
+     * @param hash Hashes keys and virtual node names alike.
+     * @param nameFormat Names a virtual node from its host string, port and index, as for {@link String#format}.
+     */
+    public ConsistentHashRouter(List<InetSocketAddress> nodes, int virtualNodes, KeyHash hash, String nameFormat) {
+        if (nodes.isEmpty() || virtualNodes < 1) {
+            throw new IllegalArgumentException(String.format("Can't build a ring of %d nodes with %d points each",
+                    nodes.size(), virtualNodes));
+        }
+        this.nodes = nodes;
+        this.virtualNodes = virtualNodes;
+        this.hash = hash;
+
+        int size = nodes.size() * virtualNodes;
+        long[][] ring = new long[size][];
+        for (int n = 0; n < nodes.size(); n++) {
+            InetSocketAddress node = nodes.get(n);
+            for (int v = 0; v < virtualNodes; v++) {
+                String name = String.format(nameFormat, node.getHostString(), node.getPort(), v);
+                ring[n * virtualNodes + v] = new long[] {hash.hash(name.getBytes(StandardCharsets.UTF_8)), n};
+            }
+        }
+        // ties go to the earlier node, so every client builds the same ring
+        Arrays.sort(ring, Comparator.<long[]>comparingLong(point -> point[0]).thenComparingLong(point -> point[1]));
+
+        this.points = new long[size];
+        this.owners = new InetSocketAddress[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = ring[i][0];
+            owners[i] = nodes.get((int) ring[i][1]);
+        }
+    }
+
+    @Override
+    public InetSocketAddress route(ByteString key) {
+        long point = hash.hash(key.toByteArray());
+        int i = Arrays.binarySearch(points, point);
+        if (i < 0) {
+            i = -i - 1;  // the first point after the key
+        } else {
+            // binarySearch finds any one of equal points; the owner is the first
+            while (i > 0 && points[i - 1] == point) {
+                i--;
+            }
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * @return The share of the ring each node owns, in the order the nodes were given. A node's share is roughly the
+     * share of keys it will get.
+     */
+    public double[] getOwnership() {
+        double[] shares = new double[nodes.size()];
+        if (points.length == 1) {
+            shares[0] = 1;
+            return shares;
+        }
+        for (int i = 0; i < points.length; i++) {
+            // the arc back to the previous point, as an unsigned 64-bit distance
+            long arc = points[i] - points[i == 0 ? points.length - 1 : i - 1];
+            shares[nodes.indexOf(owners[i])] += (arc >>> 11) * 0x1.0p-53;
+        }
+        return shares;
+    }
+
+    @Override
+    public String format() {
+        return String.format("consistent hash over %d nodes, %d points each, %s", nodes.size(), virtualNodes,
+                hash instanceof Enum ? ((Enum<?>) hash).name() : hash.getClass().getName());
+    }
+}
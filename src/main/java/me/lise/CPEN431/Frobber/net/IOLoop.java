@@ -0,0 +1,206 @@
+package me.lise.CPEN431.Frobber.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single selector thread that receives replies and drives retransmissions for any number of
+ * {@link PipelinedTransport}s.
+ *
+ * Retransmit deadlines for every request in flight on the loop live in one {@link TimingWheel}, so the cost of
+ * keeping track of them doesn't grow with the number of outstanding requests.
+ *
+ * If the selector fails, the loop stops and fails every request on its transports with the error, so callers see it
+ * instead of a wait for replies that can no longer arrive.
+ */
+public class IOLoop implements Closeable {
+    /** How long the loop sleeps in select() when no timers are pending */
+    private static final long MAX_SELECT_MS = 10;
+
+    /** Timer resolution, and the number of slots in the wheel (so one revolution is ~1 s) */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int WHEEL_SIZE = 1024;
+
+    private static IOLoop shared;
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<PipelinedTransport> registrations = new ConcurrentLinkedQueue<>();
+    private final Set<PipelinedTransport> transports = ConcurrentHashMap.newKeySet();
+    private final TimingWheel wheel = new TimingWheel(TICK_NANOS, WHEEL_SIZE, System.nanoTime());
+    /** Timers started from other threads, waiting to be put on the wheel by the loop thread */
+    private final Queue<PendingRequest> timerHandoff = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+    /** Why the loop stopped by itself, or null */
+    private volatile IOException failure = null;
+    /** Set while the loop is in a long select() with no timers to watch */
+    private volatile boolean idle = false;
+
+    /**
+     * @return The process-wide loop used by transports that weren't given one explicitly.
+     */
+    public static synchronized IOLoop shared() throws IOException {
+        if (shared == null) {
+            shared = new IOLoop("frobber-io");
+        }
+        return shared;
+    }
+
+    /**
+     * Start a new loop on its own daemon thread.
+     * @param name The thread name.
+     * @throws IOException if the selector could not be opened.
+     */
+    public IOLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return The number of transports currently served by this loop.
+     */
+    public int getTransportCount() {
+        return transports.size() + registrations.size();
+    }
+
+    /**
+     * Start serving a transport. The channel is registered from the loop thread, since registering while another
+     * thread sits in select() would block.
+     */
+    void register(PipelinedTransport transport) {
+        registrations.add(transport);
+        selector.wakeup();
+        IOException failure = this.failure;
+        if (failure != null) {
+            // the loop will never get to it
+            transport.fail(failure);
+        }
+    }
+
+    /**
+     * Start the retransmit timer of a request that was just sent, due at its {@code deadline}.
+     */
+    void schedule(PendingRequest pending) {
+        if (Thread.currentThread() == thread) {
+            wheel.schedule(pending);
+        } else {
+            timerHandoff.add(pending);
+            if (idle) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Stop the timer of a request that got its reply. Only called on the loop thread.
+     */
+    void cancel(PendingRequest pending) {
+        wheel.cancel(pending);
+    }
+
+    void deregister(PipelinedTransport transport) {
+        transports.remove(transport);
+        // closing the channel cancels its key; the selector drops it on the next select()
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                PipelinedTransport transport;
+                while ((transport = registrations.poll()) != null) {
+                    try {
+                        transport.getChannel().register(selector, SelectionKey.OP_READ, transport);
+                        transports.add(transport);
+                    } catch (ClosedChannelException e) {
+                        // closed before we got to it
+                    }
+                }
+
+                PendingRequest pending;
+                while ((pending = timerHandoff.poll()) != null) {
+                    // the reply may have beaten us to it
+                    if (!pending.isDone()) {
+                        wheel.schedule(pending);
+                    }
+                }
+
+                long now = System.nanoTime();
+                wheel.advance(now);
+
+                if (wheel.size() > 0) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wheel.nanosUntilNextTick(now))));
+                } else {
+                    idle = true;
+                    if (timerHandoff.isEmpty()) {
+                        selector.select(MAX_SELECT_MS);
+                    }
+                    idle = false;
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (key.isValid()) {
+                        ((PipelinedTransport) key.attachment()).drainReplies();
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch (IOException e) {
+                if (running) {
+                    // a broken selector stays broken, so retrying would only spin
+                    fail(new IOException("I/O loop " + thread.getName() + " failed: " + e.getMessage(), e));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop the loop for good, failing every transport it serves or was about to. Only called on the loop thread.
+     */
+    private void fail(IOException cause) {
+        failure = cause;
+        running = false;
+        synchronized (IOLoop.class) {
+            if (shared == this) {
+                shared = null;  // transports opened from now on get a working loop
+            }
+        }
+
+        PipelinedTransport transport;
+        while ((transport = registrations.poll()) != null) {
+            transport.fail(cause);
+        }
+        for (PipelinedTransport served : transports) {
+            served.fail(cause);
+        }
+        transports.clear();
+    }
+
+    /**
+     * Stop the loop thread. Transports still registered are not closed.
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // nothing useful to do here
+        }
+    }
+}
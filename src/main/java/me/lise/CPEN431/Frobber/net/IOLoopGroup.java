@@ -0,0 +1,69 @@
+package me.lise.CPEN431.Frobber.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of {@link IOLoop}s, each serving a few {@link PipelinedTransport}s.
+ *
+ * Thousands of logical clients can be spread over the transports with {@link #nextTransport()}: each client only
+ * needs a transport to send on, not a thread or socket of its own.
+ */
+public class IOLoopGroup implements Closeable {
+    private final IOLoop[] loops;
+    private final PipelinedTransport[] transports;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    /**
+     * Start the loops and open their channels.
+     * @param numLoops The number of selector threads.
+     * @param channelsPerLoop The number of channels each selector thread owns.
+     * @param windowPerChannel The in-flight limit of each channel.
+     * @throws IOException if a selector or channel could not be opened.
+     */
+    public IOLoopGroup(int numLoops, int channelsPerLoop, int windowPerChannel) throws IOException {
+        this.loops = new IOLoop[numLoops];
+        this.transports = new PipelinedTransport[numLoops * channelsPerLoop];
+        for (int i = 0; i < numLoops; i++) {
+            loops[i] = new IOLoop("frobber-reactor-" + i);
+            for (int j = 0; j < channelsPerLoop; j++) {
+                transports[i * channelsPerLoop + j] = new PipelinedTransport(loops[i], windowPerChannel);
+            }
+        }
+    }
+
+    /**
+     * @return The transports in round-robin order, so consecutive callers land on different loops.
+     */
+    public PipelinedTransport nextTransport() {
+        int i = Math.floorMod(next.getAndIncrement(), transports.length);
+        // interleave loops first: transport k of loop 0, then transport k of loop 1, ...
+        int channelsPerLoop = transports.length / loops.length;
+        return transports[(i % loops.length) * channelsPerLoop + (i / loops.length) % channelsPerLoop];
+    }
+
+    /**
+     * @return The total number of channels in the group.
+     */
+    public int getChannelCount() {
+        return transports.length;
+    }
+
+    /**
+     * @return The number of selector threads in the group.
+     */
+    public int getLoopCount() {
+        return loops.length;
+    }
+
+    @Override
+    public void close() {
+        for (PipelinedTransport transport : transports) {
+            transport.close();
+        }
+        for (IOLoop loop : loops) {
+            loop.close();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package me.lise.CPEN431.Frobber.net;
+
+/**
+ * Hash from a key's bytes to a point on a {@link ConsistentHashRouter}'s ring.
+ *
+ * Routing straight to the node that owns a key only works if the client hashes keys and node names exactly as the
+ * servers do, so the server's own function can be plugged in here; {@link KeyHashes} has the common ones.
+ */
+public interface KeyHash {
+    /**
+     * @param bytes A key, or the name of a virtual node.
+     * @return The point on the ring, compared as a signed long.
+     */
+    long hash(byte[] bytes);
+}
@@ -0,0 +1,74 @@
+package me.lise.CPEN431.Frobber.net;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Hash functions servers commonly place keys with.
+ */
+public enum KeyHashes implements KeyHash {
+    /** 64-bit FNV-1a */
+    FNV1A_64 {
+        @Override
+        public long hash(byte[] bytes) {
+            long hash = FNV_OFFSET_BASIS;
+            for (byte b : bytes) {
+                hash ^= b & 0xff;
+                hash *= FNV_PRIME;
+            }
+            return hash;
+        }
+    },
+    /** The first 8 bytes of the MD5 digest, big-endian */
+    MD5 {
+        @Override
+        public long hash(byte[] bytes) {
+            MessageDigest md5 = MD5_DIGESTS.get();
+            byte[] digest = md5.digest(bytes);
+            long hash = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        }
+    },
+    /** {@link Arrays#hashCode(byte[])}, as a server hashing the key's byte array directly would */
+    ARRAYS_HASH_CODE {
+        @Override
+        public long hash(byte[] bytes) {
+            return Arrays.hashCode(bytes);
+        }
+    };
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** {@link MessageDigest} isn't thread-safe, and creating one per key is slow */
+    private static final ThreadLocal<MessageDigest> MD5_DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has to have MD5
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * @param name One of these constants, or the name of a class implementing {@link KeyHash} with a no-argument
+     *             constructor, e.g. the server's own.
+     * @throws IllegalArgumentException if there is no such hash.
+     */
+    public static KeyHash forName(String name) {
+        for (KeyHashes hash : values()) {
+            if (hash.name().equalsIgnoreCase(name)) {
+                return hash;
+            }
+        }
+        try {
+            return Class.forName(name).asSubclass(KeyHash.class).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("No key hash called " + name, e);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package me.lise.CPEN431.Frobber.net;
+
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds back sends to one node after it answers with {@code OVERLOAD}, for as long as the reply's
+ * {@code overloadWaitTime} asks.
+ *
+ * Every transport sending to the same host:port shares one pacer, so an overload reply seen by one client pauses
+ * all of them. Requests that were overloaded are sent again with a new message ID once the pause is over, instead
+ * of being handed back to the caller as failures.
+ *
+ * Time spent held back is counted separately from the time requests spend on the wire, so a server that sheds load
+ * isn't charged for the wait it asked for.
+ */
+public class OverloadPacer {
+    /** {@code ErrCode.OVERLOAD} */
+    public static final int OVERLOAD = 0x3;
+
+    /** Pause used when an overload reply doesn't say how long to wait */
+    private static final long DEFAULT_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final ConcurrentMap<InetSocketAddress, OverloadPacer> nodes = new ConcurrentHashMap<>();
+
+    private final InetSocketAddress node;
+    /** {@link System#nanoTime()} before which nothing new may be sent to the node */
+    private final AtomicLong resumeAt = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong overloads = new AtomicLong(0);
+    private final AtomicLong heldRequests = new AtomicLong(0);
+    private final AtomicLong backoffNanos = new AtomicLong(0);
+    private final AtomicLong completed = new AtomicLong(0);
+    private final AtomicLong latencyNanos = new AtomicLong(0);
+
+    /**
+     * @return The pacer shared by everything that sends to {@code node}.
+     */
+    public static OverloadPacer forNode(InetSocketAddress node) {
+        OverloadPacer pacer = nodes.get(node);
+        if (pacer == null) {
+            pacer = nodes.computeIfAbsent(node, OverloadPacer::new);
+        }
+        return pacer;
+    }
+
+    /**
+     * @return The pacers of every node contacted so far.
+     */
+    public static Collection<OverloadPacer> all() {
+        return nodes.values();
+    }
+
+    private OverloadPacer(InetSocketAddress node) {
+        this.node = node;
+    }
+
+    public InetSocketAddress getNode() {
+        return node;
+    }
+
+    /**
+     * @return When sends to the node may resume, as a {@link System#nanoTime()}. In the past if they already can.
+     */
+    long getResumeAt() {
+        return resumeAt.get();
+    }
+
+    /**
+     * The node answered {@code OVERLOAD}; pause new sends until {@code waitMillis} from now, unless an earlier reply
+     * already asked for a longer pause.
+     * @param waitMillis The reply's {@code overloadWaitTime}, or a negative number if it had none.
+     * @return The time sends may resume.
+     */
+    long onOverload(long now, int waitMillis) {
+        overloads.incrementAndGet();
+        long wait = waitMillis < 0 ? DEFAULT_WAIT_NANOS : TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        long until = now + wait;
+        return resumeAt.accumulateAndGet(until, Math::max);
+    }
+
+    /**
+     * A request was held back for {@code nanos} before being sent.
+     */
+    void onHeld(long nanos) {
+        heldRequests.incrementAndGet();
+        backoffNanos.addAndGet(nanos);
+    }
+
+    /**
+     * A request got its final reply after {@code nanos} spent on the wire, not counting time held back.
+     */
+    void onCompleted(long nanos) {
+        completed.incrementAndGet();
+        latencyNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @return The number of {@code OVERLOAD} replies received.
+     */
+    public long getOverloads() {
+        return overloads.get();
+    }
+
+    /**
+     * @return The number of times a request was held back by a pause.
+     */
+    public long getHeldRequests() {
+        return heldRequests.get();
+    }
+
+    /**
+     * @return The total time requests spent held back, summed over requests.
+     */
+    public long getBackoffNanos() {
+        return backoffNanos.get();
+    }
+
+    /**
+     * @return The number of requests that got a final reply.
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return The total time completed requests spent waiting for replies, excluding time held back.
+     */
+    public long getLatencyNanos() {
+        return latencyNanos.get();
+    }
+
+    /**
+     * @return A one-line summary of overloads and how much they held requests back.
+     */
+    public String format() {
+        long done = completed.get();
+        long held = heldRequests.get();
+        return String.format("%s:%d overloads=%d held=%d backoff=%.3f ms (%.3f ms avg) latency=%.3f ms avg",
+                node.getHostString(), node.getPort(), overloads.get(), held, backoffNanos.get() * 1e-6,
+                held == 0 ? 0 : backoffNanos.get() * 1e-6 / held,
+                done == 0 ? 0 : latencyNanos.get() * 1e-6 / done);
+    }
+}
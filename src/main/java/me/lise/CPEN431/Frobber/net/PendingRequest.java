@@ -0,0 +1,67 @@
+package me.lise.CPEN431.Frobber.net;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
+import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A request that has been handed to a {@link PipelinedTransport} and is waiting for its reply.
+ *
+ * Completes with the response, or with {@code null} if every retry timed out, or exceptionally if the reply could
+ * not be parsed. Completion happens on the {@link IOLoop} thread, so dependent stages should not block.
+ */
+public class PendingRequest extends CompletableFuture<KVResponse> {
+    final PipelinedTransport transport;
+    final KVRequest request;
+    final InetSocketAddress target;
+
+    // set when the request gets a window slot and is encoded
+    long sequence;
+    ByteBuffer wire;
+
+    // overload pacing: time spent held back is kept apart from time on the wire
+    OverloadPacer pacer;
+    long startedAt;
+    boolean held = false;
+    long heldSince;
+    long backoffNanos = 0;
+    int overloads = 0;
+
+    // retransmission state, set before the request is put in flight and only touched by the I/O loop after that
+    RttEstimator rtt;
+    long rttEpoch;
+    long sentAt;
+    int tries = 0;
+    long timeoutNanos;
+    long deadline;
+
+    // links in the loop's TimingWheel
+    PendingRequest timerNext;
+    PendingRequest timerPrev;
+    long timerTick;
+    boolean timerScheduled = false;
+
+    PendingRequest(PipelinedTransport transport, KVRequest request, InetSocketAddress target) {
+        this.transport = transport;
+        this.request = request;
+        this.target = target;
+    }
+
+    /**
+     * @return The {@link System#nanoTime()} at which the request got a window slot and was handed to the node (or
+     * held back for it). Valid once the request has started.
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return How long this request was held back by {@code OVERLOAD} pauses. Final once the request completes.
+     */
+    public long getBackoffNanos() {
+        return backoffNanos;
+    }
+}
@@ -0,0 +1,411 @@
+package me.lise.CPEN431.Frobber.net;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
+import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
+import me.lise.CPEN431.Frobber.util.MessageDecoder;
+import me.lise.CPEN431.Frobber.util.MessageEncoder;
+import me.lise.CPEN431.Frobber.util.MessageIdGenerator;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Non-blocking UDP transport that keeps up to {@code windowSize} requests in flight at once.
+ *
+ * Replies are matched back to their request by message ID, so they can arrive in any order. Receiving and
+ * retransmission are driven by an {@link IOLoop}, which can be shared by many transports. Requests submitted
+ * while the window is full wait in a backlog and are sent as soon as a slot frees up, so {@link #submit} never
+ * blocks.
+ *
+ * A node that answers {@code OVERLOAD} is left alone for the wait time it asked for (see {@link OverloadPacer}), and
+ * the overloaded request is sent again afterwards rather than failed.
+ */
+public class PipelinedTransport implements Closeable {
+    private static final int MAX_TRIES = 4;  // initial try + 3 retries
+
+    /** After this many OVERLOAD replies to one request, the caller gets the last one */
+    private static final int MAX_OVERLOADS = 10;
+
+    /** The largest possible response is 10000 B (max value size) + header + 5 ints + some extra Bs to be safe */
+    private static final int MAX_PAYLOAD = 10100;
+
+    /** Outgoing messages up to this size are serialized into pooled buffers */
+    private static final int MAX_POOLED_REQUEST = 16384;
+
+    private final IOLoop loop;
+    private final DatagramChannel channel;
+    private final Semaphore window;
+    private final Map<Long, PendingRequest> inFlight = new ConcurrentHashMap<>();
+    private final Queue<PendingRequest> backlog = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_PAYLOAD);
+    private final BufferPool sendBuffers;
+    private final MessageDecoder decoder = new MessageDecoder();
+    private final MessageIdGenerator ids;
+
+    private volatile boolean running = true;
+
+    /**
+     * Open a transport on an ephemeral local port, served by the shared {@link IOLoop}.
+     * @param windowSize The maximum number of requests that may be outstanding at once.
+     * @throws IOException if the channel could not be opened.
+     */
+    public PipelinedTransport(int windowSize) throws IOException {
+        this(IOLoop.shared(), windowSize);
+    }
+
+    /**
+     * Open a transport on an ephemeral local port.
+     * @param loop The loop that receives replies and handles retransmissions for this transport.
+     * @param windowSize The maximum number of requests that may be outstanding at once.
+     * @throws IOException if the channel could not be opened.
+     */
+    public PipelinedTransport(IOLoop loop, int windowSize) throws IOException {
+        this.loop = loop;
+        this.channel = DatagramChannel.open();
+        this.channel.bind(null);
+        this.channel.configureBlocking(false);
+        this.window = new Semaphore(windowSize);
+        // a buffer is held from submit until completion, so the peak usage per size class is the window
+        this.sendBuffers = new BufferPool(MAX_POOLED_REQUEST, windowSize, true);
+        this.ids = new MessageIdGenerator(getLocalPort());
+        loop.register(this);
+    }
+
+    DatagramChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return The local port this transport sends from.
+     */
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * @return How many send buffers this transport has allocated. Flat once the pool has warmed up.
+     */
+    public long getBufferAllocationCount() {
+        return sendBuffers.getAllocationCount();
+    }
+
+    /**
+     * @return The number of requests currently waiting for a reply.
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Send a request without waiting for its reply. If the window is full, the request is queued and sent when
+     * an earlier one completes.
+     * @param target The node to send to.
+     * @param request The request to send.
+     * @return A future that completes with the reply, or with {@code null} once all retries have timed out. If the
+     * transport is closed or the send fails, it completes exceptionally.
+     */
+    public PendingRequest submit(InetSocketAddress target, KVRequest request) {
+        PendingRequest pending = new PendingRequest(this, request, target);
+        if (!running) {
+            pending.completeExceptionally(new IOException("Transport is closed"));
+            return pending;
+        }
+
+        if (window.tryAcquire()) {
+            start(pending);
+        } else {
+            backlog.add(pending);
+            // a slot may have freed up between the failed tryAcquire and the add
+            drainBacklog();
+        }
+        return pending;
+    }
+
+    /**
+     * Start a request that already holds a window slot. The message is only encoded now, so queued requests don't
+     * hold on to a send buffer. It is encoded straight into a pooled buffer, and every retransmit resends those same
+     * bytes. If the node has asked us to back off, the request is held until the pause is over.
+     *
+     * This runs on the caller's thread, and the {@link IOLoop} thread may match a reply to the request as soon as
+     * it is in {@code inFlight}. So everything the loop reads is set before the put, which publishes it.
+     */
+    private void start(PendingRequest pending) {
+        pending.wire = sendBuffers.acquire(MessageEncoder.encodedSize(pending.request, MessageIdGenerator.ID_LENGTH));
+        encode(pending);
+        pending.rtt = RttEstimator.forNode(pending.target);
+        pending.pacer = OverloadPacer.forNode(pending.target);
+        pending.startedAt = System.nanoTime();
+
+        long resumeAt = pending.pacer.getResumeAt();
+        boolean paused = resumeAt - pending.startedAt > 0;
+        if (paused) {
+            markHeld(pending, pending.startedAt, resumeAt);
+        } else {
+            markSent(pending, pending.startedAt);
+        }
+        inFlight.put(pending.sequence, pending);
+
+        if (paused) {
+            loop.schedule(pending);
+        } else {
+            transmitFirst(pending);
+        }
+    }
+
+    /**
+     * Encode the request into its send buffer under a new message ID.
+     */
+    private void encode(PendingRequest pending) {
+        pending.wire.clear();
+        pending.sequence = MessageEncoder.encode(pending.wire, ids, pending.request);
+        pending.wire.flip();
+    }
+
+    /**
+     * Park a request on the timer until {@code resumeAt}, when {@link #onTimeout} sends it.
+     */
+    private void hold(PendingRequest pending, long now, long resumeAt) {
+        markHeld(pending, now, resumeAt);
+        loop.schedule(pending);
+    }
+
+    private static void markHeld(PendingRequest pending, long now, long resumeAt) {
+        pending.held = true;
+        pending.heldSince = now;
+        pending.deadline = resumeAt;
+    }
+
+    /**
+     * First transmission of an encoded request, with a timeout taken from the node's RTT estimate.
+     */
+    private void send(PendingRequest pending, long now) {
+        markSent(pending, now);
+        transmitFirst(pending);
+    }
+
+    /**
+     * Set up the retransmission state of a first transmission at {@code now}, without sending anything yet.
+     */
+    private static void markSent(PendingRequest pending, long now) {
+        pending.timeoutNanos = pending.rtt.getRtoNanos();
+        pending.sentAt = now;
+        pending.deadline = pending.sentAt + pending.timeoutNanos;
+        pending.tries = 1;
+        pending.rttEpoch = pending.rtt.onTransmit();
+    }
+
+    private void transmitFirst(PendingRequest pending) {
+        try {
+            transmit(pending);
+        } catch (IOException e) {
+            if (inFlight.remove(pending.sequence) != null) {
+                release(pending);
+                pending.completeExceptionally(e);
+            }
+            return;
+        }
+        loop.schedule(pending);
+    }
+
+    private void transmit(PendingRequest pending) throws IOException {
+        // sends of one request never overlap (retransmits are at least the minimum RTO apart), so rewinding the
+        // shared buffer is safe
+        pending.wire.rewind();
+        // a full send buffer drops the datagram, which the retransmit timer will take care of
+        channel.send(pending.wire, pending.target);
+    }
+
+    /**
+     * Give back a finished request's window slot and send buffer, and use the slot for the next queued request.
+     */
+    private void release(PendingRequest pending) {
+        sendBuffers.release(pending.wire);
+        window.release();
+        drainBacklog();
+    }
+
+    private void drainBacklog() {
+        while (!backlog.isEmpty() && window.tryAcquire()) {
+            PendingRequest next = backlog.poll();
+            if (next == null) {
+                window.release();
+                return;
+            }
+            if (!running) {
+                window.release();
+                next.completeExceptionally(new IOException("Transport is closed"));
+                continue;
+            }
+            start(next);
+        }
+    }
+
+    /**
+     * Read every datagram currently queued on the channel and complete the matching requests. Called by the
+     * {@link IOLoop} thread.
+     */
+    void drainReplies() {
+        while (running) {
+            receiveBuffer.clear();
+            try {
+                if (channel.receive(receiveBuffer) == null) {
+                    return;
+                }
+            } catch (IOException e) {
+                return;
+            }
+            receiveBuffer.flip();
+
+            // Locate the fields in place and verify the checksum over the received bytes
+            if (!decoder.decodeMessage(receiveBuffer) || !decoder.isChecksumValid()) {
+                // corrupted or garbage reply; the retransmit timer will cover for it
+                continue;
+            }
+
+            long sequence = decoder.getSequence(ids);
+            PendingRequest pending = sequence < 0 ? null : inFlight.remove(sequence);
+            if (pending == null) {
+                // duplicate reply to a retransmission, or a reply for something we already gave up on
+                continue;
+            }
+            loop.cancel(pending);
+            if (pending.tries == 1) {
+                // Karn's algorithm: a reply to a retransmitted request can't be timed
+                pending.rtt.onSample(System.nanoTime() - pending.sentAt, pending.rttEpoch);
+            }
+
+            boolean decoded = decoder.decodeResponse();
+            if (decoded && decoder.getErrCode() == OverloadPacer.OVERLOAD && pending.overloads < MAX_OVERLOADS) {
+                // pause the node for everyone, then come back with a new ID, since the node may have cached this
+                // reply against the old one
+                long now = System.nanoTime();
+                pending.overloads++;
+                long resumeAt = pending.pacer.onOverload(now,
+                        decoder.hasOverloadWaitTime() ? decoder.getOverloadWaitTime() : -1);
+                encode(pending);
+                inFlight.put(pending.sequence, pending);
+                hold(pending, now, resumeAt);
+                continue;
+            }
+
+            pending.pacer.onCompleted(System.nanoTime() - pending.startedAt - pending.backoffNanos);
+            release(pending);
+            if (decoded) {
+                pending.complete(decoder.toResponse());
+            } else {
+                // the checksum matched, so the node did answer: a broken answer is its error, not a timeout
+                pending.completeExceptionally(new InvalidProtocolBufferException(
+                        "Malformed KVResponse from " + pending.target));
+            }
+        }
+    }
+
+    /**
+     * Send a held request, or retransmit or expire a request whose deadline has passed. Called by the
+     * {@link IOLoop} thread when the request's timer fires.
+     * @param now The current {@link System#nanoTime()}.
+     */
+    void onTimeout(PendingRequest pending, long now) {
+        if (inFlight.get(pending.sequence) != pending) {
+            return;  // completed in the meantime
+        }
+
+        if (pending.held) {
+            long resumeAt = pending.pacer.getResumeAt();
+            if (resumeAt - now > 0) {
+                // another overload reply extended the pause
+                pending.deadline = resumeAt;
+                loop.schedule(pending);
+                return;
+            }
+            pending.held = false;
+            long heldFor = now - pending.heldSince;
+            pending.backoffNanos += heldFor;
+            pending.pacer.onHeld(heldFor);
+            send(pending, now);
+            return;
+        }
+
+        if (pending.tries >= MAX_TRIES) {
+            if (inFlight.remove(pending.sequence) != null) {
+                pending.rtt.onExpired();
+                release(pending);
+                pending.complete(null);
+            }
+            return;
+        }
+
+        if (pending.tries == 1) {
+            pending.rtt.onFirstTimeout(pending.rttEpoch);
+        }
+        pending.tries++;
+        pending.timeoutNanos = RttEstimator.backoff(pending.timeoutNanos);
+        pending.deadline = now + pending.timeoutNanos;
+        pending.rtt.onRetransmit();
+        try {
+            transmit(pending);
+        } catch (IOException e) {
+            // treat it like a dropped packet
+        }
+        loop.schedule(pending);
+    }
+
+    /**
+     * Close the channel. Requests still in flight complete with no response, as if they had timed out; queued ones
+     * were never sent, so they complete exceptionally.
+     */
+    @Override
+    public void close() {
+        running = false;
+        loop.deregister(this);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing useful to do here
+        }
+
+        for (PendingRequest pending : inFlight.values()) {
+            pending.complete(null);
+        }
+        inFlight.clear();
+
+        PendingRequest queued;
+        while ((queued = backlog.poll()) != null) {
+            // never started, so it has no send time a latency could be measured from
+            queued.completeExceptionally(new IOException("Transport is closed"));
+        }
+    }
+
+    /**
+     * Close the channel because its {@link IOLoop} has stopped, so nothing sent on it would be answered or retried
+     * again. Requests still in flight or queued complete exceptionally with {@code cause}.
+     */
+    void fail(IOException cause) {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing useful to do here
+        }
+
+        for (PendingRequest pending : inFlight.values()) {
+            pending.completeExceptionally(cause);
+        }
+        inFlight.clear();
+
+        PendingRequest queued;
+        while ((queued = backlog.poll()) != null) {
+            queued.completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package me.lise.CPEN431.Frobber.net;
+
+import com.google.protobuf.ByteString;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends every request to a node picked uniformly at random, leaving it to the servers to forward the request to
+ * whichever node owns the key.
+ */
+public class RandomRouter implements Router {
+    private final InetSocketAddress[] nodes;
+
+    public RandomRouter(List<InetSocketAddress> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("No nodes to route to");
+        }
+        this.nodes = nodes.toArray(new InetSocketAddress[0]);
+    }
+
+    @Override
+    public InetSocketAddress route(ByteString key) {
+        return nodes[ThreadLocalRandom.current().nextInt(nodes.length)];
+    }
+
+    @Override
+    public String format() {
+        return String.format("random over %d nodes", nodes.length);
+    }
+}
@@ -0,0 +1,20 @@
+package me.lise.CPEN431.Frobber.net;
+
+import com.google.protobuf.ByteString;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Picks which node a client sends a key's request to.
+ */
+public interface Router {
+    /**
+     * @return The node to send requests for {@code key} to. Must be thread-safe.
+     */
+    InetSocketAddress route(ByteString key);
+
+    /**
+     * @return A short description for reports, e.g. {@code "random over 5 nodes"}.
+     */
+    String format();
+}
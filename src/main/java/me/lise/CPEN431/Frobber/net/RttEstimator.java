@@ -0,0 +1,221 @@
+package me.lise.CPEN431.Frobber.net;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Smoothed round-trip time and retransmission timeout for one node, in the style of RFC 6298.
+ *
+ * Every transport sending to the same host:port shares one estimator, so all clients learn from each other's
+ * samples. Only replies to requests that were sent exactly once are sampled (Karn's algorithm), since a reply to a
+ * retransmitted request can't be matched to a particular send. Retransmissions back off by doubling the RTO.
+ *
+ * Karn's rule alone would only ever see the requests that beat the current RTO, so under heavy queueing the
+ * estimate would stay low and retries would snowball. Instead, when a first transmission times out the shared RTO
+ * itself is doubled and a new epoch starts; samples from requests sent in an earlier epoch are ignored, so the
+ * estimate is rebuilt from requests that were given the longer timeout (RFC 6298, section 5).
+ *
+ * The two calls made on the sending thread, {@link #getRtoNanos()} and {@link #onTransmit()}, don't take the lock, so
+ * thousands of (possibly virtual) client threads sending to one node never queue on its monitor; only the I/O loop
+ * threads do.
+ */
+public class RttEstimator {
+    /** RTO used before the first sample arrives */
+    private static final long INITIAL_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MIN_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long MAX_RTO_NANOS = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    /** Smallest gap between two entries in the RTO history, and how many entries are kept */
+    private static final long HISTORY_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int HISTORY_SIZE = 1024;
+
+    private static final ConcurrentMap<InetSocketAddress, RttEstimator> nodes = new ConcurrentHashMap<>();
+
+    private final InetSocketAddress node;
+    private final long createdAt = System.nanoTime();
+
+    private boolean hasSample = false;
+    private long srttNanos;
+    private long rttvarNanos;
+    private volatile long rtoNanos = INITIAL_RTO_NANOS;
+    /** Bumped every time the RTO is backed off */
+    private volatile long epoch = 0;
+
+    private long samples = 0;
+    private final AtomicLong transmissions = new AtomicLong(0);
+    private long retransmissions = 0;
+    private long expired = 0;
+
+    // ring buffer of (time since creation, RTO) pairs
+    private final long[] historyTime = new long[HISTORY_SIZE];
+    private final long[] historyRto = new long[HISTORY_SIZE];
+    private int historyCount = 0;
+    private long lastHistoryAt;
+
+    /**
+     * @return The estimator shared by everything that sends to {@code node}.
+     */
+    public static RttEstimator forNode(InetSocketAddress node) {
+        RttEstimator estimator = nodes.get(node);
+        if (estimator == null) {
+            estimator = nodes.computeIfAbsent(node, RttEstimator::new);
+        }
+        return estimator;
+    }
+
+    /**
+     * @return The estimators of every node contacted so far.
+     */
+    public static Collection<RttEstimator> all() {
+        return nodes.values();
+    }
+
+    private RttEstimator(InetSocketAddress node) {
+        this.node = node;
+        this.lastHistoryAt = createdAt - HISTORY_INTERVAL_NANOS;
+        recordHistory(createdAt);
+    }
+
+    public InetSocketAddress getNode() {
+        return node;
+    }
+
+    /**
+     * @return The timeout for the first transmission of a new request.
+     */
+    public long getRtoNanos() {
+        return rtoNanos;
+    }
+
+    /**
+     * @return The timeout to use after {@code previous} expired.
+     */
+    public static long backoff(long previous) {
+        return Math.min(previous * 2, MAX_RTO_NANOS);
+    }
+
+    /**
+     * Count the first transmission of a request.
+     * @return The current epoch, to be handed back with the request's sample or timeout.
+     */
+    long onTransmit() {
+        transmissions.incrementAndGet();
+        return epoch;
+    }
+
+    /**
+     * A request timed out on its first transmission, so the RTO was too short for it. Back off the shared RTO,
+     * unless another request from the same epoch already did.
+     */
+    synchronized void onFirstTimeout(long sentEpoch) {
+        if (sentEpoch != epoch) {
+            return;
+        }
+        epoch++;
+        rtoNanos = backoff(rtoNanos);
+        recordHistory(System.nanoTime());
+    }
+
+    synchronized void onRetransmit() {
+        retransmissions++;
+    }
+
+    synchronized void onExpired() {
+        expired++;
+    }
+
+    /**
+     * Fold in the round-trip time of a request that was only sent once.
+     * @param sentEpoch The epoch returned by {@link #onTransmit()} when the request was sent.
+     */
+    synchronized void onSample(long rttNanos, long sentEpoch) {
+        if (sentEpoch != epoch) {
+            return;  // sent under an RTO that has been backed off since
+        }
+        if (!hasSample) {
+            srttNanos = rttNanos;
+            rttvarNanos = rttNanos / 2;
+            hasSample = true;
+        } else {
+            // RTTVAR <- 3/4 RTTVAR + 1/4 |SRTT - R|, then SRTT <- 7/8 SRTT + 1/8 R
+            rttvarNanos += (Math.abs(srttNanos - rttNanos) - rttvarNanos) / 4;
+            srttNanos += (rttNanos - srttNanos) / 8;
+        }
+        samples++;
+        rtoNanos = Math.max(MIN_RTO_NANOS, Math.min(MAX_RTO_NANOS, srttNanos + 4 * rttvarNanos));
+        recordHistory(System.nanoTime());
+    }
+
+    private void recordHistory(long now) {
+        if (now - lastHistoryAt < HISTORY_INTERVAL_NANOS) {
+            return;
+        }
+        int i = historyCount % HISTORY_SIZE;
+        historyTime[i] = now - createdAt;
+        historyRto[i] = rtoNanos;
+        historyCount++;
+        lastHistoryAt = now;
+    }
+
+    public synchronized long getSrttNanos() {
+        return srttNanos;
+    }
+
+    public synchronized long getRttvarNanos() {
+        return rttvarNanos;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return The number of first transmissions, i.e. distinct requests sent.
+     */
+    public long getTransmissions() {
+        return transmissions.get();
+    }
+
+    public synchronized long getRetransmissions() {
+        return retransmissions;
+    }
+
+    /**
+     * @return The number of requests that used up every retry without a reply.
+     */
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    /**
+     * @return The RTO over time, as {@code [ms since first contact, RTO in ms]} pairs, oldest first. At most one entry
+     * per 100 ms is kept, and only the most recent 1024.
+     */
+    public synchronized List<double[]> getRtoHistory() {
+        int n = Math.min(historyCount, HISTORY_SIZE);
+        List<double[]> history = new ArrayList<>(n);
+        for (int k = historyCount - n; k < historyCount; k++) {
+            int i = k % HISTORY_SIZE;
+            history.add(new double[] {historyTime[i] * 1e-6, historyRto[i] * 1e-6});
+        }
+        return history;
+    }
+
+    /**
+     * @return A one-line summary of the estimate and how much retries added to the offered load.
+     */
+    public synchronized String format() {
+        long transmissions = this.transmissions.get();
+        double inflation = transmissions == 0 ? 0 : 100.0 * retransmissions / transmissions;
+        return String.format("%s:%d srtt=%.3f ms rttvar=%.3f ms rto=%.3f ms samples=%d sent=%d retransmitted=%d "
+                        + "(+%.2f%% load) expired=%d",
+                node.getHostString(), node.getPort(), srttNanos * 1e-6, rttvarNanos * 1e-6, rtoNanos * 1e-6,
+                samples, transmissions, retransmissions, inflation, expired);
+    }
+}
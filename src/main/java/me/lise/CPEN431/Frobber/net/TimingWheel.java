@@ -0,0 +1,118 @@
+package me.lise.CPEN431.Frobber.net;
+
+/**
+ * Hashed timing wheel holding the retransmit deadlines of every request in flight on one {@link IOLoop}.
+ *
+ * Time is cut into ticks, and a request due at tick {@code t} is linked into slot {@code t mod wheelSize}. Slots are
+ * intrusive doubly-linked lists threaded through the {@link PendingRequest}s themselves, so scheduling and cancelling
+ * are O(1) and allocate nothing. Deadlines more than one revolution away simply stay in their slot until the wheel
+ * comes round to the right tick.
+ *
+ * Not thread-safe: only the loop thread may touch it.
+ */
+class TimingWheel {
+    private final long tickNanos;
+    private final int mask;
+    private final PendingRequest[] slots;
+    private final long origin;
+
+    /** The last tick whose slot has been processed */
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     * @param tickNanos The timer resolution.
+     * @param wheelSize The number of slots. Rounded up to a power of two.
+     * @param now The current {@link System#nanoTime()}.
+     */
+    TimingWheel(long tickNanos, int wheelSize, long now) {
+        int n = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = tickNanos;
+        this.mask = n - 1;
+        this.slots = new PendingRequest[n];
+        this.origin = now;
+    }
+
+    /**
+     * Link a request in at its {@code deadline}. Deadlines in the past fire on the next tick.
+     */
+    void schedule(PendingRequest pending) {
+        if (pending.timerScheduled) {
+            cancel(pending);
+        }
+        long tick = Math.max(currentTick + 1, (pending.deadline - origin + tickNanos - 1) / tickNanos);
+        int slot = (int) (tick & mask);
+
+        pending.timerTick = tick;
+        pending.timerPrev = null;
+        pending.timerNext = slots[slot];
+        if (slots[slot] != null) {
+            slots[slot].timerPrev = pending;
+        }
+        slots[slot] = pending;
+        pending.timerScheduled = true;
+        size++;
+    }
+
+    /**
+     * Unlink a request. Does nothing if it isn't scheduled.
+     */
+    void cancel(PendingRequest pending) {
+        if (!pending.timerScheduled) {
+            return;
+        }
+        if (pending.timerPrev != null) {
+            pending.timerPrev.timerNext = pending.timerNext;
+        } else {
+            slots[(int) (pending.timerTick & mask)] = pending.timerNext;
+        }
+        if (pending.timerNext != null) {
+            pending.timerNext.timerPrev = pending.timerPrev;
+        }
+        pending.timerNext = null;
+        pending.timerPrev = null;
+        pending.timerScheduled = false;
+        size--;
+    }
+
+    /**
+     * Fire every request whose tick has passed. Each one is unlinked before its transport's
+     * {@link PipelinedTransport#onTimeout} runs, so the callback is free to schedule it again.
+     * @param now The current {@link System#nanoTime()}.
+     */
+    void advance(long now) {
+        long nowTick = (now - origin) / tickNanos;
+        if (nowTick <= currentTick) {
+            return;
+        }
+
+        // after a long stall, one pass over every slot is enough to catch everything that is due
+        long first = Math.max(currentTick + 1, nowTick - mask);
+        for (long tick = first; tick <= nowTick && size > 0; tick++) {
+            PendingRequest pending = slots[(int) (tick & mask)];
+            while (pending != null) {
+                PendingRequest next = pending.timerNext;
+                if (pending.timerTick <= nowTick) {
+                    cancel(pending);
+                    pending.transport.onTimeout(pending, now);
+                }
+                pending = next;
+            }
+        }
+        currentTick = nowTick;
+    }
+
+    /**
+     * @return The number of requests scheduled.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return How long until the start of the next tick.
+     */
+    long nanosUntilNextTick(long now) {
+        return tickNanos - (now - origin) % tickNanos;
+    }
+}
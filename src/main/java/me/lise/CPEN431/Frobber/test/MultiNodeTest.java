@@ -1,6 +1,21 @@
 package me.lise.CPEN431.Frobber.test;
 
 import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
+import me.lise.CPEN431.Frobber.check.History;
+import me.lise.CPEN431.Frobber.check.LinearizabilityChecker;
+import me.lise.CPEN431.Frobber.load.CommandHistograms;
+import me.lise.CPEN431.Frobber.load.ConvergenceProbe;
+import me.lise.CPEN431.Frobber.load.KeySpace;
+import me.lise.CPEN431.Frobber.load.LatencyHistogram;
+import me.lise.CPEN431.Frobber.load.NodeMetrics;
+import me.lise.CPEN431.Frobber.load.Phases;
+import me.lise.CPEN431.Frobber.load.Recovery;
+import me.lise.CPEN431.Frobber.load.TimeSeries;
+import me.lise.CPEN431.Frobber.net.ConsistentHashRouter;
+import me.lise.CPEN431.Frobber.net.IOLoopGroup;
+import me.lise.CPEN431.Frobber.net.KeyHashes;
+import me.lise.CPEN431.Frobber.net.RandomRouter;
+import me.lise.CPEN431.Frobber.net.Router;
 import me.lise.CPEN431.Frobber.test.helper.TestResult;
 import me.lise.CPEN431.Frobber.util.ByteStringGenerator;
 
@@ -11,8 +26,57 @@ import java.io.IOException;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MultiNodeTest extends TestSuite {
+    /**
+     * Routing comparison: keys, phases of each run, and how to build the client-side ring, overridable to match the
+     * servers' (a {@link KeyHashes} name or a class, points per node, and the virtual node name format)
+     */
+    private static final int ROUTING_KEYS = 1000;
+    private static final Phases ROUTING_PHASES = Phases.ofSeconds(1, 5, 1);
+    private static final Phases ROUTING_WARMUP_PHASES = Phases.ofSeconds(0, 3, 0);
+    private static final String ROUTING_HASH_PROPERTY = "frobber.keyHash";
+    private static final String ROUTING_VIRTUAL_NODES_PROPERTY = "frobber.virtualNodes";
+    private static final String ROUTING_NAME_FORMAT_PROPERTY = "frobber.virtualNodeNameFormat";
+    private static final int ROUTING_VIRTUAL_NODES = 100;
+
+    /**
+     * Convergence probes: probes per run and how many run at once, the gap between polls of a node (0 is back to
+     * back), how long a node gets to show a write, and the channels and window the probes send on
+     */
+    private static final int CONVERGENCE_PROBES = 200;
+    private static final int CONVERGENCE_CONCURRENCY = 4;
+    private static final long CONVERGENCE_POLL_INTERVAL_NANOS = 0;
+    private static final long CONVERGENCE_DEADLINE_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final int CONVERGENCE_CHANNELS = 4;
+    private static final int CONVERGENCE_WINDOW = 64;
+
+    /**
+     * Linearizability: keys the clients contend on, how long they run (overridable, e.g. for an hour-long history),
+     * how many files the history is split over, and how long the checker may search a stretch of one key's history
+     * per operation in it
+     */
+    private static final int HISTORY_KEYS = 20;
+    private static final int HISTORY_SECONDS = 5;
+    private static final String HISTORY_SECONDS_PROPERTY = "frobber.historySeconds";
+    private static final int HISTORY_PARTITIONS = 256;
+    private static final long HISTORY_STEPS_PER_OPERATION = 10000;
+
+    /**
+     * Failover: which node to shut down (only if set, since the node stays down), when and for how long to run,
+     * seconds left out of the baseline as warmup, and what counts as recovered
+     */
+    private static final String FAILOVER_NODE_PROPERTY = "frobber.failoverNode";
+    private static final int FAILOVER_AT_SECONDS = 10;
+    private static final String FAILOVER_AT_PROPERTY = "frobber.failoverAt";
+    private static final int FAILOVER_SECONDS = 30;
+    private static final String FAILOVER_SECONDS_PROPERTY = "frobber.failoverSeconds";
+    private static final int FAILOVER_WARMUP_SECONDS = 2;
+    private static final double FAILOVER_RECOVERED_FRACTION = 0.9;
+    private static final int FAILOVER_STABLE_SECONDS = 3;
+
     private ExecutorService executor;
     // Each node has one dedicated client which is responsible for cleanups for example
 	private TestClient[] dedicatedClients;
@@ -29,17 +93,12 @@ public class MultiNodeTest extends TestSuite {
     }
     
     protected boolean wipeNodes() {
-        List<Future<Boolean>> futures = new ArrayList<>();
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
     	for (TestClient client: this.dedicatedClients) {
-            futures.add(executor.submit(() -> {
-				KVResponse response = client.sendWipeout();
-				if (response == null || response.getErrCode() != ErrCode.OKAY) {
-					return false; 
-				}
-				return true;
-            }));
+            futures.add(client.sendWipeoutAsync().thenApply(
+                    response -> response != null && response.getErrCode() == ErrCode.OKAY));
     	}
-        for (Future<Boolean> f: futures) {
+        for (CompletableFuture<Boolean> f: futures) {
             try {
             	if (!f.get()) {
             		return false;
@@ -59,14 +118,40 @@ public class MultiNodeTest extends TestSuite {
         printLine("---------------------------------------------------");
         printLine(String.format("MULTI-THREADED THROUGHPUT TESTS ON %s:%d", host.getHostName(), port));
         printLine("---------------------------------------------------");
+		CommandHistograms latencyBefore = latencySnapshot();
+		Map<InetSocketAddress, NodeMetrics> nodesBefore = NodeMetrics.snapshot();
+		long runStart = System.nanoTime();
 		printLine(testSimplePutGetRemove(10).format());
+		printLatencies(latencyBefore);
+		printLine(testRouting(NUM_THREADS, ROUTING_PHASES).format());
+		printLine(testConvergence(NUM_THREADS).format());
+		printLine(testLinearizability(NUM_THREADS,
+				Integer.getInteger(HISTORY_SECONDS_PROPERTY, HISTORY_SECONDS)).format());
+		// last, since it leaves a node down
+		Integer failoverNode = Integer.getInteger(FAILOVER_NODE_PROPERTY);
+		if (failoverNode != null) {
+			printLine(testFailover(NUM_THREADS, failoverNode, Integer.getInteger(FAILOVER_AT_PROPERTY,
+					FAILOVER_AT_SECONDS), Integer.getInteger(FAILOVER_SECONDS_PROPERTY, FAILOVER_SECONDS)).format());
+		}
+		printLine("Per-node metrics over the whole run:");
+		printNodeMetrics(nodesBefore, (System.nanoTime() - runStart) * 1e-9);
+		printLine("");
+		printRttSummary();
+		printOverloadSummary();
     }
 
     /**
      * Test and record the throughput and success rate of sending 100 PUT and GET requests from arbitrary clients.
      * This isn't an exact test, since throughput will be affected by interleaving of clients.
+     * Every request is also recorded, and the history checked for linearizability at the end.
      */
     private TestResult testSimplePutGetRemove(int keysPerNode) throws IOException {
+        try (History history = new History(HISTORY_PARTITIONS)) {
+            return testSimplePutGetRemove(keysPerNode, history);
+        }
+    }
+
+    private TestResult testSimplePutGetRemove(int keysPerNode, History history) throws IOException {
         printLine(String.format("[TEST: Put and Then Get %d keysPerNode with %d threads]", keysPerNode, NUM_THREADS));
 
         // send a clear command
@@ -75,14 +160,17 @@ public class MultiNodeTest extends TestSuite {
         	return TestResult.undecided("Could not perform pre-test wipeout. Server stati uknown.");
         }
 
+        Map<InetSocketAddress, NodeMetrics> nodesBefore = NodeMetrics.snapshot();
+        long start = System.nanoTime();
+
         // put some kvs (equal to the number of nodes times keysPerNode) 
         ByteStringGenerator byteGen = new ByteStringGenerator();
-        Map<ByteString, ByteString> referenceKVMap = new ConcurrentHashMap<ByteString, ByteString>();
         List<Future<TestResult>> testFutures = new ArrayList<>();
 		for (int j = 0; j < keysPerNode; j++) {
 			final int keyIdx = j;
 			for (int i = 0; i < this.hosts.length; i++) {
 				final int nodeIdx = i;  // make a final copy for use within the anonymous function
+				final int clientId = j * this.hosts.length + i;
 				testFutures.add(executor.submit(() -> {
 					try {
 						TestClient localClient = new TestClient(this.hosts[nodeIdx], this.ports[nodeIdx]);
@@ -91,28 +179,24 @@ public class MultiNodeTest extends TestSuite {
 						ByteString value = byteGen.getNextByteString(16);
 						
 						// initial put
-						KVResponse localResponse = localClient.sendPut(key, value);
+						KVResponse localResponse = sendRecorded(history, clientId, localClient, Command.PUT, key, value);
 						localClient.close();
 						if (localResponse == null) {
 							return TestResult.undecided("Initial Put Request Timeout");
-						} else if (localResponse.getErrCode() == ErrCode.OKAY) {
-							// on success remember the put and make sure we didnt overwrite anything
-							printLine(value.toString());
-							assert(referenceKVMap.put(key, value) == null);
-						} else {
+						} else if (localResponse.getErrCode() != ErrCode.OKAY) {
 							return TestResult.failed(String.format("Initial Put Request Error"));
 						}
 
 						// now try to get the value on all of the nodes
 						for(int k = 0; k < this.hosts.length; k++) {
 							TestClient getClient = new TestClient(this.hosts[k], this.ports[k]);
-							localResponse = getClient.sendGet(key);
+							localResponse = sendRecorded(history, clientId, getClient, Command.GET, key, null);
 							getClient.close();
 							if (localResponse == null) {
 								return TestResult.undecided("Get1 Request Timeout");
 							} else if (localResponse.getErrCode() == ErrCode.OKAY) {
-								printLine(localResponse.getValue().toString() + '|' + referenceKVMap.get(key).toString());
-								if(referenceKVMap.get(key).equals(localResponse.getValue())) {
+								// the key is this task's own, so nobody else can have changed it
+								if (!value.equals(localResponse.getValue())) {
 									return TestResult.failed("Get1 Returned Incorrect Value");
 								}
 							} else {
@@ -123,21 +207,18 @@ public class MultiNodeTest extends TestSuite {
 						// now remove the key on a different node
 						final int otherNodeIdx = (nodeIdx + keyIdx) % this.hosts.length;
 						TestClient otherClient = new TestClient(this.hosts[otherNodeIdx], this.ports[otherNodeIdx]);
-						localResponse = otherClient.sendRemove(key);
+						localResponse = sendRecorded(history, clientId, otherClient, Command.REMOVE, key, null);
 						otherClient.close();
 						if (localResponse == null) {
 							return TestResult.undecided("Remove Request Timeout");
-						} else if (localResponse.getErrCode() == ErrCode.OKAY) {
-							// on success update our reference kvmap 
-							assert(referenceKVMap.remove(key) != null);
-						} else {
+						} else if (localResponse.getErrCode() != ErrCode.OKAY) {
 							return TestResult.failed(String.format("Remove Request Error"));
 						}
 
 						// now make sure the key is gone on all nodes
 						for(int k = 0; k < this.hosts.length; k++) {
 							TestClient getClient = new TestClient(this.hosts[k], this.ports[k]);
-							localResponse = getClient.sendGet(key);
+							localResponse = sendRecorded(history, clientId, getClient, Command.GET, key, null);
 							getClient.close();
 							if (localResponse == null) {
 								return TestResult.undecided("Get2 Request Timeout");
@@ -189,18 +270,545 @@ public class MultiNodeTest extends TestSuite {
         printLine(String.format("Number of sequences passed   : %d/%d", passed, totalTests));
         printLine(String.format("Number of sequences undecided: %d/%d", undecided, totalTests));
         printLine(String.format("Number of sequences failed   : %d/%d", failed, totalTests));
+        printLine("Per-node metrics:");
+        printNodeMetrics(nodesBefore, (System.nanoTime() - start) * 1e-9);
+        TestResult linearizability = checkHistory(history);
 
         // fail if a single request failed
         if (failed > 0) {
         	return TestResult.failed("At least one test failed.");
         }
+        else if (linearizability.status != TestResult.TestStatus.PASSED) {
+        	return linearizability;
+        }
         else if (undecided > totalTests*5/100) {
         	return TestResult.undecided("More than 5% of the tests were undecided.");
         }
-        else if (undecided > totalTests*5/100) {
-        	return TestResult.passed("Less than 5% of the tests were undecided.");
+        return TestResult.passed("Less than 5% of the tests were undecided.");
+    }
+
+    /**
+     * Have {@code numClients} clients PUT, GET and REMOVE a handful of keys on random nodes for {@code seconds},
+     * recording every operation, then check that the whole history is linearizable.
+     */
+    private TestResult testLinearizability(int numClients, int seconds) {
+        printLine(String.format("[TEST: Linearizability of %d threads on %d keys for %d s]", numClients,
+                HISTORY_KEYS, seconds));
+        if (!this.wipeNodes()) {
+            return TestResult.undecided("Could not perform pre-test wipeout.");
+        }
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        try (History history = new History(HISTORY_PARTITIONS)) {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < numClients; i++) {
+                final int clientId = i;  // make a final copy for use within the anonymous function
+                futures.add(executor.submit(() -> {
+                    TestClient[] clients = new TestClient[this.hosts.length];
+                    try {
+                        for (int k = 0; k < this.hosts.length; k++) {
+                            clients[k] = new TestClient(this.hosts[k], this.ports[k]);
+                        }
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (long j = 0; !stop.get(); j++) {
+                            ByteString key = KeySpace.encode(random.nextInt(HISTORY_KEYS));
+                            TestClient client = clients[random.nextInt(clients.length)];
+                            int choice = random.nextInt(3);
+                            if (choice == 0) {
+                                // every value written is unique, so every read can be traced to its write, and
+                                // must come back with the version written with it
+                                ByteString value = KeySpace.encode(((long) clientId << 40) | j);
+                                int version = random.nextBoolean() ? 0 : random.nextInt(Integer.MAX_VALUE);
+                                sendRecorded(history, clientId, client, Command.PUT, key, value, version);
+                            } else if (choice == 1) {
+                                sendRecorded(history, clientId, client, Command.GET, key, null);
+                            } else {
+                                sendRecorded(history, clientId, client, Command.REMOVE, key, null);
+                            }
+                        }
+                        return 0;
+                    } catch (IOException e) {
+                        // shrug?
+                        return 0;
+                    } finally {
+                        for (TestClient c : clients) {
+                            if (c != null) {
+                                c.close();
+                            }
+                        }
+                    }
+                }));
+            }
+
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return TestResult.undecided("Interrupted while recording the history");
+            } finally {
+                stop.set(true);
+            }
+            for (Future<Integer> f: futures) {
+                try {
+                    f.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // no idea what could throw these
+                    printLine("Caught an exception while running linearizability test:");
+                    printLine(e.getMessage());
+                }
+            }
+            return checkHistory(history);
+        } catch (IOException e) {
+            return TestResult.undecided("Could not record the history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Keep {@code numClients} clients PUTting and GETting random keys on every node but {@code victim}, and
+     * {@code at} seconds in send {@code victim} a SHUTDOWN. Log what the other nodes did every second for
+     * {@code seconds} in all, as CSV to graph the failover by, then how far their goodput dipped, how many requests
+     * timed out, and how long goodput took to get back to what it was before.
+     *
+     * No load goes to {@code victim} itself, so the dip is what the other nodes lose forwarding to it until they
+     * notice it's gone, not clients waiting on a dead node.
+     */
+    private TestResult testFailover(int numClients, int victim, int at, int seconds) {
+        printLine(String.format("[TEST: Failover of node %d shut down after %d s of %d s under load from %d threads]",
+                victim, at, seconds, numClients));
+        List<InetSocketAddress> nodes = nodeAddresses();
+        if (nodes.size() < 2) {
+            return TestResult.undecided("Need at least 2 nodes to measure failover.");
+        }
+        if (victim < 0 || victim >= nodes.size()) {
+            return TestResult.undecided(String.format("No node %d to shut down, there are %d.", victim,
+                    nodes.size()));
+        }
+        if (at <= FAILOVER_WARMUP_SECONDS || at >= seconds) {
+            return TestResult.undecided(String.format("Shutdown at %d s leaves no baseline or no time to recover.",
+                    at));
+        }
+        if (!this.wipeNodes()) {
+            return TestResult.undecided("Could not perform pre-test wipeout.");
+        }
+
+        List<InetSocketAddress> survivors = new ArrayList<>(nodes);
+        survivors.remove(victim);
+        printLine(String.format("Shutting down %s, load on %s", nodes.get(victim), survivors));
+
+        AtomicInteger successes = new AtomicInteger(0);
+        AtomicInteger timeouts = new AtomicInteger(0);
+        AtomicInteger failures = new AtomicInteger(0);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Map<InetSocketAddress, NodeMetrics> nodesBefore = NodeMetrics.snapshot();
+        TimeSeries series = new TimeSeries();
+        List<Future<Integer>> futures = startRoutedClients(new RandomRouter(survivors), numClients, stop, successes,
+                timeouts, failures);
+        double shutdownAt = Double.NaN;
+        try {
+            printLine(TimeSeries.header(survivors));
+            for (int second = 1; second <= seconds; second++) {
+                Phases.sleepUntil(series.getStart(), TimeUnit.SECONDS.toNanos(second));
+                printLine(series.sample().format(survivors));
+                if (second == at) {
+                    shutdownAt = (System.nanoTime() - series.getStart()) * 1e-9;
+                    // a node that shuts down may never reply, so don't wait for one
+                    this.dedicatedClients[victim].sendShutdownAsync();
+                    printLine(String.format("SHUTDOWN sent to %s at %.3f s", nodes.get(victim), shutdownAt));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TestResult.undecided("Interrupted while running failover test");
+        } finally {
+            stop.set(true);
+        }
+        double elapsed = (System.nanoTime() - series.getStart()) * 1e-9;
+        for (Future<Integer> f: futures) {
+            try {
+                f.get();
+            } catch (InterruptedException | ExecutionException e) {
+                // no idea what could throw these
+                printLine("Caught an exception while running failover test:");
+                printLine(e.getMessage());
+            }
+        }
+
+        Recovery recovery = new Recovery(series.getIntervals(), survivors, FAILOVER_WARMUP_SECONDS, shutdownAt,
+                FAILOVER_RECOVERED_FRACTION, FAILOVER_STABLE_SECONDS);
+        printLine(String.format("Successful: %d, failed: %d, timed out: %d", successes.get(), failures.get(),
+                timeouts.get()));
+        printLine("Per-node metrics:");
+        printNodeMetrics(nodesBefore, elapsed);
+        printLine("Recovery: " + recovery.format());
+
+        KVResponse alive;
+        try {
+            alive = this.dedicatedClients[victim].sendIsAlive();
+        } catch (IOException e) {
+            alive = null;
+        }
+        if (alive != null) {
+            return TestResult.undecided(String.format("%s is still alive after SHUTDOWN.", nodes.get(victim)));
+        } else if (recovery.getBaselineGoodput() == 0) {
+            return TestResult.undecided("No request succeeded before the shutdown.");
+        } else if (!recovery.hasRecovered()) {
+            return TestResult.failed(String.format("Goodput never got back to %.0f%% of baseline within %d s.",
+                    FAILOVER_RECOVERED_FRACTION * 100, seconds - at));
+        }
+        return TestResult.passed(String.format("Recovered in %.1f s.", recovery.getRecoverySeconds()));
+    }
+
+    /**
+     * Send a PUT, GET or REMOVE and record it and its reply in {@code history}.
+     * @param value The value to PUT, or null.
+     * @return The reply, or null on timeout.
+     */
+    private static KVResponse sendRecorded(History history, int clientId, TestClient client, int command,
+                                           ByteString key, ByteString value) throws IOException {
+        return sendRecorded(history, clientId, client, command, key, value, 0);
+    }
+
+    /**
+     * Send a PUT, GET or REMOVE and record it and its reply in {@code history}.
+     * @param value The value to PUT, or null.
+     * @param version The version to PUT.
+     * @return The reply, or null on timeout.
+     */
+    private static KVResponse sendRecorded(History history, int clientId, TestClient client, int command,
+                                           ByteString key, ByteString value, int version) throws IOException {
+        long invokedAt = history.invoke();
+        KVResponse response = null;
+        try {
+            if (command == Command.PUT) {
+                response = client.sendPut(key, value, version);
+            } else if (command == Command.GET) {
+                response = client.sendGet(key);
+            } else {
+                response = client.sendRemove(key);
+            }
+        } finally {
+            // a request that failed may still have reached the node, so it is recorded as unanswered
+            history.record(clientId, command, key, value, version, invokedAt, System.nanoTime(), response);
+        }
+        return response;
+    }
+
+    /**
+     * Check a finished history for linearizability on every core, and log the result and any violations.
+     */
+    private TestResult checkHistory(History history) {
+        LinearizabilityChecker.Result result;
+        try {
+            result = new LinearizabilityChecker(Runtime.getRuntime().availableProcessors(),
+                    HISTORY_STEPS_PER_OPERATION).check(history);
+        } catch (IOException e) {
+            return TestResult.undecided("Could not read back the history: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TestResult.undecided("Interrupted while checking the history");
+        }
+        printLine("Linearizability: " + result.format());
+        for (LinearizabilityChecker.Violation violation : result.getViolations()) {
+            for (String line : violation.format(result.getOrigin())) {
+                printLine(line);
+            }
+        }
+        if (!result.isLinearizable()) {
+            return TestResult.failed(String.format("%d keys were not linearizable.", result.getViolatingKeys()));
+        } else if (result.getUnknownKeys() > 0) {
+            return TestResult.undecided(String.format("Gave up checking %d keys.", result.getUnknownKeys()));
+        }
+        return TestResult.passed("");
+    }
+
+    /**
+     * Run the same PUT/GET workload twice: once sending each key straight to the node that owns it on a client-side
+     * consistent-hash ring, and once to a random node that has to forward it. The difference is what the servers'
+     * forwarding hop costs, provided the ring matches theirs.
+     */
+    private TestResult testRouting(int numClients, Phases phases) {
+        List<InetSocketAddress> nodes = nodeAddresses();
+        ConsistentHashRouter direct;
+        try {
+            direct = new ConsistentHashRouter(nodes,
+                    Integer.getInteger(ROUTING_VIRTUAL_NODES_PROPERTY, ROUTING_VIRTUAL_NODES),
+                    KeyHashes.forName(System.getProperty(ROUTING_HASH_PROPERTY, KeyHashes.MD5.name())),
+                    System.getProperty(ROUTING_NAME_FORMAT_PROPERTY, ConsistentHashRouter.DEFAULT_NAME_FORMAT));
+        } catch (IllegalArgumentException e) {
+            return TestResult.undecided("Could not build the hash ring: " + e.getMessage());
+        }
+
+        printLine(String.format("[TEST: Routing %d keys with %d threads, %s]", ROUTING_KEYS, numClients,
+                phases.format()));
+        printLine("Ring: " + direct.format());
+        double[] ownership = direct.getOwnership();
+        for (int i = 0; i < nodes.size(); i++) {
+            printLine(String.format("  %s owns %.1f%% of the ring", nodes.get(i), ownership[i] * 100));
+        }
+
+        // whichever mode ran first would otherwise also pay for the JIT and the first RTO estimates
+        Router random = new RandomRouter(nodes);
+        printLine("Warming up both routes:");
+        if (runRouted(direct, numClients, ROUTING_WARMUP_PHASES) == null
+                || runRouted(random, numClients, ROUTING_WARMUP_PHASES) == null) {
+            return TestResult.undecided("Could not perform pre-test wipeout.");
+        }
+        printLine("Measuring:");
+        RoutedRun owner = runRouted(direct, numClients, phases);
+        RoutedRun forwarded = runRouted(random, numClients, phases);
+        if (owner == null || forwarded == null) {
+            return TestResult.undecided("Could not perform pre-test wipeout.");
+        }
+
+        LatencyHistogram ownerLatency = owner.latency;
+        LatencyHistogram randomLatency = forwarded.latency;
+        printLine(String.format("Routing to a random node instead of the owner: throughput %+.1f%%, "
+                        + "mean %+.3f ms, p50 %+.3f ms, p99 %+.3f ms",
+                (forwarded.throughput / owner.throughput - 1) * 100,
+                (randomLatency.getMeanMicros() - ownerLatency.getMeanMicros()) * 1e-3,
+                (randomLatency.getPercentileMicros(50) - ownerLatency.getPercentileMicros(50)) * 1e-3,
+                (randomLatency.getPercentileMicros(99) - ownerLatency.getPercentileMicros(99)) * 1e-3));
+
+        if (!owner.isHealthy() || !forwarded.isHealthy()) {
+            return TestResult.undecided("Fewer than 3/4 of requests succeeded, so the comparison means little.");
+        }
+        return TestResult.passed("");
+    }
+
+    /**
+     * Measure how long an acknowledged PUT takes to show up on every other node, first on an idle cluster and then
+     * while {@code loadClients} clients keep it busy with the routing test's random-node workload.
+     */
+    private TestResult testConvergence(int loadClients) {
+        printLine(String.format("[TEST: Convergence of %d PUTs, %d at a time, idle and under load from %d threads]",
+                CONVERGENCE_PROBES, CONVERGENCE_CONCURRENCY, loadClients));
+        List<InetSocketAddress> nodes = nodeAddresses();
+        if (nodes.size() < 2) {
+            return TestResult.undecided("Need at least 2 nodes to measure convergence.");
+        }
+        if (!this.wipeNodes()) {
+            return TestResult.undecided("Could not perform pre-test wipeout.");
+        }
+
+        ConvergenceProbe.Result idle;
+        ConvergenceProbe.Result loaded;
+        AtomicInteger loadSuccesses = new AtomicInteger(0);
+        AtomicInteger loadTimeouts = new AtomicInteger(0);
+        AtomicInteger loadFailures = new AtomicInteger(0);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        List<Future<Integer>> futures = Collections.emptyList();
+        try (IOLoopGroup group = new IOLoopGroup(1, CONVERGENCE_CHANNELS, CONVERGENCE_WINDOW)) {
+            ConvergenceProbe probe = new ConvergenceProbe(group, nodes, CONVERGENCE_POLL_INTERVAL_NANOS,
+                    CONVERGENCE_DEADLINE_NANOS);
+            // probe keys start after the load's, and each run has its own
+            idle = probe.run(CONVERGENCE_PROBES, CONVERGENCE_CONCURRENCY, ROUTING_KEYS);
+            printConvergence("Idle", idle, nodes);
+
+            futures = startRoutedClients(new RandomRouter(nodes), loadClients, stop, loadSuccesses, loadTimeouts,
+                    loadFailures);
+            Thread.sleep(TimeUnit.SECONDS.toMillis(1));  // let the load settle
+            long loadStart = System.nanoTime();
+            int[] countsBefore = {loadSuccesses.get(), loadTimeouts.get(), loadFailures.get()};
+            loaded = probe.run(CONVERGENCE_PROBES, CONVERGENCE_CONCURRENCY, ROUTING_KEYS + CONVERGENCE_PROBES);
+            double loadSeconds = (System.nanoTime() - loadStart) * 1e-9;
+            int failures = loadFailures.get() - countsBefore[2];
+            printConvergence("Under load", loaded, nodes);
+            printLine(String.format("Load meanwhile: %.2f requests per second, %d failed, %d timed out",
+                    (loadSuccesses.get() - countsBefore[0] + failures) / loadSeconds, failures,
+                    loadTimeouts.get() - countsBefore[1]));
+        } catch (IOException e) {
+            return TestResult.undecided("Could not open the probe channels: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TestResult.undecided("Interrupted while probing convergence");
+        } finally {
+            stop.set(true);
+        }
+        for (Future<Integer> f: futures) {
+            try {
+                f.get();
+            } catch (InterruptedException | ExecutionException e) {
+                // no idea what could throw these
+                printLine("Caught an exception while running convergence test:");
+                printLine(e.getMessage());
+            }
+        }
+
+        if (idle.getUnconverged() + loaded.getUnconverged() > 0) {
+            return TestResult.failed(String.format("Some writes never reached every node within %d ms.",
+                    TimeUnit.NANOSECONDS.toMillis(CONVERGENCE_DEADLINE_NANOS)));
+        } else if (idle.getPutFailures() + loaded.getPutFailures() > 2 * CONVERGENCE_PROBES * 5 / 100) {
+            return TestResult.undecided("More than 5% of the probe PUTs failed.");
+        }
+        return TestResult.passed("");
+    }
+
+    private void printConvergence(String title, ConvergenceProbe.Result result, List<InetSocketAddress> nodes) {
+        printLine(String.format("%s: %s", title, result.format()));
+        printLine(String.format("%s convergence (all nodes) %s", title, result.getConvergence().format()));
+        for (int i = 0; i < nodes.size(); i++) {
+            printLine(String.format("%s convergence on %s %s, %d never", title, nodes.get(i),
+                    result.getNodeConvergence(i).format(), result.getNodeMisses(i)));
+        }
+    }
+
+    /**
+     * @return Every node's address, in the order of {@code hosts} and {@code ports}.
+     */
+    private List<InetSocketAddress> nodeAddresses() {
+        List<InetSocketAddress> nodes = new ArrayList<>();
+        for (int i = 0; i < this.hosts.length; i++) {
+            nodes.add(new InetSocketAddress(this.hosts[i], this.ports[i]));
+        }
+        return nodes;
+    }
+
+    /**
+     * Time-boxed run of {@code numClients} clients, each PUTting a random key and then GETting it back, with every
+     * request sent to the node {@code router} picks for its key.
+     * @return The results for the measurement window, or null if the nodes could not be wiped first.
+     */
+    private RoutedRun runRouted(Router router, int numClients, Phases phases) {
+        printLine("Routing: " + router.format());
+        if (!this.wipeNodes()) {
+            return null;
+        }
+
+        AtomicInteger totalSuccesses = new AtomicInteger(0);
+        AtomicInteger totalTimeouts = new AtomicInteger(0);
+        AtomicInteger totalFailures = new AtomicInteger(0);
+        AtomicBoolean stop = new AtomicBoolean(false);
+
+        List<Future<Integer>> futures = startRoutedClients(router, numClients, stop, totalSuccesses, totalTimeouts,
+                totalFailures);
+
+        // snapshot the counters at the edges of the measurement window
+        long start = System.nanoTime();
+        int[] countsBefore;
+        int[] countsAfter;
+        CommandHistograms latencyBefore;
+        CommandHistograms latencyAfter;
+        Map<InetSocketAddress, NodeMetrics> nodesBefore;
+        Map<InetSocketAddress, NodeMetrics> nodesAfter;
+        long measureStart;
+        long measureEnd;
+        try {
+            Phases.sleepUntil(start, phases.getWarmupNanos());
+            measureStart = System.nanoTime();
+            countsBefore = new int[] {totalSuccesses.get(), totalTimeouts.get(), totalFailures.get()};
+            latencyBefore = latencySnapshot();
+            nodesBefore = NodeMetrics.snapshot();
+
+            Phases.sleepUntil(start, phases.getWarmupNanos() + phases.getMeasureNanos());
+            measureEnd = System.nanoTime();
+            countsAfter = new int[] {totalSuccesses.get(), totalTimeouts.get(), totalFailures.get()};
+            latencyAfter = latencySnapshot();
+            nodesAfter = NodeMetrics.snapshot();
+
+            Phases.sleepUntil(start, phases.getTotalNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            printLine("Interrupted while running routing test");
+            return null;
+        } finally {
+            stop.set(true);
+        }
+
+        for (Future<Integer> f: futures) {
+            try {
+                f.get();
+            } catch (InterruptedException | ExecutionException e) {
+                // no idea what could throw these
+                printLine("Caught an exception while running routing test:");
+                printLine(e.getMessage());
+            }
+        }
+
+        RoutedRun run = new RoutedRun(countsAfter[0] - countsBefore[0], countsAfter[1] - countsBefore[1],
+                countsAfter[2] - countsBefore[2], (measureEnd - measureStart) * 1e-9,
+                latencyAfter.minus(latencyBefore).total());
+        printLine(String.format("Successful: %d, failed: %d, timed out: %d", run.successes, run.failures,
+                run.timeouts));
+        printLine(String.format("Throughput: %.2f requests per second", run.throughput));
+        printLine("Latency " + run.latency.format());
+        printNodeMetrics(nodesBefore, nodesAfter, (measureEnd - measureStart) * 1e-9);
+        return run;
+    }
+
+    /**
+     * Start {@code numClients} clients on the executor, each PUTting a random one of {@code ROUTING_KEYS} keys and then
+     * GETting it back, with every request sent to the node {@code router} picks for its key, until {@code stop} is
+     * set.
+     */
+    private List<Future<Integer>> startRoutedClients(Router router, int numClients, AtomicBoolean stop,
+                                                     AtomicInteger successes, AtomicInteger timeouts,
+                                                     AtomicInteger failures) {
+        ByteString value = ByteString.copyFrom("oooo".getBytes());
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < numClients; i++) {
+            futures.add(executor.submit(() -> {
+                // one client per node, so every request goes out on the socket of the node it was routed to
+                Map<InetSocketAddress, TestClient> clients = new HashMap<>();
+                try {
+                    for (int k = 0; k < this.hosts.length; k++) {
+                        clients.put(new InetSocketAddress(this.hosts[k], this.ports[k]),
+                                new TestClient(this.hosts[k], this.ports[k]));
+                    }
+                    while (!stop.get()) {
+                        ByteString key = KeySpace.encode(ThreadLocalRandom.current().nextInt(ROUTING_KEYS));
+                        tally(clients.get(router.route(key)).sendPut(key, value), successes, timeouts, failures);
+                        tally(clients.get(router.route(key)).sendGet(key), successes, timeouts, failures);
+                    }
+                    return 0;
+                } catch (IOException e) {
+                    // shrug?
+                    return 0;
+                } finally {
+                    for (TestClient c : clients.values()) {
+                        c.close();
+                    }
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private static void tally(KVResponse response, AtomicInteger successes, AtomicInteger timeouts,
+                              AtomicInteger failures) {
+        if (response == null) {
+            timeouts.incrementAndGet();
+        } else if (response.getErrCode() == ErrCode.OKAY) {
+            successes.incrementAndGet();
+        } else {
+            failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * What one routing mode achieved in the measurement window.
+     */
+    private static class RoutedRun {
+        private final int successes;
+        private final int timeouts;
+        private final int failures;
+        /** Replies per second, successful or not */
+        private final double throughput;
+        private final LatencyHistogram latency;
+
+        private RoutedRun(int successes, int timeouts, int failures, double seconds, LatencyHistogram latency) {
+            this.successes = successes;
+            this.timeouts = timeouts;
+            this.failures = failures;
+            this.throughput = (successes + failures) / seconds;
+            this.latency = latency;
+        }
+
+        /**
+         * @return Whether more than 3/4 of requests succeeded, as the other tests require.
+         */
+        private boolean isHealthy() {
+            return successes > (successes + timeouts + failures) * 3 / 4;
         }
-        return null;
     }
 
     @Override
@@ -3,6 +3,7 @@ package me.lise.CPEN431.Frobber.test;
 import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
 import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
 import ca.NetSysLab.ProtocolBuffers.Message.Msg;
+import me.lise.CPEN431.Frobber.load.CommandHistograms;
 import me.lise.CPEN431.Frobber.util.MessageUtil;
 
 import com.google.protobuf.ByteString;
@@ -25,6 +26,7 @@ public class SingleThreadedTest extends TestSuite {
         printLine("---------------------------------------------------");
         printLine(String.format("SINGLE-THREADED SERVER TESTS ON %s:%d", host.getHostName(), port));
         printLine("---------------------------------------------------");
+        CommandHistograms latencyBefore = latencySnapshot();
 
         // simple server tests
         int failures = 0;
@@ -71,6 +73,8 @@ public class SingleThreadedTest extends TestSuite {
         // summarize
         printLine(String.format("Completed %d tests: %d passed, %d failed, %d inconclusive\n",
                 numTests, numPassed, numFailed, numTests - numFailed - numPassed));
+        printLatencies(latencyBefore);
+        printLine("");
     }
 
     /**
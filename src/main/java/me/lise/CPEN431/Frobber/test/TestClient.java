@@ -1,78 +1,119 @@
 package me.lise.CPEN431.Frobber.test;
 
-import ca.NetSysLab.ProtocolBuffers.Message.Msg;
 import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
 import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
-import me.lise.CPEN431.Frobber.util.MessageUtil;
+import me.lise.CPEN431.Frobber.load.CommandHistograms;
+import me.lise.CPEN431.Frobber.load.NodeMetrics;
+import me.lise.CPEN431.Frobber.load.RateLimiter;
+import me.lise.CPEN431.Frobber.net.PendingRequest;
+import me.lise.CPEN431.Frobber.net.PipelinedTransport;
 
 import com.google.protobuf.*;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.*;
-import java.nio.*;
-import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
- * Test client that opens a socket that can be used to send and receive messages to a specified host.
+ * Test client that sends messages to a specified host and receives the replies.
+ *
+ * Every request goes through a {@link PipelinedTransport}. The blocking {@code sendX} methods wait for the reply
+ * (up to about 1.5 s of retries, plus any OVERLOAD pauses the node asks for), while the {@code sendXAsync} variants
+ * return immediately and complete on the shared I/O loop, so request chains can be composed without tying up a
+ * thread per chain.
+ *
+ * The latency of every reply, excluding any OVERLOAD backoff, is recorded per command in one process-wide set of
+ * histograms; see {@link #getLatencies()}. Replies, error codes, timeouts and latencies are also recorded per target
+ * node in its {@link NodeMetrics}.
+ *
+ * Requests can be paced with {@link #setRateLimiters}. Blocking calls wait for their permits on the calling thread;
+ * async calls never block, and are sent from the shared pacer thread once their permits are due. Time spent waiting
+ * for a permit is not counted as latency.
  */
 public class TestClient {
-    private static final int MAX_TRIES = 4;  // initial try + 3 retries
-    private static final int INITIAL_TIMEOUT = 100;  // ms
-    private static final int HEADER_LENGTH = 16;  // bytes
+    /** In-flight limit for a client that owns its transport */
+    private static final int DEFAULT_WINDOW = 32;
 
-    /** The largest possible response is 10000 B (max value size) + header + 5 ints + some extra Bs to be safe */
-    private static final int MAX_PAYLOAD = 10100;
+    private static final CommandHistograms latencies = new CommandHistograms();
 
-    private DatagramSocket socket;
-    private InetAddress hostAddress;
-    private int hostPort;
+    private PipelinedTransport transport;
+    private boolean ownsTransport;
+    private InetSocketAddress target;
+    private NodeMetrics metrics;
+    private RateLimiter[] limiters = new RateLimiter[0];
 
     /**
-     * Helper function to generate a unique ID.
-     * @return A byte array containing the generated ID.
-     * @throws UnknownHostException In case of an error getting the local host address.
+     * Create a client to send messages, with its own transport on the shared I/O loop.
+     * @throws IOException if socket creation failed.
      */
-    private byte[] getID() throws UnknownHostException {
-        byte[] result = ByteBuffer.allocate(HEADER_LENGTH)
-                .putInt(2, socket.getLocalPort())
-                .putLong(8, System.nanoTime())
-                .array();
-
-        // Copy in the IP address
-        byte[] ip = InetAddress.getLocalHost().getAddress();
-        for (int i = 0; i < 4; i++) {
-            result[i] = ip[i];
-        }
+    public TestClient(InetAddress host, int port) throws IOException {
+        this(host, port, new PipelinedTransport(DEFAULT_WINDOW));
+        this.ownsTransport = true;
+    }
 
-        // Add two randomly generated bytes
-        Random rand = new Random();
-        result[6] = (byte) rand.nextInt(0xff);
-        result[7] = (byte) rand.nextInt(0xff);
+    /**
+     * Create a client that sends through an existing transport, so several clients can share one window.
+     * The transport is not closed by {@link #close()}.
+     */
+    public TestClient(InetAddress host, int port, PipelinedTransport transport) {
+        this.transport = transport;
+        this.ownsTransport = false;
+        this.target = new InetSocketAddress(host, port);
+        this.metrics = NodeMetrics.forNode(target);
+    }
 
-        return result;
+    /**
+     * Pace every request from now on: each one takes a permit from every limiter in turn, e.g. the client's own and
+     * then one shared by all clients. A burst only gets through if every limiter's burst and catch-up window allow
+     * it. Call with no limiters to stop pacing.
+     */
+    public void setRateLimiters(RateLimiter... limiters) {
+        this.limiters = limiters.clone();
     }
 
     /**
-     * Shared code to listen for a reply packet after sending a request.
-     * @param timeout How long to wait.
-     * @return The packet.
-     * @throws IOException
+     * Generic method to send a {@code KVRequest} without waiting for the response.
+     * @param request The request to send.
+     * @return A future for the response. It completes with null if no response was received.
      */
-    private DatagramPacket getResponse(byte[] buf, int timeout) throws IOException {
-        DatagramPacket packet = new DatagramPacket(buf, buf.length);
-        socket.setSoTimeout(timeout);
-        socket.receive(packet);
-        return packet;
+    public CompletableFuture<KVResponse> sendReceiveAsync(KVRequest request) {
+        if (limiters.length == 0) {
+            return submit(request);
+        }
+        CompletableFuture<Void> permits = limiters[0].acquireAsync();
+        for (int i = 1; i < limiters.length; i++) {
+            RateLimiter limiter = limiters[i];
+            permits = permits.thenCompose(ignored -> limiter.acquireAsync());
+        }
+        return permits.thenCompose(ignored -> submit(request));
     }
 
     /**
-     * Create a client to send messages.
-     * @throws SocketException if socket creation failed.
+     * Hand a request to the transport right away, and record its latency when the reply comes.
      */
-    public TestClient(InetAddress host, int port) throws SocketException {
-        this.socket = new DatagramSocket();
-        this.hostAddress = host;
-        this.hostPort = port;
+    private PendingRequest submit(KVRequest request) {
+        long start = System.nanoTime();
+        PendingRequest pending = transport.submit(target, request);
+        pending.whenComplete((response, e) -> {
+            if (response != null) {
+                long nanos = System.nanoTime() - start - pending.getBackoffNanos();
+                latencies.recordNanos(request.getCommand(), nanos);
+                metrics.recordReply(request.getCommand(), response.getErrCode(), nanos);
+            } else if (e == null) {
+                metrics.recordTimeout();
+            }
+        });
+        return pending;
+    }
+
+    /**
+     * @return Latencies of every reply received by any client so far, per command. Take a {@code copy()} before a
+     * test and subtract it afterwards to get the test's own numbers.
+     */
+    public static CommandHistograms getLatencies() {
+        return latencies;
     }
 
     /**
@@ -81,54 +122,40 @@ public class TestClient {
      * @return The response as a {@code KVResponse}. If no response was received, return null.
      */
     public KVResponse sendReceive(KVRequest request) throws IOException {
-        // Wrap the payload
-        Msg message = MessageUtil.makeMessage(getID(), request.toByteArray());
-
-        int timeout = INITIAL_TIMEOUT;
-        for (int i = 0; i < MAX_TRIES; i++) {
-            // Convert to byte array and send
-            byte[] messageBytes = message.toByteArray();
-            DatagramPacket packet = new DatagramPacket(messageBytes, messageBytes.length, hostAddress, hostPort);
-            socket.send(packet);
-
-            // Wait for a reply
-            byte[] buf = new byte[MAX_PAYLOAD];
-            try {
-                packet = new DatagramPacket(buf, buf.length);
-                socket.setSoTimeout(timeout);
-                socket.receive(packet);
-            } catch (SocketTimeoutException e) {
-                timeout *= 2;
-                continue;
-            }
-
-            // Parse packet and verify its checksum and header
-            Msg response;
-            try {
-                response = Msg.parseFrom(Arrays.copyOf(packet.getData(), packet.getLength()));
-            } catch (InvalidProtocolBufferException e) {
-                // There was a parse error of some sort. Maybe this was due to corruption, so let's try again.
-                continue;
-            }
-
-            if (!MessageUtil.validateChecksum(response) || !MessageUtil.validateMessageID(message, response)) {
-                continue;
+        for (RateLimiter limiter : limiters) {
+            limiter.acquire();
+        }
+        try {
+            return submit(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
-
-            // Extract the response and return it
-            return KVResponse.parseFrom(response.getPayload());
+            throw new IOException(e.getCause());
         }
-
-        // If this is reached, all the requests either timed out or got a garbage response
-        return null;
     }
 
-    public KVResponse sendPut(ByteString key, ByteString value, int version) throws IOException {
+    private static KVRequest putRequest(ByteString key, ByteString value, int version) {
         KVRequest.Builder request = KVRequest.newBuilder().setCommand(Command.PUT).setKey(key).setValue(value);
         if (version != 0) {
             request.setVersion(version);
         }
-        return sendReceive(request.build());
+        return request.build();
+    }
+
+    private static KVRequest keyRequest(int command, ByteString key) {
+        return KVRequest.newBuilder().setCommand(command).setKey(key).build();
+    }
+
+    private static KVRequest commandRequest(int command) {
+        return KVRequest.newBuilder().setCommand(command).build();
+    }
+
+    public KVResponse sendPut(ByteString key, ByteString value, int version) throws IOException {
+        return sendReceive(putRequest(key, value, version));
     }
 
     public KVResponse sendPut(ByteString key, ByteString value) throws IOException {
@@ -136,35 +163,73 @@ public class TestClient {
     }
 
     public KVResponse sendGet(ByteString key) throws IOException {
-        return sendReceive(KVRequest.newBuilder().setCommand(Command.GET).setKey(key).build());
+        return sendReceive(keyRequest(Command.GET, key));
     }
 
     public KVResponse sendRemove(ByteString key) throws IOException {
-        return sendReceive(KVRequest.newBuilder().setCommand(Command.REMOVE).setKey(key).build());
+        return sendReceive(keyRequest(Command.REMOVE, key));
     }
 
     public KVResponse sendWipeout() throws IOException {
-        return sendReceive(KVRequest.newBuilder().setCommand(Command.WIPEOUT).build());
+        return sendReceive(commandRequest(Command.WIPEOUT));
     }
 
     public KVResponse sendIsAlive() throws IOException {
-        return sendReceive(KVRequest.newBuilder().setCommand(Command.IS_ALIVE).build());
+        return sendReceive(commandRequest(Command.IS_ALIVE));
     }
 
     public KVResponse sendGetPid() throws IOException {
-        return sendReceive(KVRequest.newBuilder().setCommand(Command.GET_PID).build());
+        return sendReceive(commandRequest(Command.GET_PID));
     }
 
     public KVResponse sendGetMembershipCount() throws IOException {
-        return sendReceive(KVRequest.newBuilder().setCommand(Command.GET_MEMBERSHIP_COUNT).build());
+        return sendReceive(commandRequest(Command.GET_MEMBERSHIP_COUNT));
     }
 
     public KVResponse sendShutdown() throws IOException {
-        return sendReceive(KVRequest.newBuilder().setCommand(Command.SHUTDOWN).build());
+        return sendReceive(commandRequest(Command.SHUTDOWN));
+    }
+
+    public CompletableFuture<KVResponse> sendPutAsync(ByteString key, ByteString value, int version) {
+        return sendReceiveAsync(putRequest(key, value, version));
+    }
+
+    public CompletableFuture<KVResponse> sendPutAsync(ByteString key, ByteString value) {
+        return sendPutAsync(key, value, 0);
+    }
+
+    public CompletableFuture<KVResponse> sendGetAsync(ByteString key) {
+        return sendReceiveAsync(keyRequest(Command.GET, key));
+    }
+
+    public CompletableFuture<KVResponse> sendRemoveAsync(ByteString key) {
+        return sendReceiveAsync(keyRequest(Command.REMOVE, key));
+    }
+
+    public CompletableFuture<KVResponse> sendWipeoutAsync() {
+        return sendReceiveAsync(commandRequest(Command.WIPEOUT));
+    }
+
+    public CompletableFuture<KVResponse> sendIsAliveAsync() {
+        return sendReceiveAsync(commandRequest(Command.IS_ALIVE));
+    }
+
+    public CompletableFuture<KVResponse> sendGetPidAsync() {
+        return sendReceiveAsync(commandRequest(Command.GET_PID));
+    }
+
+    public CompletableFuture<KVResponse> sendGetMembershipCountAsync() {
+        return sendReceiveAsync(commandRequest(Command.GET_MEMBERSHIP_COUNT));
+    }
+
+    public CompletableFuture<KVResponse> sendShutdownAsync() {
+        return sendReceiveAsync(commandRequest(Command.SHUTDOWN));
     }
 
     public void close() {
-        socket.close();
+        if (ownsTransport) {
+            transport.close();
+        }
     }
 }
 
@@ -1,12 +1,26 @@
 package me.lise.CPEN431.Frobber.test;
 
+import me.lise.CPEN431.Frobber.load.CommandHistograms;
+import me.lise.CPEN431.Frobber.load.NodeMetrics;
+import me.lise.CPEN431.Frobber.load.SkewDetector;
+import me.lise.CPEN431.Frobber.net.OverloadPacer;
+import me.lise.CPEN431.Frobber.net.RttEstimator;
+
 import com.google.protobuf.ByteString;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 public abstract class TestSuite {
+    /** How many times the cluster median a node's p99 or timeout rate must be to be flagged (overridable) */
+    private static final double SKEW_FACTOR = 3.0;
+    private static final String SKEW_FACTOR_PROPERTY = "frobber.skewFactor";
+
     protected int numTests = 0;
     protected int numPassed = 0;
     protected int numFailed = 0;
@@ -68,6 +82,96 @@ public abstract class TestSuite {
         System.out.println(s);
     }
 
+    /**
+     * @return A copy of the latencies recorded so far, to pass to {@link #printLatencies} after a test.
+     */
+    protected CommandHistograms latencySnapshot() {
+        return TestClient.getLatencies().copy();
+    }
+
+    /**
+     * Log latency percentiles per command for the replies received since {@code before} was taken.
+     */
+    protected void printLatencies(CommandHistograms before) {
+        printLatencies("Latency", TestClient.getLatencies().minus(before));
+    }
+
+    /**
+     * Log latency percentiles per command.
+     */
+    protected void printLatencies(String title, CommandHistograms latencies) {
+        for (String line : latencies.format()) {
+            printLine(String.format("%s %s", title, line));
+        }
+    }
+
+    /**
+     * Log throughput, errors, timeouts and latency per node for the requests made since {@code before} was taken
+     * with {@link NodeMetrics#snapshot()}, and flag nodes whose p99 or timeout rate is far above the cluster median.
+     * @param seconds How long since {@code before}, for request rates.
+     * @return The number of skewed metrics flagged.
+     */
+    protected int printNodeMetrics(Map<InetSocketAddress, NodeMetrics> before, double seconds) {
+        return printNodeMetrics(before, NodeMetrics.snapshot(), seconds);
+    }
+
+    /**
+     * As {@link #printNodeMetrics(Map, double)}, for the requests made between two snapshots.
+     */
+    protected int printNodeMetrics(Map<InetSocketAddress, NodeMetrics> before,
+                                   Map<InetSocketAddress, NodeMetrics> after, double seconds) {
+        List<NodeMetrics> diffs = new ArrayList<>();
+        for (NodeMetrics metrics : after.values()) {
+            NodeMetrics diff = metrics.minus(before.get(metrics.getNode()));
+            if (diff.getRequests() > 0) {
+                diffs.add(diff);
+                printLine("  " + diff.format(seconds));
+            }
+        }
+        SkewDetector skew = new SkewDetector(Double.parseDouble(System.getProperty(SKEW_FACTOR_PROPERTY,
+                Double.toString(SKEW_FACTOR))));
+        List<String> flags = skew.check(diffs);
+        for (String flag : flags) {
+            printLine(String.format("  SKEWED (%.1fx median): %s", skew.getFactor(), flag));
+        }
+        return flags.size();
+    }
+
+    /**
+     * Log the RTT estimate, retransmission counts and a sample of the RTO history of every node contacted so far.
+     */
+    protected void printRttSummary() {
+        printLine("RTT estimates:");
+        for (RttEstimator rtt : RttEstimator.all()) {
+            printLine("  " + rtt.format());
+            List<double[]> history = rtt.getRtoHistory();
+            if (history.isEmpty()) {
+                continue;
+            }
+            // at most 20 evenly spaced points, always including the latest
+            StringBuilder sb = new StringBuilder("    RTO over time (s: ms):");
+            int step = Math.max(1, (history.size() + 19) / 20);
+            for (int i = (history.size() - 1) % step; i < history.size(); i += step) {
+                double[] point = history.get(i);
+                sb.append(String.format(" %.1f: %.2f", point[0] * 1e-3, point[1]));
+            }
+            printLine(sb.toString());
+        }
+        printLine("");
+    }
+
+    /**
+     * Log how often each node contacted so far answered OVERLOAD, and how long that held requests back compared to
+     * the time they actually spent waiting on the node.
+     */
+    protected void printOverloadSummary() {
+        printLine("Overload pacing:");
+        for (OverloadPacer pacer : OverloadPacer.all()) {
+            printLine("  " + pacer.format());
+        }
+        printLine("");
+    }
+
     TestSuite(InetAddress[] hosts, int[] ports) throws IOException {
     	this.hosts = hosts;
     	this.ports = ports;
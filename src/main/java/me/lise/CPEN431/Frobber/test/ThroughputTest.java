@@ -1,6 +1,26 @@
 package me.lise.CPEN431.Frobber.test;
 
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
 import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
+import me.lise.CPEN431.Frobber.load.Arrivals;
+import me.lise.CPEN431.Frobber.load.ClientThreads;
+import me.lise.CPEN431.Frobber.load.CommandHistograms;
+import me.lise.CPEN431.Frobber.load.HotspotKeyChooser;
+import me.lise.CPEN431.Frobber.load.KeySpace;
+import me.lise.CPEN431.Frobber.load.LoadCoordinator;
+import me.lise.CPEN431.Frobber.load.LoadWorker;
+import me.lise.CPEN431.Frobber.load.OpenLoopGenerator;
+import me.lise.CPEN431.Frobber.load.Phases;
+import me.lise.CPEN431.Frobber.load.RateLimiter;
+import me.lise.CPEN431.Frobber.load.SaturationSearch;
+import me.lise.CPEN431.Frobber.load.UniformKeyChooser;
+import me.lise.CPEN431.Frobber.load.ValuePool;
+import me.lise.CPEN431.Frobber.load.ValueSizes;
+import me.lise.CPEN431.Frobber.load.Workload;
+import me.lise.CPEN431.Frobber.net.IOLoopGroup;
+import me.lise.CPEN431.Frobber.net.OverloadPacer;
+import me.lise.CPEN431.Frobber.net.PipelinedTransport;
+import me.lise.CPEN431.Frobber.net.RttEstimator;
 
 import com.google.protobuf.ByteString;
 
@@ -9,9 +29,65 @@ import java.net.*;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 public class ThroughputTest extends TestSuite {
+    /** Reactor mode: selector threads, and channels owned by each of them */
+    private static final int REACTOR_LOOPS = 2;
+    private static final int REACTOR_CHANNELS_PER_LOOP = 4;
+
+    /** Time-boxed mode: phases of each run, and how many keys each client cycles through */
+    private static final Phases TIMED_PHASES = Phases.ofSeconds(2, 5, 1);
+    private static final int TIMED_KEYS_PER_CLIENT = 100;
+
+    /** Workload profiles: keys loaded up front, their value, clients and phases of each profile */
+    private static final int WORKLOAD_RECORDS = 10000;
+    private static final int WORKLOAD_VALUE_SIZE = 100;
+    private static final int WORKLOAD_LOAD_WINDOW = 100;
+    private static final int WORKLOAD_CLIENTS = 10;
+    private static final Phases WORKLOAD_PHASES = Phases.ofSeconds(1, 3, 1);
+
+    /** Value size sweep: keys to spread the values over, and where to find an optional size histogram file */
+    private static final int VALUE_SIZE_KEYS = 1000;
+    private static final String VALUE_SIZE_HISTOGRAM_PROPERTY = "frobber.valueSizeHistogram";
+
+    /** Thread-per-client mode: clients on platform threads, clients on virtual threads, and phases of each run */
+    private static final int CLIENT_THREADS_PLATFORM = 1000;
+    private static final int CLIENT_THREADS_VIRTUAL = 50000;
+    private static final Phases CLIENT_THREADS_PHASES = Phases.ofSeconds(2, 5, 1);
+
+    /** Rate-limited mode: clients, shared rate, and per-client rates below and above their share of it */
+    private static final int RATE_LIMITED_CLIENTS = 100;
+    private static final double RATE_LIMITED_GLOBAL = 10000;
+    private static final double RATE_LIMITED_PER_CLIENT_LOW = 80;
+    private static final double RATE_LIMITED_PER_CLIENT_HIGH = 1000;
+    /**
+     * How far behind the shared rate its permits can still be claimed, so clients that were descheduled past their
+     * turn do not drag the total below it; after an idle spell this lets 100 requests through at once at 10k per second
+     */
+    private static final long RATE_LIMITED_CATCH_UP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** Open-loop mode: in-flight limit per channel (the backlog takes the rest), and how many keys to cycle through */
+    private static final int OPEN_LOOP_WINDOW = 1024;
+    private static final int OPEN_LOOP_KEYS = 10000;
+
+    /** Multi-JVM mode: worker JVMs, the total rate they share (also run from this JVM alone, for comparison), warmup */
+    private static final int MULTI_JVM_WORKERS = 4;
+    private static final double MULTI_JVM_RATE = 20000;
+    private static final int MULTI_JVM_WARMUP_SECONDS = 1;
+
+    /** Saturation search: first rate, growth per step, step length, when to stop, and the SLO (overridable) */
+    private static final double SATURATION_START_RATE = 1000;
+    private static final double SATURATION_STEP_FACTOR = 1.5;
+    private static final long SATURATION_STEP_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final double SATURATION_PLATEAU_GAIN = 0.05;
+    private static final int SATURATION_MAX_STEPS = 20;
+    private static final long SATURATION_SLO_MILLIS = 50;
+    private static final String SATURATION_SLO_PROPERTY = "frobber.sloP99Millis";
+
     private ExecutorService executor;
 
     public ThroughputTest(InetAddress host, int port) throws IOException {
@@ -38,6 +114,111 @@ public class ThroughputTest extends TestSuite {
 
         // 100-client throughput test
         testThroughput(100);
+
+        // same workload for a fixed time, measured only once the server has warmed up
+        testTimedThroughput(1, TIMED_PHASES);
+        testTimedThroughput(10, TIMED_PHASES);
+        testTimedThroughput(100, TIMED_PHASES);
+
+        // YCSB-style operation mixes, e.g. mostly reads like production traffic
+        testWorkloads(WORKLOAD_CLIENTS, WORKLOAD_PHASES);
+        testValueSizes(WORKLOAD_CLIENTS, WORKLOAD_PHASES);
+
+        // same load from a single thread, with many requests in flight instead of many blocking clients
+        testPipelinedThroughput(10);
+        testPipelinedThroughput(100);
+
+        // many sequential logical clients multiplexed over a few selector threads
+        testReactorThroughput(1000, 100);
+        testReactorThroughput(10000, 10);
+
+        // the same clients held to a target rate, blocking and async
+        testRateLimited(RATE_LIMITED_CLIENTS, RATE_LIMITED_GLOBAL, RATE_LIMITED_PER_CLIENT_LOW, WORKLOAD_PHASES);
+        testRateLimited(RATE_LIMITED_CLIENTS, RATE_LIMITED_GLOBAL, RATE_LIMITED_PER_CLIENT_HIGH, WORKLOAD_PHASES);
+        testReactorThroughput(1000, 10, new RateLimiter(RATE_LIMITED_GLOBAL, 1, RATE_LIMITED_CATCH_UP_NANOS));
+
+        // blocking clients on platform threads, then on virtual threads at a scale platform threads can't reach
+        testClientThreads(ClientThreads.PLATFORM, CLIENT_THREADS_PLATFORM, CLIENT_THREADS_PHASES);
+        if (ClientThreads.VIRTUAL.isAvailable()) {
+            testClientThreads(ClientThreads.VIRTUAL, CLIENT_THREADS_PLATFORM, CLIENT_THREADS_PHASES);
+            testClientThreads(ClientThreads.VIRTUAL, CLIENT_THREADS_VIRTUAL, CLIENT_THREADS_PHASES);
+        } else {
+            printLine(String.format("Skipping virtual thread clients: they need Java 21, running on %s\n",
+                    System.getProperty("java.version")));
+        }
+
+        // requests sent on a schedule regardless of replies, so server stalls show up in the latencies
+        testOpenLoopThroughput(5000, 5, 0, Arrivals.FIXED);
+        testOpenLoopThroughput(5000, 5, 0, Arrivals.POISSON);
+
+        // the same load from several client JVMs, so the client isn't the bottleneck
+        testOpenLoopThroughput(MULTI_JVM_RATE, 5, MULTI_JVM_WARMUP_SECONDS, Arrivals.POISSON);
+        testMultiJvmOpenLoop(MULTI_JVM_WORKERS, MULTI_JVM_RATE, 5, Arrivals.POISSON);
+
+        // ramp the open-loop rate to find where the node stops keeping up
+        testSaturation(Arrivals.POISSON);
+
+        printRttSummary();
+        printOverloadSummary();
+    }
+
+    /**
+     * @return Cumulative first transmissions, retransmissions and expired requests to the node under test.
+     */
+    private long[] rttCounters() {
+        RttEstimator rtt = RttEstimator.forNode(new InetSocketAddress(host, port));
+        return new long[] {rtt.getTransmissions(), rtt.getRetransmissions(), rtt.getExpired()};
+    }
+
+    /**
+     * Log how many retransmissions the client added on top of the requests it meant to send since {@code before}.
+     */
+    private void printRetransmissions(long[] before) {
+        printRetransmissions(before, rttCounters());
+    }
+
+    /**
+     * Same as {@link #printRetransmissions(long[])}, between two earlier snapshots.
+     */
+    private void printRetransmissions(long[] before, long[] after) {
+        long sent = after[0] - before[0];
+        long retransmitted = after[1] - before[1];
+        printLine(String.format("Retransmissions: %d (+%.2f%% offered load), current RTO %.3f ms",
+                retransmitted, sent == 0 ? 0 : 100.0 * retransmitted / sent,
+                RttEstimator.forNode(new InetSocketAddress(host, port)).getRtoNanos() * 1e-6));
+    }
+
+    /**
+     * @return Cumulative overload replies, held requests, backoff time, completed requests and wire latency for the
+     * node under test.
+     */
+    private long[] overloadCounters() {
+        OverloadPacer pacer = OverloadPacer.forNode(new InetSocketAddress(host, port));
+        return new long[] {pacer.getOverloads(), pacer.getHeldRequests(), pacer.getBackoffNanos(),
+                pacer.getCompleted(), pacer.getLatencyNanos()};
+    }
+
+    /**
+     * Log the OVERLOAD replies since {@code before}, and split the time requests took into the backoff the node
+     * asked for and the latency it actually served them with.
+     */
+    private void printOverloads(long[] before) {
+        printOverloads(before, overloadCounters());
+    }
+
+    /**
+     * Same as {@link #printOverloads(long[])}, between two earlier snapshots.
+     */
+    private void printOverloads(long[] before, long[] after) {
+        long overloads = after[0] - before[0];
+        long held = after[1] - before[1];
+        double backoffMs = (after[2] - before[2]) * 1e-6;
+        long completed = after[3] - before[3];
+        double latencyMs = (after[4] - before[4]) * 1e-6;
+        printLine(String.format("Overload replies: %d, requests held back: %d, total backoff %.3f ms",
+                overloads, held, backoffMs));
+        printLine(String.format("Mean latency excluding backoff: %.3f ms (+%.3f ms mean backoff per request)",
+                completed == 0 ? 0 : latencyMs / completed, completed == 0 ? 0 : backoffMs / completed));
     }
 
     /**
@@ -60,6 +241,9 @@ public class ThroughputTest extends TestSuite {
         List<Future<Integer>> futures = new ArrayList<>();
         ByteString value = ByteString.copyFrom("oooo".getBytes());
 
+        long[] rttBefore = rttCounters();
+        long[] overloadBefore = overloadCounters();
+        CommandHistograms latencyBefore = latencySnapshot();
         long startTime = System.nanoTime();
 
         for (int i = 0; i < numClients; i++) {
@@ -145,9 +329,683 @@ public class ThroughputTest extends TestSuite {
         // calculate performance
         printLine(String.format("Average time per request: %.3f ms", totalTimeMs / totalResponses));
         printLine(String.format("Throughput: %.2f requests per second", totalResponses * 1000 / totalTimeMs));
+        printLatencies(latencyBefore);
+        printRetransmissions(rttBefore);
+        printOverloads(overloadBefore);
         printLine(String.format("Goodput: %.2f requests per second\n", goodResponses * 1000 / totalTimeMs));
 
         // return "success" if at least 3/4 of the requests were successful
         return goodResponses > (numClients * 150) ? 0 : 1;
     }
+
+    /**
+     * Same workload as {@link #testThroughput(int)}, but every client keeps going until the run is over instead of
+     * stopping after 100 pairs. Only the replies received during the measurement window are counted, so the numbers
+     * reflect a warmed-up server rather than cold start.
+     */
+    private int testTimedThroughput(int numClients, Phases phases) throws IOException {
+        printLine(String.format("[TEST: %d clients, PUTs and GETs for %s]", numClients, phases.format()));
+
+        // send a clear command
+        KVResponse response = client.sendWipeout();
+        if (response == null || response.getErrCode() != ErrCode.OKAY) {
+            return timeout();
+        }
+
+        ByteString value = ByteString.copyFrom("oooo".getBytes());
+        return runTimed(numClients, phases, (localClient, clientId, j, successes, timeouts, failures) -> {
+            ByteString key = ByteString.copyFrom(ByteBuffer.allocate(4)
+                    .putInt(j % TIMED_KEYS_PER_CLIENT + clientId * TIMED_KEYS_PER_CLIENT).array());
+            tally(localClient.sendPut(key, value), successes, timeouts, failures);
+            tally(localClient.sendGet(key), successes, timeouts, failures);
+        });
+    }
+
+    /**
+     * Run {@code numClients} independent blocking clients, each on a thread of its own, PUTting and GETting its own
+     * key one request at a time. The clients share the channels of a small {@link IOLoopGroup}, so the thread per
+     * client is the only per-client cost, which makes platform and virtual threads directly comparable.
+     */
+    private int testClientThreads(ClientThreads threads, int numClients, Phases phases) throws IOException {
+        printLine(String.format("[TEST: %d blocking clients on %s over %d selector threads x %d channels, PUTs and "
+                        + "GETs for %s]", numClients, threads.format(), REACTOR_LOOPS, REACTOR_CHANNELS_PER_LOOP,
+                phases.format()));
+
+        // send a clear command
+        KVResponse response = client.sendWipeout();
+        if (response == null || response.getErrCode() != ErrCode.OKAY) {
+            return timeout();
+        }
+
+        // every client has at most one request outstanding, so the window never holds anyone back
+        int windowPerChannel = numClients / (REACTOR_LOOPS * REACTOR_CHANNELS_PER_LOOP) + 1;
+        ByteString value = ByteString.copyFrom("oooo".getBytes());
+        ExecutorService clientExecutor = threads.newExecutor();
+        try (IOLoopGroup group = new IOLoopGroup(REACTOR_LOOPS, REACTOR_CHANNELS_PER_LOOP, windowPerChannel)) {
+            return runTimed(clientExecutor, group, null, numClients, phases,
+                    (localClient, clientId, j, successes, timeouts, failures) -> {
+                ByteString key = ByteString.copyFrom(ByteBuffer.allocate(4).putInt(clientId).array());
+                tally(localClient.sendPut(key, value), successes, timeouts, failures);
+                tally(localClient.sendGet(key), successes, timeouts, failures);
+            });
+        } finally {
+            clientExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Blocking PUT/GET clients as in {@link #testTimedThroughput}, each paced to {@code perClientRate} by a limiter
+     * of its own and all of them together to {@code globalRate} by a shared one, whichever is stricter.
+     */
+    private int testRateLimited(int numClients, double globalRate, double perClientRate, Phases phases)
+            throws IOException {
+        printLine(String.format("[TEST: %d clients paced to %.0f requests per second each and %.0f in total "
+                        + "(expect %.0f), PUTs and GETs for %s]", numClients, perClientRate, globalRate,
+                Math.min(globalRate, numClients * perClientRate), phases.format()));
+
+        // send a clear command
+        KVResponse response = client.sendWipeout();
+        if (response == null || response.getErrCode() != ErrCode.OKAY) {
+            return timeout();
+        }
+
+        // each client is spaced exactly evenly, and the shared limiter catches up on permits its clients were late for
+        RateLimiter global = new RateLimiter(globalRate, 1, RATE_LIMITED_CATCH_UP_NANOS);
+        ByteString value = ByteString.copyFrom("oooo".getBytes());
+        return runTimed(executor, null,
+                (localClient, clientId) -> localClient.setRateLimiters(new RateLimiter(perClientRate, 1), global),
+                numClients, phases, (localClient, clientId, j, successes, timeouts, failures) -> {
+            ByteString key = ByteString.copyFrom(ByteBuffer.allocate(4)
+                    .putInt(j % TIMED_KEYS_PER_CLIENT + clientId * TIMED_KEYS_PER_CLIENT).array());
+            tally(localClient.sendPut(key, value), successes, timeouts, failures);
+            tally(localClient.sendGet(key), successes, timeouts, failures);
+        });
+    }
+
+    /**
+     * Wipe the server and PUT keys {@code 0 .. count - 1} through a pipelined transport.
+     * @return 0 if at least 3/4 of the keys were stored.
+     */
+    private int loadKeys(int count, ValuePool values) throws IOException {
+        printLine(String.format("[TEST: load %d keys with %s values]", count, values.getSizes().format()));
+
+        // send a clear command
+        KVResponse response = client.sendWipeout();
+        if (response == null || response.getErrCode() != ErrCode.OKAY) {
+            return timeout();
+        }
+
+        AtomicInteger loaded = new AtomicInteger(0);
+        AtomicInteger loadTimeouts = new AtomicInteger(0);
+        AtomicInteger loadFailures = new AtomicInteger(0);
+        long startTime = System.nanoTime();
+        try (PipelinedTransport transport = new PipelinedTransport(WORKLOAD_LOAD_WINDOW)) {
+            TestClient loader = new TestClient(host, port, transport);
+            CompletableFuture<?>[] puts = new CompletableFuture<?>[count];
+            for (int k = 0; k < count; k++) {
+                puts[k] = loader.sendPutAsync(KeySpace.encode(k), values.next())
+                        .thenAccept(putResponse -> tally(putResponse, loaded, loadTimeouts, loadFailures));
+            }
+            CompletableFuture.allOf(puts).join();
+        }
+        printLine(String.format("Loaded %d keys in %.3f milliseconds (%d failed, %d timed out)\n",
+                loaded.get(), (System.nanoTime() - startTime) * 1e-6, loadFailures.get(), loadTimeouts.get()));
+        return loaded.get() >= count * 3 / 4 ? 0 : fail();
+    }
+
+    /**
+     * Load {@code WORKLOAD_RECORDS} keys, then run every standard workload profile against them in turn.
+     */
+    private int testWorkloads(int numClients, Phases phases) throws IOException {
+        ValuePool values = new ValuePool(ValueSizes.constant(WORKLOAD_VALUE_SIZE));
+        if (loadKeys(WORKLOAD_RECORDS, values) != 0) {
+            return 1;
+        }
+
+        KeySpace keys = new KeySpace(WORKLOAD_RECORDS);
+        List<Workload> workloads = Workload.standard();
+        // the same read-mostly mix with no skew and with a simple hot set, to compare against Zipfian
+        workloads.add(Workload.readMostly().withKeys(new UniformKeyChooser()));
+        workloads.add(Workload.readMostly().withKeys(new HotspotKeyChooser(0.2, 0.8)));
+
+        int failures = 0;
+        for (Workload workload : workloads) {
+            printLine(String.format("[TEST: %s workload, %d clients, %s]",
+                    workload.format(), numClients, phases.format()));
+            failures += runTimed(numClients, phases, (localClient, clientId, j, successes, timeouts, fails) ->
+                    runOperation(localClient, workload, keys, values, successes, timeouts, fails));
+        }
+        return failures;
+    }
+
+    /**
+     * Run the update-heavy mix with each value size distribution in turn, to see how throughput and latency scale
+     * with payload size. Only {@code VALUE_SIZE_KEYS} keys are used so that large values fit in the server.
+     */
+    private int testValueSizes(int numClients, Phases phases) throws IOException {
+        List<ValueSizes> distributions = new ArrayList<>();
+        distributions.add(ValueSizes.constant(10));
+        distributions.add(ValueSizes.constant(100));
+        distributions.add(ValueSizes.constant(1000));
+        distributions.add(ValueSizes.constant(ValueSizes.MAX_SIZE));
+        distributions.add(ValueSizes.uniform(1, ValueSizes.MAX_SIZE));
+        String histogramFile = System.getProperty(VALUE_SIZE_HISTOGRAM_PROPERTY);
+        if (histogramFile != null) {
+            try {
+                distributions.add(ValueSizes.fromHistogramFile(histogramFile));
+            } catch (IOException e) {
+                printLine("Skipping value size histogram: " + e.getMessage());
+            }
+        }
+
+        if (loadKeys(VALUE_SIZE_KEYS, new ValuePool(ValueSizes.constant(WORKLOAD_VALUE_SIZE))) != 0) {
+            return 1;
+        }
+        KeySpace keys = new KeySpace(VALUE_SIZE_KEYS);
+        Workload workload = Workload.updateHeavy().withKeys(new UniformKeyChooser());
+
+        int failures = 0;
+        for (ValueSizes sizes : distributions) {
+            ValuePool values = new ValuePool(sizes);
+            printLine(String.format("[TEST: %s workload, %s values (mean %.0f B), %d clients, %s]",
+                    workload.format(), sizes.format(), sizes.getMean(), numClients, phases.format()));
+            failures += runTimed(numClients, phases, (localClient, clientId, j, successes, timeouts, fails) ->
+                    runOperation(localClient, workload, keys, values, successes, timeouts, fails));
+        }
+        return failures;
+    }
+
+    /**
+     * Run the next operation of {@code workload}, blocking until it is done.
+     */
+    private static void runOperation(TestClient client, Workload workload, KeySpace keys, ValuePool values,
+                                     AtomicInteger successes, AtomicInteger timeouts, AtomicInteger failures)
+            throws IOException {
+        switch (workload.nextOperation()) {
+        case READ:
+            tally(client.sendGet(KeySpace.encode(workload.nextKey(keys))), successes, timeouts, failures);
+            break;
+        case UPDATE:
+            tally(client.sendPut(KeySpace.encode(workload.nextKey(keys)), values.next()),
+                    successes, timeouts, failures);
+            break;
+        case INSERT:
+            long newKey = keys.beginInsert();
+            tally(client.sendPut(KeySpace.encode(newKey), values.next()), successes, timeouts, failures);
+            // end it even if it failed, so later inserts become visible; reads of this key will just miss
+            keys.endInsert(newKey);
+            break;
+        case READ_MODIFY_WRITE:
+            ByteString key = KeySpace.encode(workload.nextKey(keys));
+            KVResponse read = client.sendGet(key);
+            tally(read, successes, timeouts, failures);
+            if (read != null && read.getErrCode() == ErrCode.OKAY) {
+                tally(client.sendPut(key, values.next(), read.getVersion() + 1), successes, timeouts, failures);
+            }
+            break;
+        }
+    }
+
+    /**
+     * One iteration of a time-boxed client: send some requests and count their outcomes.
+     */
+    private interface TimedClientStep {
+        void run(TestClient client, int clientId, int iteration, AtomicInteger successes, AtomicInteger timeouts,
+                 AtomicInteger failures) throws IOException;
+    }
+
+    /**
+     * Run {@code numClients} blocking clients, each repeating {@code step} until the run is over, and report the
+     * replies received during the measurement window.
+     */
+    private int runTimed(int numClients, Phases phases, TimedClientStep step) {
+        return runTimed(executor, null, null, numClients, phases, step);
+    }
+
+    /**
+     * As {@link #runTimed(int, Phases, TimedClientStep)}, with every client running on {@code clientExecutor}.
+     * @param group If not null, clients share its transports instead of opening a socket each.
+     * @param setup If not null, called with each client and its ID before the client starts, e.g. to pace it.
+     */
+    private int runTimed(ExecutorService clientExecutor, IOLoopGroup group, BiConsumer<TestClient, Integer> setup,
+                         int numClients, Phases phases, TimedClientStep step) {
+        AtomicInteger totalSuccesses = new AtomicInteger(0);
+        AtomicInteger totalTimeouts = new AtomicInteger(0);
+        AtomicInteger totalFailures = new AtomicInteger(0);
+        AtomicBoolean stop = new AtomicBoolean(false);
+
+        List<Future<Integer>> futures = new ArrayList<>();
+
+        for (int i = 0; i < numClients; i++) {
+            final int clientId = i;  // make a final copy for use within the anonymous function
+            futures.add(clientExecutor.submit(() -> {
+                try {
+                    TestClient localClient = group == null
+                            ? new TestClient(host, port) : new TestClient(host, port, group.nextTransport());
+                    if (setup != null) {
+                        setup.accept(localClient, clientId);
+                    }
+                    for (int j = 0; !stop.get(); j++) {
+                        step.run(localClient, clientId, j, totalSuccesses, totalTimeouts, totalFailures);
+                    }
+                    localClient.close();
+                    return 0;
+                } catch (IOException e) {
+                    // shrug?
+                    return 0;
+                }
+            }));
+        }
+
+        // snapshot every counter at the edges of the measurement window
+        long start = System.nanoTime();
+        int[] countsBefore;
+        int[] countsAfter;
+        long[] rttBefore;
+        long[] rttAfter;
+        long[] overloadBefore;
+        long[] overloadAfter;
+        CommandHistograms latencyBefore;
+        CommandHistograms latencyAfter;
+        long measureStart;
+        long measureEnd;
+        try {
+            Phases.sleepUntil(start, phases.getWarmupNanos());
+            measureStart = System.nanoTime();
+            countsBefore = new int[] {totalSuccesses.get(), totalTimeouts.get(), totalFailures.get()};
+            rttBefore = rttCounters();
+            overloadBefore = overloadCounters();
+            latencyBefore = latencySnapshot();
+
+            Phases.sleepUntil(start, phases.getWarmupNanos() + phases.getMeasureNanos());
+            measureEnd = System.nanoTime();
+            countsAfter = new int[] {totalSuccesses.get(), totalTimeouts.get(), totalFailures.get()};
+            rttAfter = rttCounters();
+            overloadAfter = overloadCounters();
+            latencyAfter = latencySnapshot();
+
+            Phases.sleepUntil(start, phases.getTotalNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop.set(true);
+            printLine("Interrupted while running time-boxed test");
+            return timeout();
+        } finally {
+            stop.set(true);
+        }
+
+        for (Future<Integer> f: futures) {
+            try {
+                f.get();  // this will not complete until thread finishes
+            } catch (InterruptedException | ExecutionException e) {
+                // no idea what could throw these
+                printLine("Caught an exception while running time-boxed test:");
+                printLine(e.getMessage());
+            }
+        }
+
+        // log results, for the measurement window only
+        double totalTimeMs = (measureEnd - measureStart) * 1e-6;
+        printLine(String.format("Measured for %.3f milliseconds", totalTimeMs));
+
+        int goodResponses = countsAfter[0] - countsBefore[0];
+        int timeouts = countsAfter[1] - countsBefore[1];
+        int failures = countsAfter[2] - countsBefore[2];
+        int totalResponses = goodResponses + failures;
+        printLine(String.format("Total responses received: %d", totalResponses));
+        printLine(String.format("Total successful requests: %d", goodResponses));
+        printLine(String.format("Total failed requests: %d", failures));
+        printLine(String.format("Total timed out: %d", timeouts));
+
+        // calculate performance
+        printLine(String.format("Throughput: %.2f requests per second", totalResponses * 1000 / totalTimeMs));
+        printLatencies("Latency", latencyAfter.minus(latencyBefore));
+        printRetransmissions(rttBefore, rttAfter);
+        printOverloads(overloadBefore, overloadAfter);
+        printLine(String.format("Goodput: %.2f requests per second\n", goodResponses * 1000 / totalTimeMs));
+
+        // same 3/4 success criterion as the other tests
+        return goodResponses > (goodResponses + timeouts + failures) * 3 / 4 ? 0 : 1;
+    }
+
+    /**
+     * Same workload as {@link #testThroughput(int)}, but driven by a single thread that keeps {@code windowSize}
+     * requests in flight on one pipelined transport. Each key is a PUT -> GET chain composed on the I/O loop.
+     */
+    private int testPipelinedThroughput(int windowSize) throws IOException {
+        printLine(String.format("[TEST: 1 pipelined client, window of %d, %d PUTs and GETs]",
+                windowSize, windowSize * 100));
+
+        // send a clear command
+        KVResponse response = client.sendWipeout();
+        if (response == null || response.getErrCode() != ErrCode.OKAY) {
+            return timeout();
+        }
+
+        int numKeys = windowSize * 100;
+        ByteString value = ByteString.copyFrom("oooo".getBytes());
+
+        AtomicInteger totalSuccesses = new AtomicInteger(0);
+        AtomicInteger totalTimeouts = new AtomicInteger(0);
+        AtomicInteger totalFailures = new AtomicInteger(0);
+
+        long[] rttBefore = rttCounters();
+        long[] overloadBefore = overloadCounters();
+        CommandHistograms latencyBefore = latencySnapshot();
+        long startTime = System.nanoTime();
+        try (PipelinedTransport transport = new PipelinedTransport(windowSize)) {
+            TestClient localClient = new TestClient(host, port, transport);
+            CompletableFuture<?>[] chains = new CompletableFuture<?>[numKeys];
+
+            for (int j = 0; j < numKeys; j++) {
+                ByteString key = ByteString.copyFrom(ByteBuffer.allocate(4).putInt(j).array());
+                chains[j] = localClient.sendPutAsync(key, value)
+                        .thenCompose(putResponse -> {
+                            tally(putResponse, totalSuccesses, totalTimeouts, totalFailures);
+                            return localClient.sendGetAsync(key);
+                        })
+                        .thenAccept(getResponse -> tally(getResponse, totalSuccesses, totalTimeouts, totalFailures));
+            }
+            CompletableFuture.allOf(chains).join();
+            printLine(String.format("Send buffers allocated for %d requests: %d",
+                    numKeys * 2, transport.getBufferAllocationCount()));
+        } catch (CompletionException e) {
+            printLine("Caught an exception while running pipelined throughput test:");
+            printLine(e.getCause().getMessage());
+        }
+
+        long execTime = System.nanoTime() - startTime;
+
+        // log results
+        double totalTimeMs = execTime * 1e-6;
+        printLine(String.format("Test completed in %.3f milliseconds", totalTimeMs));
+
+        int goodResponses = totalSuccesses.get();
+        int totalResponses = goodResponses + totalFailures.get();
+        printLine(String.format("Total responses received: %d", totalResponses));
+        printLine(String.format("Total successful requests: %d", goodResponses));
+        printLine(String.format("Total failed requests: %d", totalFailures.get()));
+        printLine(String.format("Total timed out: %d", totalTimeouts.get()));
+
+        // calculate performance
+        printLine(String.format("Throughput: %.2f requests per second", totalResponses * 1000 / totalTimeMs));
+        printLatencies(latencyBefore);
+        printRetransmissions(rttBefore);
+        printOverloads(overloadBefore);
+        printLine(String.format("Goodput: %.2f requests per second\n", goodResponses * 1000 / totalTimeMs));
+
+        // same 3/4 success criterion as the blocking test
+        return goodResponses > (windowSize * 150) ? 0 : 1;
+    }
+
+    /**
+     * Count the outcome of one request.
+     */
+    private static void tally(KVResponse response, AtomicInteger successes, AtomicInteger timeouts,
+                              AtomicInteger failures) {
+        if (response == null) {
+            timeouts.incrementAndGet();
+        } else if (response.getErrCode() == ErrCode.OKAY) {
+            successes.incrementAndGet();
+        } else {
+            failures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Simulate {@code numClients} independent clients, each sending {@code pairsPerClient} PUT -> GET pairs one
+     * request at a time, all multiplexed over a small {@link IOLoopGroup} instead of a thread and socket each.
+     */
+    private int testReactorThroughput(int numClients, int pairsPerClient) throws IOException {
+        return testReactorThroughput(numClients, pairsPerClient, null);
+    }
+
+    /**
+     * As {@link #testReactorThroughput(int, int)}, with every request taking a permit from {@code limiter} through
+     * the async client API, if it is not null.
+     */
+    private int testReactorThroughput(int numClients, int pairsPerClient, RateLimiter limiter) throws IOException {
+        printLine(String.format("[TEST: %d logical clients on %d selector threads x %d channels, "
+                        + "%d PUTs and GETs per client%s]",
+                numClients, REACTOR_LOOPS, REACTOR_CHANNELS_PER_LOOP, pairsPerClient,
+                limiter == null ? "" : ", paced to " + limiter.format() + " in total"));
+
+        // send a clear command
+        KVResponse response = client.sendWipeout();
+        if (response == null || response.getErrCode() != ErrCode.OKAY) {
+            return timeout();
+        }
+
+        AtomicInteger totalSuccesses = new AtomicInteger(0);
+        AtomicInteger totalTimeouts = new AtomicInteger(0);
+        AtomicInteger totalFailures = new AtomicInteger(0);
+        ByteString value = ByteString.copyFrom("oooo".getBytes());
+
+        // every logical client has at most one request outstanding, so the window never holds anyone back
+        int channels = REACTOR_LOOPS * REACTOR_CHANNELS_PER_LOOP;
+        int windowPerChannel = numClients / channels + 1;
+
+        long[] rttBefore = rttCounters();
+        long[] overloadBefore = overloadCounters();
+        CommandHistograms latencyBefore = latencySnapshot();
+        long startTime = System.nanoTime();
+        try (IOLoopGroup group = new IOLoopGroup(REACTOR_LOOPS, REACTOR_CHANNELS_PER_LOOP, windowPerChannel)) {
+            CompletableFuture<?>[] clients = new CompletableFuture<?>[numClients];
+            for (int i = 0; i < numClients; i++) {
+                TestClient logicalClient = new TestClient(host, port, group.nextTransport());
+                if (limiter != null) {
+                    logicalClient.setRateLimiters(limiter);
+                }
+                clients[i] = runSequentialClient(logicalClient, i * pairsPerClient, 0, pairsPerClient, value,
+                        totalSuccesses, totalTimeouts, totalFailures);
+            }
+            CompletableFuture.allOf(clients).join();
+        } catch (CompletionException e) {
+            printLine("Caught an exception while running reactor throughput test:");
+            printLine(e.getCause().getMessage());
+        }
+
+        long execTime = System.nanoTime() - startTime;
+
+        // log results
+        double totalTimeMs = execTime * 1e-6;
+        printLine(String.format("Test completed in %.3f milliseconds", totalTimeMs));
+
+        int goodResponses = totalSuccesses.get();
+        int totalResponses = goodResponses + totalFailures.get();
+        printLine(String.format("Total responses received: %d", totalResponses));
+        printLine(String.format("Total successful requests: %d", goodResponses));
+        printLine(String.format("Total failed requests: %d", totalFailures.get()));
+        printLine(String.format("Total timed out: %d", totalTimeouts.get()));
+
+        // calculate performance
+        printLine(String.format("Throughput: %.2f requests per second", totalResponses * 1000 / totalTimeMs));
+        printLatencies(latencyBefore);
+        printRetransmissions(rttBefore);
+        printOverloads(overloadBefore);
+        printLine(String.format("Goodput: %.2f requests per second\n", goodResponses * 1000 / totalTimeMs));
+
+        // same 3/4 success criterion as the blocking test
+        return goodResponses > (numClients * pairsPerClient * 3 / 2) ? 0 : 1;
+    }
+
+    /**
+     * One logical client: PUT then GET key {@code firstKey + j}, and only then move on to {@code j + 1}.
+     * @return A future that completes once all {@code pairs} pairs are done.
+     */
+    private static CompletableFuture<Void> runSequentialClient(TestClient client, int firstKey, int j, int pairs,
+                                                               ByteString value, AtomicInteger successes,
+                                                               AtomicInteger timeouts, AtomicInteger failures) {
+        if (j == pairs) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        ByteString key = ByteString.copyFrom(ByteBuffer.allocate(4).putInt(firstKey + j).array());
+        return client.sendPutAsync(key, value)
+                .thenCompose(putResponse -> {
+                    tally(putResponse, successes, timeouts, failures);
+                    return client.sendGetAsync(key);
+                })
+                .thenCompose(getResponse -> {
+                    tally(getResponse, successes, timeouts, failures);
+                    return runSequentialClient(client, firstKey, j + 1, pairs, value, successes, timeouts, failures);
+                });
+    }
+
+    /**
+     * Send alternating PUTs and GETs at a fixed rate for {@code seconds}, without waiting for replies, and report
+     * latency percentiles both from each request's intended send time (corrected for coordinated omission) and from
+     * when it actually went out. A warmup of {@code warmupSeconds} at the same rate comes first and is not reported.
+     */
+    private int testOpenLoopThroughput(double rate, int seconds, int warmupSeconds, Arrivals arrivals)
+            throws IOException {
+        printLine(String.format("[TEST: open loop, %.0f requests per second with %s arrivals for %d s after %d s "
+                + "warmup]", rate, arrivals.format(), seconds, warmupSeconds));
+
+        // send a clear command
+        KVResponse response = client.sendWipeout();
+        if (response == null || response.getErrCode() != ErrCode.OKAY) {
+            return timeout();
+        }
+
+        long[] rttBefore;
+        long[] overloadBefore;
+        OpenLoopGenerator.Result result;
+        try (IOLoopGroup group = new IOLoopGroup(REACTOR_LOOPS, REACTOR_CHANNELS_PER_LOOP, OPEN_LOOP_WINDOW)) {
+            OpenLoopGenerator generator = new OpenLoopGenerator(group, new InetSocketAddress(host, port), rate,
+                    arrivals);
+            Supplier<KVRequest> requests = openLoopRequests();
+            if (warmupSeconds > 0) {
+                generator.run(requests, TimeUnit.SECONDS.toNanos(warmupSeconds));
+            }
+            rttBefore = rttCounters();
+            overloadBefore = overloadCounters();
+            result = generator.run(requests, TimeUnit.SECONDS.toNanos(seconds));
+        }
+
+        // log results
+        double totalTimeMs = result.getElapsedNanos() * 1e-6;
+        double sendTimeMs = result.getSendNanos() * 1e-6;
+        printLine(String.format("Test completed in %.3f milliseconds", totalTimeMs));
+        printLine(String.format("Total requests sent: %d (%.2f per second, fell behind schedule by up to %.3f ms)",
+                result.getSent(), result.getSent() * 1000 / sendTimeMs, result.getMaxLagNanos() * 1e-6));
+        printLine(String.format("Total successful requests: %d", result.getSuccesses()));
+        printLine(String.format("Total failed requests: %d", result.getFailures()));
+        printLine(String.format("Total timed out: %d", result.getTimeouts()));
+        printLine("Latency from intended send time: " + result.getCorrected().format());
+        printLine("Latency from actual send time:   " + result.getUncorrected().format());
+        printLatencies("Latency from intended send time,", result.getCommandLatencies());
+        printRetransmissions(rttBefore);
+        printOverloads(overloadBefore);
+        printLine(String.format("Goodput: %.2f requests per second\n", result.getSuccesses() * 1000 / sendTimeMs));
+
+        // same 3/4 success criterion as the closed-loop tests
+        return result.getSuccesses() > result.getSent() * 3 / 4 ? 0 : 1;
+    }
+
+    /**
+     * The same open-loop PUT/GET load as {@link #testOpenLoopThroughput}, generated by {@code workers} forked JVMs,
+     * each sending {@code 1 / workers} of the rate over its own shard of the keys. Their histograms and counters are
+     * merged into one report.
+     */
+    private int testMultiJvmOpenLoop(int workers, double rate, int seconds, Arrivals arrivals) throws IOException {
+        printLine(String.format("[TEST: open loop from %d worker JVMs, %.0f requests per second in total with %s "
+                + "arrivals for %d s after %d s warmup]", workers, rate, arrivals.format(), seconds,
+                MULTI_JVM_WARMUP_SECONDS));
+
+        // send a clear command
+        KVResponse response = client.sendWipeout();
+        if (response == null || response.getErrCode() != ErrCode.OKAY) {
+            return timeout();
+        }
+
+        if (Runtime.getRuntime().availableProcessors() <= workers) {
+            printLine(String.format("Only %d processors for %d workers and the I/O threads: expect CPU-bound results",
+                    Runtime.getRuntime().availableProcessors(), workers));
+        }
+        LoadCoordinator coordinator = new LoadCoordinator(workers, new InetSocketAddress(host, port), rate, arrivals,
+                OPEN_LOOP_KEYS);
+        LoadCoordinator.Report report;
+        try {
+            report = coordinator.run(TimeUnit.SECONDS.toNanos(MULTI_JVM_WARMUP_SECONDS),
+                    TimeUnit.SECONDS.toNanos(seconds));
+        } catch (IOException e) {
+            printLine("Could not run the worker JVMs: " + e.getMessage());
+            return fail();
+        }
+
+        // log results
+        OpenLoopGenerator.Result result = report.getMerged();
+        double totalTimeMs = result.getElapsedNanos() * 1e-6;
+        double sendTimeMs = result.getSendNanos() * 1e-6;
+        printLine(String.format("Test completed in %.3f milliseconds (slowest worker)", totalTimeMs));
+        printLine(String.format("Total requests sent: %d (%.2f per second, fell behind schedule by up to %.3f ms)",
+                result.getSent(), result.getSent() * 1000 / sendTimeMs, result.getMaxLagNanos() * 1e-6));
+        printLine(String.format("Total successful requests: %d", result.getSuccesses()));
+        printLine(String.format("Total failed requests: %d", result.getFailures()));
+        printLine(String.format("Total timed out: %d", result.getTimeouts()));
+        for (int i = 0; i < report.getWorkers().size(); i++) {
+            OpenLoopGenerator.Result worker = report.getWorkers().get(i);
+            printLine(String.format("Worker %d: sent %d, %d successful, lag up to %.3f ms, p99 %.3f ms", i,
+                    worker.getSent(), worker.getSuccesses(), worker.getMaxLagNanos() * 1e-6,
+                    worker.getCorrected().getPercentileMicros(99) * 1e-3));
+        }
+        printLine("Latency from intended send time: " + result.getCorrected().format());
+        printLine("Latency from actual send time:   " + result.getUncorrected().format());
+        printLatencies("Latency from intended send time,", result.getCommandLatencies());
+        long sent = report.getTransmissions();
+        printLine(String.format("Retransmissions: %d (+%.2f%% offered load)", report.getRetransmissions(),
+                sent == 0 ? 0 : 100.0 * report.getRetransmissions() / sent));
+        printLine(String.format("Goodput: %.2f requests per second\n", result.getSuccesses() * 1000 / sendTimeMs));
+
+        // same 3/4 success criterion as the closed-loop tests
+        return result.getSuccesses() > result.getSent() * 3 / 4 ? 0 : 1;
+    }
+
+    /**
+     * @return Requests for the open-loop tests: PUT key i, then GET it on the next turn round, cycling through
+     * {@code OPEN_LOOP_KEYS} keys, exactly as the multi-JVM workers do between them. Not thread-safe.
+     */
+    private static Supplier<KVRequest> openLoopRequests() {
+        return LoadWorker.putGetRequests(0, OPEN_LOOP_KEYS);
+    }
+
+    /**
+     * Step up an open-loop PUT/GET load until p99 latency goes over the SLO or goodput stops rising, then report
+     * the load/latency curve, the knee and the highest sustainable rate.
+     */
+    private int testSaturation(Arrivals arrivals) throws IOException {
+        long sloNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong(SATURATION_SLO_PROPERTY, SATURATION_SLO_MILLIS));
+        printLine(String.format("[TEST: saturation search from %.0f requests per second, x%.2f per %.1f s step, "
+                        + "p99 SLO %.3f ms, %s arrivals]", SATURATION_START_RATE, SATURATION_STEP_FACTOR,
+                SATURATION_STEP_NANOS * 1e-9, sloNanos * 1e-6, arrivals.format()));
+
+        // send a clear command
+        KVResponse response = client.sendWipeout();
+        if (response == null || response.getErrCode() != ErrCode.OKAY) {
+            return timeout();
+        }
+
+        SaturationSearch search = new SaturationSearch(SATURATION_START_RATE, SATURATION_STEP_FACTOR,
+                SATURATION_STEP_NANOS, sloNanos, SATURATION_PLATEAU_GAIN, SATURATION_MAX_STEPS);
+        long[] rttBefore = rttCounters();
+        long[] overloadBefore = overloadCounters();
+        SaturationSearch.Result result;
+        try (IOLoopGroup group = new IOLoopGroup(REACTOR_LOOPS, REACTOR_CHANNELS_PER_LOOP, OPEN_LOOP_WINDOW)) {
+            result = search.run(group, new InetSocketAddress(host, port), arrivals, openLoopRequests(),
+                    step -> printLine("Step: " + step.format()));
+        }
+
+        printLine("Stopped: " + result.getStopReason());
+        SaturationSearch.Step knee = result.getKnee();
+        SaturationSearch.Step max = result.getMaxSustainable();
+        printLine("Knee: " + (knee == null ? "none, the first step was already past it" : knee.format()));
+        printLine(String.format("Max sustainable rate: %s",
+                max == null ? "none" : String.format("%.0f requests per second", max.getOfferedRate())));
+        printRetransmissions(rttBefore);
+        printOverloads(overloadBefore);
+        printLine("");
+
+        return max == null ? fail() : 0;
+    }
 }
@@ -0,0 +1,276 @@
+package me.lise.CPEN431.Frobber.util;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
+
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Decodes a {@code Msg} carrying a {@code KVResponse} in place, without copying it out of the receive buffer.
+ *
+ * The decoder only records where each field lives in the buffer, and the checksum is computed over the ID and
+ * payload regions directly. {@link #toResponse()} makes a standalone {@link KVResponse}, copying the value exactly
+ * once.
+ *
+ * One decoder is meant to be reused for every datagram on a socket, and is not thread-safe.
+ */
+public class MessageDecoder {
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRETYPE_FIXED32 = 5;
+
+    private final CRC32 crc = new CRC32();
+
+    private ByteBuffer buf;
+    private int pos;
+    private int end;
+
+    // Msg fields: offsets into buf, -1 if missing
+    private int idOffset;
+    private int idLength;
+    private int payloadOffset;
+    private int payloadLength;
+    private boolean hasCheckSum;
+    private long checkSum;
+
+    // KVResponse fields
+    private boolean hasErrCode;
+    private int errCode;
+    private int valueOffset;
+    private int valueLength;
+    private boolean hasPid;
+    private int pid;
+    private boolean hasVersion;
+    private int version;
+    private boolean hasOverloadWaitTime;
+    private int overloadWaitTime;
+    private boolean hasMembershipCount;
+    private int membershipCount;
+
+    /**
+     * Locate the fields of the {@code Msg} between the buffer's position and limit. Neither is modified.
+     * @return {@code false} if the bytes are malformed or a required field is missing.
+     */
+    public boolean decodeMessage(ByteBuffer buf) {
+        this.buf = buf;
+        this.pos = buf.position();
+        this.end = buf.limit();
+        idOffset = -1;
+        payloadOffset = -1;
+        hasCheckSum = false;
+
+        try {
+            while (pos < end) {
+                int tag = (int) readVarint();
+                int field = tag >>> 3;
+                int wireType = tag & 7;
+                if (field == 0) {
+                    return false;  // tag 0 is never valid
+                }
+                if (field == 1 && wireType == WIRETYPE_LENGTH_DELIMITED) {
+                    idLength = readLength();
+                    idOffset = pos;
+                    pos += idLength;
+                } else if (field == 2 && wireType == WIRETYPE_LENGTH_DELIMITED) {
+                    payloadLength = readLength();
+                    payloadOffset = pos;
+                    pos += payloadLength;
+                } else if (field == 3 && wireType == WIRETYPE_FIXED64) {
+                    checkSum = readFixed64();
+                    hasCheckSum = true;
+                } else if (!skipField(wireType)) {
+                    return false;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return false;  // truncated
+        }
+        return pos == end && idOffset >= 0 && payloadOffset >= 0 && hasCheckSum;
+    }
+
+    /**
+     * @return {@code true} if the checksum matches the ID and payload. Requires a successful {@link #decodeMessage}.
+     */
+    public boolean isChecksumValid() {
+        int position = buf.position();
+        int limit = buf.limit();
+
+        crc.reset();
+        buf.limit(idOffset + idLength).position(idOffset);
+        crc.update(buf);
+        buf.limit(payloadOffset + payloadLength).position(payloadOffset);
+        crc.update(buf);
+        buf.limit(limit).position(position);
+
+        return crc.getValue() == checkSum;
+    }
+
+    /**
+     * @return The sequence number of the message ID, or -1 if {@code ids} did not generate it.
+     */
+    public long getSequence(MessageIdGenerator ids) {
+        return ids.sequenceOf(buf, idOffset, idLength);
+    }
+
+    /**
+     * Locate the fields of the {@code KVResponse} inside the payload. Requires a successful {@link #decodeMessage}.
+     * @return {@code false} if the payload is malformed or has no error code.
+     */
+    public boolean decodeResponse() {
+        pos = payloadOffset;
+        end = payloadOffset + payloadLength;
+        hasErrCode = false;
+        valueOffset = -1;
+        hasPid = false;
+        hasVersion = false;
+        hasOverloadWaitTime = false;
+        hasMembershipCount = false;
+
+        try {
+            while (pos < end) {
+                int tag = (int) readVarint();
+                int field = tag >>> 3;
+                int wireType = tag & 7;
+                if (field == 0) {
+                    return false;  // tag 0 is never valid
+                }
+                if (wireType == WIRETYPE_VARINT && field >= 1 && field <= 6 && field != 2) {
+                    int v = (int) readVarint();  // uint32 and int32 both keep the low 32 bits
+                    switch (field) {
+                    case 1:
+                        errCode = v;
+                        hasErrCode = true;
+                        break;
+                    case 3:
+                        pid = v;
+                        hasPid = true;
+                        break;
+                    case 4:
+                        version = v;
+                        hasVersion = true;
+                        break;
+                    case 5:
+                        overloadWaitTime = v;
+                        hasOverloadWaitTime = true;
+                        break;
+                    case 6:
+                        membershipCount = v;
+                        hasMembershipCount = true;
+                        break;
+                    }
+                } else if (field == 2 && wireType == WIRETYPE_LENGTH_DELIMITED) {
+                    valueLength = readLength();
+                    valueOffset = pos;
+                    pos += valueLength;
+                } else if (!skipField(wireType)) {
+                    return false;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        }
+        return pos == end && hasErrCode;
+    }
+
+    public int getErrCode() {
+        return errCode;
+    }
+
+    public boolean hasValue() {
+        return valueOffset >= 0;
+    }
+
+    public boolean hasOverloadWaitTime() {
+        return hasOverloadWaitTime;
+    }
+
+    public int getOverloadWaitTime() {
+        return overloadWaitTime;
+    }
+
+    /**
+     * Build a {@link KVResponse} that no longer depends on the receive buffer. Requires a successful
+     * {@link #decodeResponse()}.
+     */
+    public KVResponse toResponse() {
+        KVResponse.Builder response = KVResponse.newBuilder().setErrCode(errCode);
+        if (hasValue()) {
+            byte[] value = new byte[valueLength];
+            int position = buf.position();
+            buf.position(valueOffset);
+            buf.get(value);
+            buf.position(position);
+            // the array is never touched again, so it can back the ByteString directly
+            response.setValue(UnsafeByteOperations.unsafeWrap(value));
+        }
+        if (hasPid) {
+            response.setPid(pid);
+        }
+        if (hasVersion) {
+            response.setVersion(version);
+        }
+        if (hasOverloadWaitTime) {
+            response.setOverloadWaitTime(overloadWaitTime);
+        }
+        if (hasMembershipCount) {
+            response.setMembershipCount(membershipCount);
+        }
+        return response.build();
+    }
+
+    private long readVarint() {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get(pos++);
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IndexOutOfBoundsException("malformed varint");
+    }
+
+    private int readLength() {
+        long length = readVarint();
+        if (length < 0 || length > end - pos) {
+            throw new IndexOutOfBoundsException("length past end of message");
+        }
+        return (int) length;
+    }
+
+    private long readFixed64() {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result |= (long) (buf.get(pos++) & 0xff) << (8 * i);  // little endian
+        }
+        return result;
+    }
+
+    /**
+     * Skip over a field we don't know, the same way the generated parser would.
+     * @return {@code false} for wire types this message can't contain (groups or garbage).
+     */
+    private boolean skipField(int wireType) {
+        switch (wireType) {
+        case WIRETYPE_VARINT:
+            readVarint();
+            return true;
+        case WIRETYPE_FIXED64:
+            pos += 8;
+            return pos <= end;
+        case WIRETYPE_LENGTH_DELIMITED:
+            // not pos += readLength(): that would add the length to pos from before the length was read
+            int length = readLength();
+            pos += length;
+            return true;
+        case WIRETYPE_FIXED32:
+            pos += 4;
+            return pos <= end;
+        default:
+            return false;
+        }
+    }
+}
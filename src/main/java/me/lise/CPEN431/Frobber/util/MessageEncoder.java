@@ -0,0 +1,145 @@
+package me.lise.CPEN431.Frobber.util;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Writes {@code Msg{messageID, payload = KVRequest, checkSum}} in protobuf wire format straight into a buffer.
+ *
+ * The generated classes need three passes for one request ({@code KVRequest.toByteArray()}, a copy into the
+ * {@code Msg} builder, then {@code Msg.toByteArray()}). This writes every byte once, then runs CRC32 over the ID and
+ * payload regions it just wrote. The output is byte-identical to the generated {@code Msg.toByteArray()}; unknown
+ * fields on the request are not written.
+ */
+public class MessageEncoder {
+    // tag = field number << 3 | wire type
+    private static final byte MSG_ID_TAG = (1 << 3) | 2;
+    private static final byte MSG_PAYLOAD_TAG = (2 << 3) | 2;
+    private static final byte MSG_CHECKSUM_TAG = (3 << 3) | 1;
+    private static final byte REQ_COMMAND_TAG = (1 << 3);
+    private static final byte REQ_KEY_TAG = (2 << 3) | 2;
+    private static final byte REQ_VALUE_TAG = (3 << 3) | 2;
+    private static final byte REQ_VERSION_TAG = (4 << 3);
+
+    private static final ThreadLocal<CRC32> crc32 = ThreadLocal.withInitial(CRC32::new);
+
+    /**
+     * @return The number of bytes {@link #encode} will write for this request.
+     */
+    public static int encodedSize(KVRequest request, int idLength) {
+        int payloadSize = payloadSize(request);
+        return 1 + varintSize(idLength) + idLength
+                + 1 + varintSize(payloadSize) + payloadSize
+                + 1 + 8;
+    }
+
+    /**
+     * Encode a message with a freshly generated ID at the buffer's position.
+     * @param out The buffer. Must have at least {@link #encodedSize} bytes remaining.
+     * @param ids The generator for this socket.
+     * @param request The payload.
+     * @return The sequence number of the ID that was used.
+     */
+    public static long encode(ByteBuffer out, MessageIdGenerator ids, KVRequest request) {
+        out.put(MSG_ID_TAG);
+        putVarint(out, MessageIdGenerator.ID_LENGTH);
+        int idStart = out.position();
+        long sequence = ids.next(out);
+        writePayloadAndChecksum(out, idStart, request);
+        return sequence;
+    }
+
+    /**
+     * Encode a message with the given ID at the buffer's position.
+     * @param out The buffer. Must have at least {@link #encodedSize} bytes remaining.
+     * @param id The message ID.
+     * @param request The payload.
+     */
+    public static void encode(ByteBuffer out, byte[] id, KVRequest request) {
+        out.put(MSG_ID_TAG);
+        putVarint(out, id.length);
+        int idStart = out.position();
+        out.put(id);
+        writePayloadAndChecksum(out, idStart, request);
+    }
+
+    private static void writePayloadAndChecksum(ByteBuffer out, int idStart, KVRequest request) {
+        int idEnd = out.position();
+
+        out.put(MSG_PAYLOAD_TAG);
+        putVarint(out, payloadSize(request));
+        int payloadStart = out.position();
+        out.put(REQ_COMMAND_TAG);
+        putVarint(out, request.getCommand() & 0xffffffffL);  // uint32
+        if (request.hasKey()) {
+            putBytes(out, REQ_KEY_TAG, request.getKey());
+        }
+        if (request.hasValue()) {
+            putBytes(out, REQ_VALUE_TAG, request.getValue());
+        }
+        if (request.hasVersion()) {
+            out.put(REQ_VERSION_TAG);
+            putVarint(out, request.getVersion());  // int32 is sign-extended to 64 bits on the wire
+        }
+        int payloadEnd = out.position();
+
+        // checksum the regions we just wrote, without copying them out
+        CRC32 crc = crc32.get();
+        crc.reset();
+        int limit = out.limit();
+        out.position(idStart).limit(idEnd);
+        crc.update(out);
+        out.limit(payloadEnd).position(payloadStart);
+        crc.update(out);
+        out.limit(limit).position(payloadEnd);
+
+        out.put(MSG_CHECKSUM_TAG);
+        long checksum = crc.getValue();
+        for (int i = 0; i < 8; i++) {
+            out.put((byte) checksum);  // fixed64 is little endian
+            checksum >>>= 8;
+        }
+    }
+
+    private static int payloadSize(KVRequest request) {
+        // the command tag and field are always present since command is required
+        int size = 1 + varintSize(request.getCommand() & 0xffffffffL);
+        if (request.hasKey()) {
+            size += 1 + varintSize(request.getKey().size()) + request.getKey().size();
+        }
+        if (request.hasValue()) {
+            size += 1 + varintSize(request.getValue().size()) + request.getValue().size();
+        }
+        if (request.hasVersion()) {
+            size += 1 + varintSize(request.getVersion());
+        }
+        return size;
+    }
+
+    private static void putBytes(ByteBuffer out, byte tag, ByteString bytes) {
+        out.put(tag);
+        putVarint(out, bytes.size());
+        bytes.copyTo(out);
+    }
+
+    private static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
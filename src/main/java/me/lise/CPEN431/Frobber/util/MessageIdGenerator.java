@@ -0,0 +1,130 @@
+package me.lise.CPEN431.Frobber.util;
+
+import com.google.protobuf.ByteString;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates 16-byte message IDs for one client socket.
+ *
+ * Layout: 4 bytes local IP, 2 bytes local port, a 2-byte salt that differs between generators in this process,
+ * then an 8-byte sequence number. The first 8 bytes are fixed per generator, and the sequence never repeats within
+ * it, so IDs are unique no matter how many threads share the generator or how coarse the clock is. The sequence
+ * starts from the wall clock so a later run on the same port doesn't reuse IDs the server may still have cached.
+ */
+public class MessageIdGenerator {
+    public static final int ID_LENGTH = 16;  // bytes
+
+    private static byte[] localIP;
+
+    /** Salts are handed out in order from a random start, so generators sharing a port still differ */
+    private static final AtomicInteger nextSalt = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+
+    private final long prefix;
+    private final AtomicLong sequence;
+
+    /**
+     * @param localPort The port of the socket the IDs are for.
+     */
+    public MessageIdGenerator(int localPort) {
+        byte[] ip = getLocalIP();
+        int salt = nextSalt.getAndIncrement() & 0xffff;
+        this.prefix = ((long) (ip[0] & 0xff) << 56) | ((long) (ip[1] & 0xff) << 48)
+                | ((long) (ip[2] & 0xff) << 40) | ((long) (ip[3] & 0xff) << 32)
+                | ((long) (localPort & 0xffff) << 16) | salt;
+        // ~1M IDs per ms of wall clock before a later run could catch up with this one
+        this.sequence = new AtomicLong(System.currentTimeMillis() << 20);
+    }
+
+    /**
+     * The local address only needs looking up once per process; {@link InetAddress#getLocalHost()} can do a name
+     * lookup.
+     */
+    private static synchronized byte[] getLocalIP() {
+        if (localIP == null) {
+            try {
+                localIP = InetAddress.getLocalHost().getAddress();
+            } catch (UnknownHostException e) {
+                localIP = InetAddress.getLoopbackAddress().getAddress();
+            }
+        }
+        return localIP;
+    }
+
+    /**
+     * Write the next ID at the buffer's position and advance the position by {@link #ID_LENGTH}.
+     * @param out The buffer to write into. Must have at least {@link #ID_LENGTH} bytes remaining.
+     * @return The sequence number embedded in the ID.
+     */
+    public long next(ByteBuffer out) {
+        long seq = sequence.getAndIncrement();
+        out.putLong(prefix).putLong(seq);
+        return seq;
+    }
+
+    /**
+     * Write the next ID into a byte array.
+     * @param out The array. Must have length of at least <code>offset + 16</code>.
+     * @param offset The index of the first byte to write.
+     * @return The sequence number embedded in the ID.
+     */
+    public long next(byte[] out, int offset) {
+        long seq = sequence.getAndIncrement();
+        putLong(out, offset, prefix);
+        putLong(out, offset + 8, seq);
+        return seq;
+    }
+
+    /**
+     * @return A newly allocated ID.
+     */
+    public byte[] next() {
+        byte[] id = new byte[ID_LENGTH];
+        next(id, 0);
+        return id;
+    }
+
+    /**
+     * Recover the sequence number from an ID made by this generator.
+     * @param id The message ID from a reply.
+     * @return The sequence number, or -1 if the ID did not come from this generator.
+     */
+    public long sequenceOf(ByteString id) {
+        if (id.size() != ID_LENGTH) {
+            return -1;
+        }
+        long idPrefix = 0;
+        long seq = 0;
+        for (int i = 0; i < 8; i++) {
+            idPrefix = (idPrefix << 8) | (id.byteAt(i) & 0xff);
+            seq = (seq << 8) | (id.byteAt(i + 8) & 0xff);
+        }
+        return idPrefix == prefix ? seq : -1;
+    }
+
+    /**
+     * Recover the sequence number from an ID in a buffer, without copying it out.
+     * @param buf The buffer holding the ID.
+     * @param offset The index of the ID's first byte.
+     * @param length The length of the ID.
+     * @return The sequence number, or -1 if the ID did not come from this generator.
+     */
+    public long sequenceOf(ByteBuffer buf, int offset, int length) {
+        if (length != ID_LENGTH || buf.getLong(offset) != prefix) {
+            return -1;
+        }
+        return buf.getLong(offset + 8);
+    }
+
+    private static void putLong(byte[] out, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            out[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package me.lise.CPEN431.Frobber.check;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LinearizabilityCheckerTest {
+    /** {@code Command.PUT}, {@code Command.GET} and {@code Command.REMOVE} */
+    private static final int PUT = 0x1;
+    private static final int GET = 0x2;
+    private static final int REMOVE = 0x3;
+
+    private static final ByteString KEY = ByteString.copyFromUtf8("k");
+
+    /**
+     * Clients hammering a couple of keys record a history far longer than the checker ever holds at once, since it
+     * checks each key a stretch at a time as the watermark passes; and a real map gives a linearizable history.
+     */
+    @Test
+    public void longHistoryIsCheckedAStretchAtATime() throws Exception {
+        int threads = 4;
+        int operationsPerThread = 50000;
+        ByteString[] keys = {KEY, ByteString.copyFromUtf8("other")};
+        ConcurrentMap<ByteString, KVResponse> map = new ConcurrentHashMap<>();
+        LinearizabilityChecker.Result result;
+        try (History history = new History(1)) {
+            List<Thread> clients = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int client = t;
+                clients.add(new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    try {
+                        for (int i = 0; i < operationsPerThread; i++) {
+                            ByteString key = keys[random.nextInt(keys.length)];
+                            ByteString value = ByteString.copyFromUtf8(client + ":" + i);
+                            int version = random.nextInt(3);
+                            int command = PUT + random.nextInt(3);
+                            long invokedAt = history.invoke();
+                            KVResponse response = apply(map, command, key, value, version);
+                            history.record(client, command, key, value, version, invokedAt, System.nanoTime(),
+                                    response);
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }));
+            }
+            for (Thread client : clients) {
+                client.start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            result = new LinearizabilityChecker(1, 100).check(history);
+        }
+        assertTrue(result.format(), result.isLinearizable());
+        assertEquals(result.format(), 0, result.getUnknownKeys());
+        // a partition is cut up every 10000 operations read, so unless a client stalls mid-operation a key holds
+        // little more than that, never its whole history of about 100000
+        assertTrue("held " + result.getMaxHeldOperations(), result.getMaxHeldOperations() < 50000);
+    }
+
+    /**
+     * A history without a single quiescent point is one long stretch, and the search is allowed steps in
+     * proportion to it rather than a fixed number.
+     */
+    @Test
+    public void stepLimitScalesWithTheStretch() throws Exception {
+        // every operation overlaps the next, so nothing is ever quiet; writes of i are read by i + 1
+        int operations = 200000;
+        try (History history = new History(1)) {
+            for (int i = 0; i < operations; i++) {
+                boolean put = i % 2 == 0;
+                history.record(new Operation(0, put ? Operation.Kind.PUT : Operation.Kind.GET, Operation.Outcome.OK,
+                        KEY, put ? i : i - 1, 0, 10L * i, 10L * i + 15));
+            }
+            LinearizabilityChecker.Result result = new LinearizabilityChecker(1, 10).check(history);
+            assertTrue(result.format(), result.isLinearizable());
+            assertEquals(result.format(), 0, result.getUnknownKeys());
+            assertEquals(operations, result.getMaxHeldOperations());
+        }
+    }
+
+    /**
+     * Every value concurrent writes could have left behind is carried into the next stretch, but no more.
+     */
+    @Test
+    public void everyOutcomeOfAStretchIsCarriedOver() throws Exception {
+        assertLinearizable(true, put(1, 0, 10), put(2, 5, 15), get(1, 20, 30));
+        assertLinearizable(true, put(1, 0, 10), put(2, 5, 15), get(2, 20, 30));
+        assertLinearizable(false, put(1, 0, 10), put(2, 5, 15), get(1, 20, 30), get(2, 40, 50));
+        // a stale read long after the write that replaced it
+        Operation stale = get(1, 40, 50);
+        LinearizabilityChecker.Result result = check(put(1, 0, 10), put(2, 20, 30), stale);
+        assertFalse(result.isLinearizable());
+        // read back from disk, so the same operation but not the same object
+        assertEquals(stale.getInvokedAt(), result.getViolations().get(0).getStuckAt().getInvokedAt());
+    }
+
+    /**
+     * A read must return the version written with the value, not just the value.
+     */
+    @Test
+    public void versionsAreChecked() throws Exception {
+        Operation put = new Operation(0, Operation.Kind.PUT, Operation.Outcome.OK, KEY, 1, 7, 0, 10);
+        assertLinearizable(true, put, new Operation(0, Operation.Kind.GET, Operation.Outcome.OK, KEY, 1, 7, 20, 30));
+        assertLinearizable(false, put, get(1, 20, 30));
+        // the same value written again under another version
+        assertLinearizable(false, put(1, 0, 10),
+                new Operation(0, Operation.Kind.PUT, Operation.Outcome.OK, KEY, 1, 7, 20, 30), get(1, 40, 50));
+    }
+
+    /**
+     * A write of unknown outcome can take effect in any later stretch, but only once.
+     */
+    @Test
+    public void unknownWritesAreCarriedUntilTheyTakeEffect() throws Exception {
+        Operation unknown = new Operation(0, Operation.Kind.PUT, Operation.Outcome.UNKNOWN, KEY, 2, 0, 20,
+                Operation.NEVER);
+        assertLinearizable(true, put(1, 0, 10), unknown, get(1, 30, 40), get(1, 50, 60), get(2, 70, 80));
+        assertLinearizable(false, put(1, 0, 10), unknown, get(2, 30, 40), get(1, 50, 60));
+        Operation remove = new Operation(0, Operation.Kind.REMOVE, Operation.Outcome.UNKNOWN, KEY, 0, 0, 20,
+                Operation.NEVER);
+        assertLinearizable(true, put(1, 0, 10), remove, get(1, 30, 40), absent(50, 60));
+        assertLinearizable(false, put(1, 0, 10), remove, absent(30, 40), get(1, 50, 60));
+    }
+
+    /**
+     * Timed-out writes pile up on a key that loses packets, but the ways they might have taken effect do not multiply.
+     */
+    @Test
+    public void manyUnknownWritesStayCheap() throws Exception {
+        int stretches = 60;
+        List<Operation> operations = new ArrayList<>();
+        for (int i = 0; i < stretches; i++) {
+            // a timed-out write, an acknowledged write, and a read of it, each finished before the next starts
+            long t = 100L * i;
+            operations.add(new Operation(0, i % 4 == 3 ? Operation.Kind.REMOVE : Operation.Kind.PUT,
+                    Operation.Outcome.UNKNOWN, KEY, 1000 + i, 0, t, Operation.NEVER));
+            operations.add(put(i, t + 10, t + 20));
+            operations.add(get(i, t + 30, t + 40));
+        }
+        // any of the timed-out writes may still land, but each only once
+        long t = 100L * stretches;
+        operations.add(get(1000 + 6, t, t + 10));
+        operations.add(get(1000 + 42, t + 20, t + 30));
+        assertLinearizable(true, operations.toArray(new Operation[0]));
+        operations.add(get(1000 + 6, t + 40, t + 50));
+        assertLinearizable(false, operations.toArray(new Operation[0]));
+    }
+
+    /**
+     * On small random histories, however they split into stretches, the checker agrees with trying every order.
+     */
+    @Test
+    public void agreesWithTryingEveryOrder() throws Exception {
+        Random random = new Random(431);
+        for (int h = 0; h < 3000; h++) {
+            Operation[] operations = new Operation[1 + random.nextInt(7)];
+            for (int i = 0; i < operations.length; i++) {
+                long invokedAt = random.nextInt(60);
+                long completedAt = invokedAt + 1 + random.nextInt(15);
+                Operation.Kind kind = Operation.Kind.values()[random.nextInt(3)];
+                Operation.Outcome outcome = random.nextInt(4) == 0 ? Operation.Outcome.NO_KEY : Operation.Outcome.OK;
+                if (kind == Operation.Kind.PUT) {
+                    outcome = Operation.Outcome.OK;
+                }
+                if (kind != Operation.Kind.GET && random.nextInt(5) == 0) {
+                    outcome = Operation.Outcome.UNKNOWN;
+                    completedAt = Operation.NEVER;
+                }
+                operations[i] = new Operation(0, kind, outcome, KEY, random.nextInt(3), 0, invokedAt, completedAt);
+            }
+            StringBuilder history = new StringBuilder();
+            for (Operation operation : operations) {
+                history.append('\n').append(operation.format(0));
+            }
+            LinearizabilityChecker.Result result = check(operations);
+            assertEquals(history.toString(), someOrderFits(new ArrayList<>(Arrays.asList(operations)),
+                    null), result.isLinearizable());
+            assertEquals(0, result.getUnknownKeys());
+        }
+    }
+
+    /**
+     * @param value The value the key holds, or null if none.
+     * @return Whether some order of {@code left} that respects real time explains what each returned. Operations of
+     * unknown outcome may also never take effect.
+     */
+    private static boolean someOrderFits(List<Operation> left, Long value) {
+        boolean onlyUnknown = true;
+        for (int i = 0; i < left.size(); i++) {
+            Operation next = left.get(i);
+            onlyUnknown &= next.getOutcome() == Operation.Outcome.UNKNOWN;
+            boolean first = true;
+            for (Operation other : left) {
+                first &= other.getCompletedAt() >= next.getInvokedAt();
+            }
+            Long after;
+            if (!first) {
+                continue;
+            } else if (next.getKind() == Operation.Kind.PUT) {
+                after = next.getValue();
+            } else if (next.getOutcome() == Operation.Outcome.UNKNOWN) {
+                after = null;
+            } else if (next.getOutcome() == Operation.Outcome.NO_KEY) {
+                if (value != null) {
+                    continue;
+                }
+                after = null;
+            } else if (value == null || (next.getKind() == Operation.Kind.GET && value != next.getValue())) {
+                continue;
+            } else {
+                after = next.getKind() == Operation.Kind.GET ? value : null;
+            }
+            left.remove(i);
+            boolean fits = someOrderFits(left, after);
+            left.add(i, next);
+            if (fits) {
+                return true;
+            }
+        }
+        return onlyUnknown;
+    }
+
+    private static void assertLinearizable(boolean expected, Operation... operations) throws Exception {
+        LinearizabilityChecker.Result result = check(operations);
+        assertEquals(result.format(), expected, result.isLinearizable());
+        assertEquals(result.format(), 0, result.getUnknownKeys());
+    }
+
+    private static LinearizabilityChecker.Result check(Operation... operations) throws Exception {
+        try (History history = new History(1)) {
+            for (Operation operation : operations) {
+                history.record(operation);
+            }
+            return new LinearizabilityChecker(1, 1000).check(history);
+        }
+    }
+
+    private static Operation put(long value, long invokedAt, long completedAt) {
+        return new Operation(0, Operation.Kind.PUT, Operation.Outcome.OK, KEY, value, 0, invokedAt, completedAt);
+    }
+
+    private static Operation get(long value, long invokedAt, long completedAt) {
+        return new Operation(0, Operation.Kind.GET, Operation.Outcome.OK, KEY, value, 0, invokedAt, completedAt);
+    }
+
+    private static Operation absent(long invokedAt, long completedAt) {
+        return new Operation(0, Operation.Kind.GET, Operation.Outcome.NO_KEY, KEY, 0, 0, invokedAt, completedAt);
+    }
+
+    /**
+     * Carry out a request on {@code map}, which is linearizable, and reply as a node would.
+     * @param map What a GET of each key would reply.
+     */
+    private static KVResponse apply(ConcurrentMap<ByteString, KVResponse> map, int command, ByteString key,
+                                    ByteString value, int version) {
+        KVResponse found;
+        if (command == PUT) {
+            map.put(key, KVResponse.newBuilder().setErrCode(0x0).setValue(value).setVersion(version).build());
+            return KVResponse.newBuilder().setErrCode(0x0).build();
+        } else if (command == GET) {
+            found = map.get(key);
+        } else {
+            found = map.remove(key);
+            if (found != null) {
+                return KVResponse.newBuilder().setErrCode(0x0).build();
+            }
+        }
+        return found != null ? found : KVResponse.newBuilder().setErrCode(0x1).build();
+    }
+}
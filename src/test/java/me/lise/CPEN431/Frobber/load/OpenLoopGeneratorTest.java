@@ -0,0 +1,57 @@
+package me.lise.CPEN431.Frobber.load;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
+import me.lise.CPEN431.Frobber.net.IOLoopGroup;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OpenLoopGeneratorTest {
+    /** Every retry of a request to a silent node: 100 + 200 + 400 + 800 ms */
+    private static final long GIVE_UP_NANOS = TimeUnit.MILLISECONDS.toNanos(1500);
+
+    /**
+     * A node that never answers must drag the corrected latencies up, not vanish from them.
+     */
+    @Test
+    public void timeoutsCountInCorrectedLatencies() throws IOException {
+        // bound but never read, so requests are neither answered nor bounced
+        try (DatagramSocket silent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             IOLoopGroup group = new IOLoopGroup(1, 1, 64)) {
+            InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    silent.getLocalPort());
+            OpenLoopGenerator.Result result = new OpenLoopGenerator(group, target, 100, Arrivals.FIXED)
+                    .run(() -> KVRequest.newBuilder().setCommand(0x6).build(), TimeUnit.MILLISECONDS.toNanos(200));
+
+            assertTrue(result.getSent() > 0);
+            assertEquals(result.getSent(), result.getTimeouts());
+            assertEquals(result.getSent(), result.getCorrected().getCount());
+            assertEquals(result.getSent(), result.getUncorrected().getCount());
+            assertEquals(result.getSent(), result.getCommandLatencies().total().getCount());
+            assertTrue(result.getCorrected().getPercentileMicros(50) * 1000 >= GIVE_UP_NANOS);
+            assertTrue(result.getCorrectedPercentileNanos(99) >= GIVE_UP_NANOS);
+            assertTrue(result.getCorrectedPercentileNanos(99) < Long.MAX_VALUE);
+
+            // and they survive the trip from a worker process to the coordinator
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            result.writeTo(new DataOutputStream(bytes));
+            OpenLoopGenerator.Result merged = new OpenLoopGenerator.Result();
+            merged.add(OpenLoopGenerator.Result.readFrom(new DataInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()))));
+            assertEquals(result.getSent(), merged.getCorrected().getCount());
+            assertEquals(result.getCorrectedPercentileNanos(99), merged.getCorrectedPercentileNanos(99));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package me.lise.CPEN431.Frobber.load;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+    private static final double RATE = 100000;
+    private static final long INTERVAL_NANOS = 10000;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    /**
+     * However long the bucket sat idle, no more than {@code burst} permits are due at once.
+     */
+    @Test
+    public void idleBucketHandsOutExactlyBurst() {
+        for (int burst : new int[] {1, 5}) {
+            RateLimiter limiter = new RateLimiter(RATE, burst);
+            long[] due = reserveAfterIdle(limiter, burst + 10);
+            long before = due[due.length - 2];
+            long after = due[due.length - 1];
+            assertTrue("burst " + burst + " hands out " + countDueBy(due, before), countDueBy(due, before) <= burst);
+            assertTrue("burst " + burst + " hands out " + countDueBy(due, after), countDueBy(due, after) >= burst);
+            // back to back they are an interval apart, or more if the bucket refilled while the caller was slow
+            for (int i = 1; i < burst + 10; i++) {
+                assertTrue(due[i] - due[i - 1] >= INTERVAL_NANOS);
+            }
+        }
+    }
+
+    /**
+     * With a catch-up window, permits up to that far behind the schedule can still be claimed.
+     */
+    @Test
+    public void catchUpIsOptIn() {
+        long catchUpNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        int saved = (int) (catchUpNanos / INTERVAL_NANOS) + 1;
+        RateLimiter limiter = new RateLimiter(RATE, 1, catchUpNanos);
+        long[] due = reserveAfterIdle(limiter, saved + 10);
+        assertTrue(countDueBy(due, due[due.length - 2]) <= saved);
+        assertTrue(countDueBy(due, due[due.length - 1]) >= saved);
+        assertEquals("10000/s (burst 1, catch-up 10 ms)", new RateLimiter(10000, 1, catchUpNanos).format());
+        assertEquals("10000/s (burst 1)", new RateLimiter(10000, 1).format());
+    }
+
+    /**
+     * Let {@code limiter} sit idle, then reserve {@code permits} back to back.
+     * @return The due times, followed by the time just before the first reservation and the time just after the last.
+     */
+    private static long[] reserveAfterIdle(RateLimiter limiter, int permits) {
+        RateLimiter.waitUntil(System.nanoTime() + IDLE_NANOS);
+        long[] due = new long[permits + 2];
+        due[permits] = System.nanoTime();
+        for (int i = 0; i < permits; i++) {
+            due[i] = limiter.reserve();
+        }
+        due[permits + 1] = System.nanoTime();
+        return due;
+    }
+
+    private static int countDueBy(long[] due, long time) {
+        int count = 0;
+        for (int i = 0; i < due.length - 2; i++) {
+            if (due[i] - time <= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
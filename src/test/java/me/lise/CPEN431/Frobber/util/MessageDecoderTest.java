@@ -0,0 +1,216 @@
+package me.lise.CPEN431.Frobber.util;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueResponse.KVResponse;
+import ca.NetSysLab.ProtocolBuffers.Message.Msg;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnknownFieldSet;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Differential test: whatever bytes come in, {@link MessageDecoder} must accept exactly what protobuf's generated
+ * {@code Msg.parseFrom} and {@code KVResponse.parseFrom} accept, and decode it to the same response.
+ */
+public class MessageDecoderTest {
+    private static final int RESPONSES = 20000;
+    private static final int MAX_VALUE_SIZE = 10000;
+    /** Values are kept short where every prefix of the message gets decoded */
+    private static final int TRUNCATED_RESPONSES = 500;
+    private static final int TRUNCATED_VALUE_SIZE = 40;
+
+    private final Random random = new Random(431);
+    private final MessageDecoder decoder = new MessageDecoder();
+
+    @Test
+    public void matchesProtobufForRandomResponses() {
+        for (int i = 0; i < RESPONSES; i++) {
+            KVResponse response = randomResponse(MAX_VALUE_SIZE);
+            assertDecodes("response " + i, MessageUtil.makeMessage(randomId(), response.toByteArray()).toByteArray());
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedMessages() {
+        for (int i = 0; i < TRUNCATED_RESPONSES; i++) {
+            byte[] id = randomId();
+            byte[] payload = randomResponse(TRUNCATED_VALUE_SIZE).toByteArray();
+            byte[] bytes = MessageUtil.makeMessage(id, payload).toByteArray();
+            for (int length = 0; length < bytes.length; length++) {
+                assertDecodes("message " + i + " cut to " + length + " B", Arrays.copyOf(bytes, length));
+            }
+            // a message that arrived whole can still carry a cut-off response
+            for (int length = 0; length < payload.length; length++) {
+                byte[] truncated = Arrays.copyOf(payload, length);
+                assertDecodes("response " + i + " cut to " + length + " B",
+                        MessageUtil.makeMessage(id, truncated).toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void rejectsBadChecksums() {
+        for (int i = 0; i < RESPONSES; i++) {
+            byte[] payload = randomResponse(MAX_VALUE_SIZE).toByteArray();
+            Msg message = MessageUtil.makeMessage(randomId(), payload);
+            Msg corrupted;
+            if (random.nextBoolean() || payload.length == 0) {
+                corrupted = message.toBuilder().setCheckSum(message.getCheckSum() ^ 1L << random.nextInt(64)).build();
+            } else {
+                payload[random.nextInt(payload.length)] ^= 1 << random.nextInt(8);
+                corrupted = message.toBuilder().setPayload(ByteString.copyFrom(payload)).build();
+            }
+            assertDecodes("corrupted " + i, corrupted.toByteArray());
+            assertFalse("corrupted " + i, decoder.isChecksumValid());
+        }
+    }
+
+    @Test
+    public void skipsUnknownFields() throws IOException {
+        for (int i = 0; i < RESPONSES; i++) {
+            byte[] id = randomId();
+            byte[] payload = concat(randomFields(), randomResponse(MAX_VALUE_SIZE).toByteArray(), randomFields());
+            byte[] message = MessageUtil.makeMessage(id, payload).toByteArray();
+            assertDecodes("unknown fields " + i, concat(randomFields(), message, randomFields()));
+        }
+    }
+
+    /**
+     * Decode {@code bytes} from part-way into a buffer with junk either side, and check each step agrees with
+     * protobuf.
+     */
+    private void assertDecodes(String what, byte[] bytes) {
+        int offset = random.nextInt(64);
+        byte[] junk = new byte[offset + bytes.length + 16];
+        random.nextBytes(junk);
+        ByteBuffer buf = random.nextBoolean() ? ByteBuffer.allocate(junk.length)
+                : ByteBuffer.allocateDirect(junk.length);
+        buf.put(junk);
+        buf.position(offset);
+        buf.put(bytes);
+        buf.limit(buf.position()).position(offset);
+
+        Msg message = parseMessage(bytes);
+        assertEquals(what, message != null, decoder.decodeMessage(buf));
+        if (message != null) {
+            assertEquals(what, MessageUtil.validateChecksum(message), decoder.isChecksumValid());
+            KVResponse response = parseResponse(message.getPayload());
+            assertEquals(what, response != null, decoder.decodeResponse());
+            if (response != null) {
+                KVResponse known = response.toBuilder().setUnknownFields(UnknownFieldSet.getDefaultInstance()).build();
+                assertEquals(what, known, decoder.toResponse());
+            }
+        }
+        assertEquals("position left changed " + what, offset, buf.position());
+        assertEquals("limit left changed " + what, offset + bytes.length, buf.limit());
+    }
+
+    private static Msg parseMessage(byte[] bytes) {
+        try {
+            return Msg.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            return null;
+        }
+    }
+
+    private static KVResponse parseResponse(ByteString bytes) {
+        try {
+            return KVResponse.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return A response that is sometimes missing its required error code.
+     */
+    private KVResponse randomResponse(int maxValueSize) {
+        KVResponse.Builder response = KVResponse.newBuilder();
+        if (random.nextInt(10) != 0) {
+            // mostly real error codes, sometimes anything a uint32 can hold
+            response.setErrCode(random.nextInt(4) == 0 ? random.nextInt() : random.nextInt(0x22));
+        }
+        if (random.nextBoolean()) {
+            response.setValue(randomBytes(random.nextInt(3) == 0 ? 0 : random.nextInt(maxValueSize + 1)));
+        }
+        if (random.nextBoolean()) {
+            response.setPid(randomInt());
+        }
+        if (random.nextBoolean()) {
+            response.setVersion(randomInt());
+        }
+        if (random.nextBoolean()) {
+            response.setOverloadWaitTime(randomInt());
+        }
+        if (random.nextBoolean()) {
+            response.setMembershipCount(randomInt());
+        }
+        return response.buildPartial();
+    }
+
+    /**
+     * @return Fields of either message, each numbered past the known ones or known but with a different wire type,
+     * or sometimes a known field again (the last one wins).
+     */
+    private byte[] randomFields() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        int fields = random.nextInt(4);
+        for (int i = 0; i < fields; i++) {
+            int field = random.nextBoolean() ? 1 + random.nextInt(6) : 7 + random.nextInt(1000);
+            switch (random.nextInt(4)) {
+            case 0:
+                out.writeUInt64(field, random.nextLong());
+                break;
+            case 1:
+                out.writeFixed64(field, random.nextLong());
+                break;
+            case 2:
+                out.writeBytes(field, randomBytes(random.nextInt(100)));
+                break;
+            default:
+                out.writeFixed32(field, random.nextInt());
+                break;
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private int randomInt() {
+        // small, large and negative values take 1, several and 10 varint bytes
+        int kind = random.nextInt(3);
+        return kind == 0 ? random.nextInt(128) : kind == 1 ? random.nextInt(Integer.MAX_VALUE)
+                : -1 - random.nextInt(Integer.MAX_VALUE);
+    }
+
+    private byte[] randomId() {
+        byte[] id = new byte[MessageIdGenerator.ID_LENGTH];
+        random.nextBytes(id);
+        return id;
+    }
+
+    private ByteString randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return ByteString.copyFrom(bytes);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            bytes.write(part, 0, part.length);
+        }
+        return bytes.toByteArray();
+    }
+}
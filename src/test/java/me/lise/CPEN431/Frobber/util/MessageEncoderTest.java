@@ -0,0 +1,161 @@
+package me.lise.CPEN431.Frobber.util;
+
+import ca.NetSysLab.ProtocolBuffers.KeyValueRequest.KVRequest;
+import ca.NetSysLab.ProtocolBuffers.Message.Msg;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Differential test: whatever request goes in, {@link MessageEncoder} must write exactly the bytes protobuf's
+ * generated {@code Msg.toByteArray()} does, checksum included.
+ */
+public class MessageEncoderTest {
+    private static final int REQUESTS = 20000;
+    private static final int MAX_VALUE_SIZE = 10000;
+    private static final String NON_ASCII = "Ph'nglui mglw'nafh Cthulhu — värde ☃ 値 🐙";
+
+    private final Random random = new Random(431);
+
+    @Test
+    public void matchesProtobufForRandomRequests() {
+        MessageIdGenerator ids = new MessageIdGenerator(10145);
+        for (int i = 0; i < REQUESTS; i++) {
+            KVRequest request = randomRequest();
+            byte[] id = new byte[MessageIdGenerator.ID_LENGTH];
+            random.nextBytes(id);
+            // start part-way into the buffer, so position arithmetic is exercised too
+            int offset = random.nextInt(64);
+
+            ByteBuffer heap = ByteBuffer.allocate(offset + MessageEncoder.encodedSize(request, id.length) + 16);
+            assertEncodes(request, id, heap, offset);
+            ByteBuffer direct = ByteBuffer.allocateDirect(heap.capacity());
+            assertEncodes(request, id, direct, offset);
+
+            // the generator path writes its own ID, which can be read back from the output
+            ByteBuffer out = ByteBuffer.allocate(MessageEncoder.encodedSize(request, MessageIdGenerator.ID_LENGTH));
+            MessageEncoder.encode(out, ids, request);
+            byte[] generatedId = Arrays.copyOfRange(out.array(), 2, 2 + MessageIdGenerator.ID_LENGTH);
+            assertArrayEquals(describe(request), expected(generatedId, request), out.array());
+        }
+    }
+
+    @Test
+    public void matchesProtobufForEdgeCases() {
+        byte[] id = new byte[MessageIdGenerator.ID_LENGTH];
+        byte[] maxValue = new byte[MAX_VALUE_SIZE];
+        random.nextBytes(maxValue);
+        KVRequest[] requests = {
+                KVRequest.newBuilder().setCommand(0).build(),
+                KVRequest.newBuilder().setCommand(0x6).build(),
+                KVRequest.newBuilder().setCommand(-1).build(),  // uint32 0xffffffff
+                KVRequest.newBuilder().setCommand(0x1).setKey(ByteString.EMPTY).setValue(ByteString.EMPTY).build(),
+                KVRequest.newBuilder().setCommand(0x1).setKey(ByteString.copyFrom(new byte[32]))
+                        .setValue(ByteString.copyFrom(maxValue)).setVersion(Integer.MAX_VALUE).build(),
+                KVRequest.newBuilder().setCommand(0x1).setKey(ByteString.copyFromUtf8(NON_ASCII))
+                        .setValue(ByteString.copyFromUtf8(NON_ASCII)).setVersion(-1).build(),
+                KVRequest.newBuilder().setCommand(0x1).setKey(ByteString.copyFromUtf8("k"))
+                        .setValue(ByteString.copyFromUtf8("v")).setVersion(Integer.MIN_VALUE).build(),
+                KVRequest.newBuilder().setCommand(0x2).setKey(ByteString.copyFromUtf8("k")).setVersion(0).build(),
+        };
+        for (KVRequest request : requests) {
+            assertEncodes(request, id, ByteBuffer.allocate(MessageEncoder.encodedSize(request, id.length)), 0);
+        }
+    }
+
+    private void assertEncodes(KVRequest request, byte[] id, ByteBuffer out, int offset) {
+        int size = MessageEncoder.encodedSize(request, id.length);
+        out.clear();
+        out.position(offset);
+        MessageEncoder.encode(out, id, request);
+        assertEquals("encodedSize " + describe(request), offset + size, out.position());
+        assertEquals("limit left changed " + describe(request), out.capacity(), out.limit());
+
+        byte[] actual = new byte[size];
+        out.position(offset);
+        out.get(actual);
+        assertArrayEquals(describe(request), expected(id, request), actual);
+    }
+
+    /**
+     * What the generated classes write for the same message, with the checksum worked out independently.
+     */
+    private static byte[] expected(byte[] id, KVRequest request) {
+        byte[] payload = request.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(id);
+        crc.update(payload);
+        byte[] bytes = Msg.newBuilder()
+                .setMessageID(ByteString.copyFrom(id))
+                .setPayload(ByteString.copyFrom(payload))
+                .setCheckSum(crc.getValue())
+                .build()
+                .toByteArray();
+        // and the checksum agrees with the one the rest of the client validates against
+        assertArrayEquals(MessageUtil.makeMessage(id, payload).toByteArray(), bytes);
+        return bytes;
+    }
+
+    private KVRequest randomRequest() {
+        KVRequest.Builder request = KVRequest.newBuilder();
+        // mostly real commands, sometimes anything a uint32 can hold
+        request.setCommand(random.nextInt(4) == 0 ? random.nextInt() : random.nextInt(0x22));
+        if (random.nextBoolean()) {
+            request.setKey(randomBytes(random.nextInt(3) == 0 ? 0 : 1 + random.nextInt(32)));
+        }
+        if (random.nextBoolean()) {
+            int kind = random.nextInt(4);
+            if (kind == 0) {
+                request.setValue(ByteString.EMPTY);
+            } else if (kind == 1) {
+                request.setValue(randomBytes(MAX_VALUE_SIZE));
+            } else if (kind == 2) {
+                request.setValue(randomText());
+            } else {
+                request.setValue(randomBytes(random.nextInt(MAX_VALUE_SIZE)));
+            }
+        }
+        if (random.nextBoolean()) {
+            // small, large and negative versions take 1, several and 10 varint bytes
+            int kind = random.nextInt(3);
+            request.setVersion(kind == 0 ? random.nextInt(128) : kind == 1 ? random.nextInt(Integer.MAX_VALUE)
+                    : -1 - random.nextInt(Integer.MAX_VALUE));
+        }
+        return request.build();
+    }
+
+    private ByteString randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return ByteString.copyFrom(bytes);
+    }
+
+    private ByteString randomText() {
+        StringBuilder s = new StringBuilder();
+        int words = 1 + random.nextInt(50);
+        for (int i = 0; i < words; i++) {
+            int start = random.nextInt(NON_ASCII.length() - 1);
+            if (Character.isLowSurrogate(NON_ASCII.charAt(start))) {
+                start--;
+            }
+            s.append(NON_ASCII, start, NON_ASCII.length()).append(' ');
+        }
+        return ByteString.copyFrom(s.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String describe(KVRequest request) {
+        return String.format("for command %d, key %s, value %s, version %s", request.getCommand(),
+                request.hasKey() ? request.getKey().size() + " B" : "absent",
+                request.hasValue() ? request.getValue().size() + " B" : "absent",
+                request.hasVersion() ? Integer.toString(request.getVersion()) : "absent");
+    }
+}
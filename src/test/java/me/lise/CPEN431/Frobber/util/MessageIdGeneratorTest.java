@@ -0,0 +1,98 @@
+package me.lise.CPEN431.Frobber.util;
+
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+public class MessageIdGeneratorTest {
+    /** Threads per generator, and IDs each thread makes */
+    private static final int THREADS = 4;
+    private static final int IDS_PER_THREAD = 1000000;
+
+    /**
+     * Two generators on the same port, each hammered by several threads as fast as they can go, between them make
+     * several million IDs; every one of them must be different.
+     */
+    @Test
+    public void idsStayUniqueAcrossThreadsAndGenerators() throws InterruptedException {
+        MessageIdGenerator[] generators = {new MessageIdGenerator(10145), new MessageIdGenerator(10145)};
+        long[][] prefixes = new long[generators.length * THREADS][IDS_PER_THREAD];
+        long[][] sequences = new long[generators.length * THREADS][IDS_PER_THREAD];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < prefixes.length; t++) {
+            final int thread = t;
+            final MessageIdGenerator ids = generators[t % generators.length];
+            threads.add(new Thread(() -> {
+                ByteBuffer buf = ByteBuffer.allocate(MessageIdGenerator.ID_LENGTH);
+                byte[] array = new byte[MessageIdGenerator.ID_LENGTH];
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    // half the threads write into buffers, half into arrays
+                    if (thread % 4 < 2) {
+                        buf.clear();
+                        ids.next(buf);
+                    } else {
+                        ids.next(array, 0);
+                        buf.clear();
+                        buf.put(array);
+                    }
+                    prefixes[thread][i] = buf.getLong(0);
+                    sequences[thread][i] = buf.getLong(8);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // an ID is its generator's fixed prefix followed by a sequence number, so the IDs are unique if the
+        // generators' prefixes differ and no generator hands out a sequence number twice
+        assertNotEquals("generators sharing a port share a prefix", prefixes[0][0], prefixes[1][0]);
+        for (int g = 0; g < generators.length; g++) {
+            long[] all = new long[THREADS * IDS_PER_THREAD];
+            int n = 0;
+            for (int t = g; t < prefixes.length; t += generators.length) {
+                for (int i = 0; i < IDS_PER_THREAD; i++) {
+                    assertEquals("prefix changed within a generator", prefixes[g][0], prefixes[t][i]);
+                    all[n++] = sequences[t][i];
+                }
+            }
+            Arrays.sort(all);
+            for (int i = 1; i < all.length; i++) {
+                if (all[i] == all[i - 1]) {
+                    fail(String.format("sequence %d handed out twice", all[i]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sequenceRoundTripsOnlyForItsOwnGenerator() {
+        MessageIdGenerator ids = new MessageIdGenerator(10145);
+        MessageIdGenerator other = new MessageIdGenerator(10145);
+        ByteBuffer buf = ByteBuffer.allocate(MessageIdGenerator.ID_LENGTH);
+        long seq = ids.next(buf);
+        assertEquals(seq, ids.sequenceOf(buf, 0, MessageIdGenerator.ID_LENGTH));
+        assertEquals(seq, ids.sequenceOf(ByteString.copyFrom(buf.array())));
+        assertEquals(-1, other.sequenceOf(buf, 0, MessageIdGenerator.ID_LENGTH));
+        assertEquals(-1, ids.sequenceOf(buf, 0, MessageIdGenerator.ID_LENGTH - 1));
+    }
+}